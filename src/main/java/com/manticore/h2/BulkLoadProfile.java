@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The settings of a new database while a script is imported, which trade durability for speed: a
+ * larger cache, a longer delay of the commits written to the file, no retention of old chunks and,
+ * for the 1.x versions, no transaction and undo log. The previous values are restored after the
+ * import, before the database is shut down.
+ *
+ * <p>
+ * H2 1.x and 2.x accept different settings, so the profile depends on the {@link DriverRecord}. A
+ * setting the database rejects anyway is skipped.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class BulkLoadProfile {
+    public static final Logger LOGGER = Logger.getLogger(BulkLoadProfile.class.getName());
+
+    // the milliseconds between a commit and its write to the file
+    public static final int BULK_WRITE_DELAY = 5000;
+
+    private final DriverRecord driverRecord;
+    private final int cacheSize;
+
+    // the previous values of the applied settings
+    private final LinkedHashMap<String, String> restoreValues = new LinkedHashMap<>();
+
+    /**
+     * @param driverRecord the H2 version of the new database
+     * @param cacheSize the cache size during the import in KB
+     */
+    public BulkLoadProfile(DriverRecord driverRecord, int cacheSize) {
+        this.driverRecord = driverRecord;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return a quarter of the maximum heap in KB
+     */
+    public static int getDefaultCacheSize() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / 1024);
+    }
+
+    /**
+     * @return the settings and their values during the import, in the order they are applied
+     */
+    public Map<String, String> getSettings() {
+        LinkedHashMap<String, String> settings = new LinkedHashMap<>();
+        settings.put("CACHE_SIZE", String.valueOf(cacheSize));
+        settings.put("WRITE_DELAY", String.valueOf(BULK_WRITE_DELAY));
+        if (!isBefore(1, 4)) {
+            // the MVStore reuses the space of the overwritten chunks at once
+            settings.put("RETENTION_TIME", "0");
+        }
+        if (isBefore(2, 0)) {
+            // not supported by the MVStore of H2 2.x
+            settings.put("LOG", "0");
+            settings.put("UNDO_LOG", "0");
+        }
+        return settings;
+    }
+
+    /**
+     * Applies the settings of the import and keeps the previous values.
+     *
+     * @param connection the connection to the new database
+     */
+    public void apply(Connection connection) throws SQLException {
+        Map<String, String> currentValues = getCurrentValues(connection);
+        LinkedHashMap<String, String> appliedValues = new LinkedHashMap<>();
+        try (Statement st = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : getSettings().entrySet()) {
+                String name = setting.getKey();
+                String value = setting.getValue();
+                String currentValue = currentValues.get(name);
+
+                // a cache configured larger already is kept
+                if (name.equals("CACHE_SIZE") && currentValue != null
+                        && Long.parseLong(currentValue) >= Long.parseLong(value)) {
+                    continue;
+                }
+
+                try {
+                    st.executeUpdate("SET " + name + " " + value);
+                    restoreValues.put(name, currentValue);
+                    appliedValues.put(name, value);
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.FINE, "Skip the setting " + name + " of " + driverRecord,
+                            ex);
+                }
+            }
+        }
+        LOGGER.info("Applied the bulk load settings " + appliedValues + " of " + driverRecord);
+    }
+
+    /**
+     * Restores the previous values of the applied settings.
+     *
+     * @param connection the connection to the new database
+     */
+    public void restore(Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            for (Map.Entry<String, String> setting : restoreValues.entrySet()) {
+                if (setting.getValue() != null) {
+                    st.executeUpdate("SET " + setting.getKey() + " " + setting.getValue());
+                }
+            }
+        }
+        LOGGER.fine("Restored the settings " + restoreValues);
+        restoreValues.clear();
+    }
+
+    /**
+     * Reads the current values of the settings from the INFORMATION_SCHEMA, where the columns
+     * are named differently by H2 1.x and 2.x. The values missing there are the defaults of H2.
+     */
+    private Map<String, String> getCurrentValues(Connection connection) throws SQLException {
+        HashMap<String, String> settings = new HashMap<>();
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT * FROM INFORMATION_SCHEMA.SETTINGS")) {
+            while (rs.next()) {
+                settings.put(rs.getString(1), rs.getString(2));
+            }
+        }
+
+        HashMap<String, String> currentValues = new HashMap<>();
+        String cacheMaxSize = settings.get("info.CACHE_MAX_SIZE");
+        if (cacheMaxSize != null) {
+            // the MVStore reports MB, the PageStore KB
+            long cacheSize = Long.parseLong(cacheMaxSize);
+            currentValues.put("CACHE_SIZE", String.valueOf(
+                    "true".equalsIgnoreCase(settings.get("MV_STORE")) ? cacheSize * 1024
+                            : cacheSize));
+        }
+        currentValues.put("WRITE_DELAY", settings.getOrDefault("WRITE_DELAY", "500"));
+        currentValues.put("RETENTION_TIME", settings.getOrDefault("RETENTION_TIME", "45000"));
+        currentValues.put("LOG", settings.getOrDefault("LOG", "2"));
+        currentValues.put("UNDO_LOG", "1");
+        return currentValues;
+    }
+
+    private boolean isBefore(int majorVersion, int minorVersion) {
+        return driverRecord.majorVersion < majorVersion
+                || driverRecord.majorVersion == majorVersion
+                        && driverRecord.minorVersion < minorVersion;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes tasks on a pool of workers, each with its own connection to the same database.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+final class ConnectionWorkers {
+    public static final Logger LOGGER = Logger.getLogger(ConnectionWorkers.class.getName());
+
+    private ConnectionWorkers() {}
+
+    /**
+     * Executes the tasks on a pool of workers, each with its own connection. The first worker uses
+     * the given connection.
+     */
+    static <T> void execute(List<T> tasks, Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, int threads, String name,
+            Task<T> task) throws SQLException, IOException {
+        int n = Math.max(1, Math.min(threads, tasks.size()));
+        if (n == 1 || connectionSupplier == null) {
+            for (T t : tasks) {
+                run(task, t, connection, name);
+            }
+            return;
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(n, r -> {
+            Thread thread =
+                    new Thread(r, "H2 " + name + " Worker " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        ArrayBlockingQueue<Connection> connections = new ArrayBlockingQueue<>(n);
+        ArrayList<Connection> openedConnections = new ArrayList<>();
+        try {
+            connections.add(connection);
+            for (int i = 1; i < n; i++) {
+                Connection c = connectionSupplier.get();
+                openedConnections.add(c);
+                connections.add(c);
+            }
+
+            ArrayList<Future<Void>> futures = new ArrayList<>();
+            for (T t : tasks) {
+                futures.add(executorService.submit(() -> {
+                    Connection c = connections.take();
+                    try {
+                        run(task, t, c, name);
+                        return null;
+                    } finally {
+                        connections.put(c);
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while processing the tables.", ex);
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof SQLException) {
+                        throw (SQLException) ex.getCause();
+                    } else if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+                    throw new SQLException("Failed to process the tables.", ex.getCause());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+            for (Connection c : openedConnections) {
+                try {
+                    c.close();
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.WARNING, "Failed to close the worker connection.", ex);
+                }
+            }
+        }
+    }
+
+    // the running tasks are counted as the active workers of the MigrationProgress
+    private static <T> void run(Task<T> task, T t, Connection connection, String name)
+            throws SQLException, IOException {
+        MigrationEvents.StatementGroupEvent event =
+                new MigrationEvents.StatementGroupEvent(name, String.valueOf(t));
+        event.begin();
+        MigrationProgress.workerStarted();
+        try {
+            task.execute(t, connection);
+            event.setSuccess(true);
+        } finally {
+            event.commit();
+            MigrationProgress.workerFinished();
+        }
+    }
+
+    interface Task<T> {
+        void execute(T t, Connection connection) throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The header of a H2 database file, which tells the storage format without opening the database.
+ * The range of the H2 drivers able to open the file follows from the format, so the automatic
+ * migration does not need to try every known driver.
+ *
+ * <p>
+ * A MVStore file ({@code .mv.db}) starts with a text header like
+ * {@code H:2,block:3,blockSize:1000,chunk:2,clean:1,created:18f3a0c5a21,format:2,...}. The
+ * format 1 is written by H2 1.4, the format 2 by H2 2.0 and 2.1 and the format 3 by H2 2.2 and
+ * later. A PageStore file ({@code .h2.db}) starts with {@code -- H2 0.5/B --} and is read by H2 1.x
+ * only.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DatabaseFileHeader {
+    public static final Logger LOGGER = Logger.getLogger(DatabaseFileHeader.class.getName());
+
+    private static final String MV_STORE_PREFIX = "H:2,";
+    private static final String PAGE_STORE_PREFIX = "-- H2 0.5/B --";
+
+    // the MVStore writes the header into the first block of 4 KB
+    private static final int HEADER_LENGTH = 4096;
+
+    public enum Storage {
+        MV_STORE, PAGE_STORE, UNKNOWN
+    }
+
+    private final Storage storage;
+    private final int format;
+    private final long created;
+    private final String keys;
+    private final long fileSize;
+
+    private DatabaseFileHeader(Storage storage, int format, long created, String keys,
+            long fileSize) {
+        this.storage = storage;
+        this.format = format;
+        this.created = created;
+        this.keys = keys;
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Reads the header of the {@code .mv.db} or the {@code .h2.db} file of a database.
+     *
+     * @param databaseName the database file name without the extension
+     * @return the header, which is {@link Storage#UNKNOWN} when the file can't be read or is
+     *         encrypted
+     */
+    public static DatabaseFileHeader read(String databaseName) {
+        File file = new File(databaseName + ".mv.db");
+        if (!file.isFile()) {
+            file = new File(databaseName + ".h2.db");
+        }
+        return read(file);
+    }
+
+    public static DatabaseFileHeader read(File file) {
+        byte[] bytes = new byte[HEADER_LENGTH];
+        int length = 0;
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            length = inputStream.readNBytes(bytes, 0, bytes.length);
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to read the header of " + file, ex);
+        }
+
+        long fileSize = file.length();
+        String text = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        if (text.startsWith(PAGE_STORE_PREFIX)) {
+            return new DatabaseFileHeader(Storage.PAGE_STORE, -1, -1, "", fileSize);
+        } else if (text.startsWith(MV_STORE_PREFIX)) {
+            int end = 0;
+            while (end < text.length() && text.charAt(end) != '\n' && text.charAt(end) != 0) {
+                end++;
+            }
+
+            TreeMap<String, String> values = new TreeMap<>();
+            for (String pair : text.substring(0, end).split(",")) {
+                int i = pair.indexOf(':');
+                if (i > 0) {
+                    values.put(pair.substring(0, i), pair.substring(i + 1));
+                }
+            }
+
+            try {
+                return new DatabaseFileHeader(Storage.MV_STORE,
+                        Integer.parseInt(values.getOrDefault("format", "1"), 16),
+                        Long.parseLong(values.getOrDefault("created", "-1"), 16),
+                        String.join(";", values.keySet()), fileSize);
+            } catch (NumberFormatException ex) {
+                LOGGER.log(Level.FINE, "Failed to parse the header of " + file, ex);
+            }
+        }
+        return new DatabaseFileHeader(Storage.UNKNOWN, -1, -1, "", fileSize);
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the format of the MVStore or -1
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the creation time of the MVStore in milliseconds or -1
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Identifies a family of similar databases rather than a single database: the storage, the
+     * format, the names of the header fields (which differ between the H2 versions writing the
+     * same format) and the magnitude of the file size. Databases of the same family are opened by
+     * the same driver.
+     *
+     * @return the fingerprint of the database file
+     */
+    public String getFingerprint() {
+        int sizeClass = fileSize > 0 ? 64 - Long.numberOfLeadingZeros(fileSize) : 0;
+        return storage + ":" + format + ":" + keys + ":" + sizeClass;
+    }
+
+    /**
+     * @param driverRecord the H2 driver
+     * @return TRUE, when the driver can open a file with this header or the header is unknown
+     */
+    public boolean isCompatible(DriverRecord driverRecord) {
+        int major = driverRecord.majorVersion;
+        int minor = driverRecord.minorVersion;
+        if (storage == Storage.PAGE_STORE) {
+            return major == 1;
+        } else if (storage == Storage.MV_STORE) {
+            switch (format) {
+                case 1:
+                    // the beta 2.0.201 reads the format 1 still
+                    return major == 1 && minor == 4
+                            || major == 2 && minor == 0 && driverRecord.patchId == 201;
+                case 2:
+                    return major == 2 && minor <= 1;
+                case 3:
+                    return major > 2 || major == 2 && minor >= 2;
+                default:
+                    return true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        switch (storage) {
+            case MV_STORE:
+                return "MVStore format " + format
+                        + (created > 0 ? ", created " + Instant.ofEpochMilli(created) : "");
+            case PAGE_STORE:
+                return "PageStore";
+            default:
+                return "unknown format";
+        }
+    }
+}
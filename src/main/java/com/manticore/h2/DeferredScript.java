@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A plain script, from which the statements creating the secondary indices and the foreign keys
+ * are held back. The rows are loaded without maintaining these indices and constraints, which are
+ * built afterwards on several connections at once, one table per connection.
+ *
+ * <p>
+ * Unique indices and the primary keys stay in the script, so their constraints are still checked
+ * while the rows are loaded. The foreign keys are validated by one query per constraint before
+ * they are created, so all violations are reported at once instead of failing on the first row.
+ * Deferring the indices defers the foreign keys too, because H2 would otherwise create an index of
+ * its own for every foreign key that is not covered by an existing index yet.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DeferredScript {
+    public static final Logger LOGGER = Logger.getLogger(DeferredScript.class.getName());
+
+    // a non-unique index and its table
+    private static final Pattern CREATE_INDEX_PATTERN = Pattern.compile(
+            "^CREATE\\s+(HASH\\s+|SPATIAL\\s+)*INDEX\\s.*?\\sON\\s+(.+?)\\s*\\(",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // a foreign key, e.g. ALTER TABLE "PUBLIC"."B" ADD CONSTRAINT "PUBLIC"."FK_A"
+    // FOREIGN KEY("A_ID") REFERENCES "PUBLIC"."A"("ID") NOCHECK
+    private static final Pattern FOREIGN_KEY_PATTERN = Pattern.compile(
+            "^ALTER\\s+TABLE\\s+(?<table>.+?)\\s+ADD\\s+(CONSTRAINT\\s+(?<name>.+?)\\s+)?"
+                    + "FOREIGN\\s+KEY\\s*\\((?<columns>[^)]+)\\)\\s*"
+                    + "REFERENCES\\s+(?<referencedTable>.+?)\\s*\\((?<referencedColumns>[^)]+)\\)"
+                    + "(?<options>.*)$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private static final Pattern NOCHECK_PATTERN =
+            Pattern.compile("\\sNOCHECK\\s*$", Pattern.CASE_INSENSITIVE);
+
+    // the held back indices and foreign keys by their table, in the order of the script
+    private final LinkedHashMap<String, List<String>> indices = new LinkedHashMap<>();
+    private final LinkedHashMap<String, List<ForeignKey>> foreignKeys = new LinkedHashMap<>();
+
+    private DeferredScript() {}
+
+    /**
+     * Writes a copy of the script without the statements creating the secondary indices or the
+     * foreign keys.
+     *
+     * @param source the plain UTF-8 script
+     * @param target the script loading the data, which is replaced when it exists
+     * @param deferIndices when TRUE, the non-unique indices and the foreign keys are held back,
+     *        since a foreign key created before its index would create a duplicate index
+     * @param deferForeignKeys when TRUE, the foreign keys are held back
+     * @return the held back statements
+     */
+    public static DeferredScript split(Path source, Path target, boolean deferIndices,
+            boolean deferForeignKeys) throws IOException {
+        DeferredScript script = new DeferredScript();
+        try (ScriptStatementReader reader = new ScriptStatementReader(source);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(target), StandardCharsets.UTF_8), 1 << 20)) {
+            String sqlStr;
+            while ((sqlStr = reader.next()) != null) {
+                Matcher matcher;
+                if (deferIndices && (matcher = CREATE_INDEX_PATTERN.matcher(sqlStr)).find()) {
+                    script.indices.computeIfAbsent(matcher.group(2), k -> new ArrayList<>())
+                            .add(sqlStr);
+                } else if ((deferIndices || deferForeignKeys)
+                        && (matcher = FOREIGN_KEY_PATTERN.matcher(sqlStr)).find()) {
+                    ForeignKey foreignKey = new ForeignKey(matcher, sqlStr);
+                    script.foreignKeys.computeIfAbsent(foreignKey.table, k -> new ArrayList<>())
+                            .add(foreignKey);
+                } else {
+                    writer.write(sqlStr);
+                    writer.write(";\n");
+                }
+            }
+        }
+        LOGGER.fine("Held back " + script.getIndexCount() + " indices and "
+                + script.getForeignKeys().size() + " foreign keys of " + source);
+        return script;
+    }
+
+    /**
+     * @return the number of held back indices
+     */
+    public int getIndexCount() {
+        int n = 0;
+        for (List<String> statements : indices.values()) {
+            n += statements.size();
+        }
+        return n;
+    }
+
+    /**
+     * @return the held back foreign keys
+     */
+    public List<ForeignKey> getForeignKeys() {
+        ArrayList<ForeignKey> list = new ArrayList<>();
+        for (List<ForeignKey> tableForeignKeys : foreignKeys.values()) {
+            list.addAll(tableForeignKeys);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Creates the held back indices. The indices of the same table are created one after the
+     * other, since every index locks its table, and the tables with the most indices are started
+     * first.
+     *
+     * @param connection the connection to the loaded database
+     * @param connectionSupplier opens more connections to the loaded database
+     * @param threads the number of tables indexed at the same time
+     */
+    public void createIndices(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, int threads)
+            throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+
+        ArrayList<List<String>> tasks = new ArrayList<>(indices.values());
+        tasks.sort(Comparator.comparingInt((List<String> statements) -> statements.size())
+                .reversed());
+        ConnectionWorkers.execute(tasks, connection, connectionSupplier, threads, "Index",
+                (statements, c) -> {
+                    try (Statement st = c.createStatement()) {
+                        for (String sqlStr : statements) {
+                            st.executeUpdate(sqlStr);
+                        }
+                    }
+                });
+
+        LOGGER.info("Created " + getIndexCount() + " indices of " + indices.size()
+                + " tables in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Validates the held back foreign keys on several connections at once and creates them
+     * afterwards. Since they have been validated already, the constraints are created without
+     * checking the rows again.
+     *
+     * <p>
+     * All violations are logged. A constraint created with {@code NOCHECK} by the script, like
+     * in the scripts of H2 itself, is created despite its violations. Any other violated
+     * constraint is not created and fails the import, after all other constraints have been
+     * created.
+     *
+     * @param connection the connection to the loaded database
+     * @param connectionSupplier opens more connections to the loaded database
+     * @param threads the number of constraints validated at the same time
+     * @return the violated foreign keys
+     */
+    public List<ForeignKey> createForeignKeys(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, int threads)
+            throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+
+        List<ForeignKey> list = getForeignKeys();
+        ConnectionWorkers.execute(list, connection, connectionSupplier, threads, "Validation",
+                (foreignKey, c) -> {
+                    try (Statement st = c.createStatement();
+                            ResultSet rs = st.executeQuery(foreignKey.getValidationSql())) {
+                        foreignKey.violations = rs.next() ? rs.getLong(1) : 0;
+                    }
+                });
+
+        ArrayList<ForeignKey> violatedForeignKeys = new ArrayList<>();
+        for (ForeignKey foreignKey : list) {
+            if (foreignKey.violations > 0) {
+                violatedForeignKeys.add(foreignKey);
+                LOGGER.warning("The foreign key " + foreignKey + " is violated by "
+                        + foreignKey.violations + " rows without a referenced row.");
+            }
+        }
+
+        // the foreign keys of the same table are created one after the other
+        ConnectionWorkers.execute(new ArrayList<>(foreignKeys.values()), connection,
+                connectionSupplier, threads, "Constraint", (tableForeignKeys, c) -> {
+                    try (Statement st = c.createStatement()) {
+                        for (ForeignKey foreignKey : tableForeignKeys) {
+                            if (foreignKey.violations == 0 || foreignKey.noCheck) {
+                                st.executeUpdate(foreignKey.getNoCheckSql());
+                            }
+                        }
+                    }
+                });
+
+        LOGGER.info("Validated and created " + list.size() + " foreign keys with "
+                + violatedForeignKeys.size() + " violated constraints in "
+                + (System.currentTimeMillis() - start) + " ms.");
+
+        StringBuilder builder = new StringBuilder();
+        for (ForeignKey foreignKey : violatedForeignKeys) {
+            if (!foreignKey.noCheck) {
+                builder.append("\n").append(foreignKey).append(": ")
+                        .append(foreignKey.violations).append(" rows");
+            }
+        }
+        if (builder.length() > 0) {
+            throw new SQLException("Failed to create the violated foreign keys:" + builder);
+        }
+        return violatedForeignKeys;
+    }
+
+    /**
+     * @return the identifiers of a list, which is separated by commas outside of quotes
+     */
+    static List<String> splitIdentifiers(String list) {
+        ArrayList<String> identifiers = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                identifiers.add(list.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        identifiers.add(list.substring(start).trim());
+        return identifiers;
+    }
+
+    /**
+     * A held back foreign key.
+     */
+    public static class ForeignKey {
+        public final String table;
+        public final String name;
+        public final List<String> columns;
+        public final String referencedTable;
+        public final List<String> referencedColumns;
+        public final boolean noCheck;
+        private final String sqlStr;
+        private volatile long violations = -1;
+
+        private ForeignKey(Matcher matcher, String sqlStr) {
+            this.table = matcher.group("table");
+            this.name = matcher.group("name");
+            this.columns = splitIdentifiers(matcher.group("columns"));
+            this.referencedTable = matcher.group("referencedTable");
+            this.referencedColumns = splitIdentifiers(matcher.group("referencedColumns"));
+            this.noCheck = NOCHECK_PATTERN.matcher(sqlStr).find();
+            this.sqlStr = sqlStr;
+        }
+
+        /**
+         * @return the number of rows without a referenced row or -1, when not validated yet
+         */
+        public long getViolations() {
+            return violations;
+        }
+
+        /**
+         * @return the query counting the rows, which violate the constraint. Like the constraint,
+         *         a row with a NULL in any of its columns is not checked.
+         */
+        String getValidationSql() {
+            StringBuilder builder = new StringBuilder("SELECT COUNT(*) FROM ").append(table)
+                    .append(" c WHERE ");
+            for (String column : columns) {
+                builder.append("c.").append(column).append(" IS NOT NULL AND ");
+            }
+            builder.append("NOT EXISTS (SELECT 1 FROM ").append(referencedTable)
+                    .append(" p WHERE ");
+            for (int i = 0; i < columns.size() && i < referencedColumns.size(); i++) {
+                builder.append(i > 0 ? " AND " : "").append("p.")
+                        .append(referencedColumns.get(i)).append(" = c.")
+                        .append(columns.get(i));
+            }
+            return builder.append(")").toString();
+        }
+
+        String getNoCheckSql() {
+            return noCheck ? sqlStr : sqlStr + " NOCHECK";
+        }
+
+        @Override
+        public String toString() {
+            return (name != null ? name : "") + " " + table + "(" + String.join(", ", columns)
+                    + ") REFERENCES " + referencedTable + "("
+                    + String.join(", ", referencedColumns) + ")";
+        }
+    }
+}
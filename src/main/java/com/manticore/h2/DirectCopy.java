@@ -0,0 +1,1292 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.time.OffsetTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Copies a database directly from a connection of the old H2 version into a connection of the new
+ * H2 version, without generating, writing and parsing a SQL Script. The DDL is derived from the
+ * {@link MetaData} model and the rows are moved with batched {@link PreparedStatement}s.
+ *
+ * <p>
+ * The tables are created with their primary keys and unique constraints first. Foreign keys are
+ * created before the data whenever the tables can be loaded in the order of their dependencies,
+ * only cyclic and self references are created after the data. Secondary indices are built after
+ * the data. Views, sequences, triggers, check constraints, domains, aliases, constants, users,
+ * roles and rights are not part of the JDBC MetaData and are not copied, please use the SCRIPT or
+ * STREAM mode for such databases. The skipped objects are logged as a warning, as well as every
+ * column DEFAULT drawing from a sequence.
+ *
+ * <p>
+ * With a parallelism greater than 1, the tables of one dependency level are copied at the same
+ * time by a pool of workers, each with its own source and target connection. Tables with more rows
+ * than the partition size are split into ranges of a unique key column, which are copied by
+ * different workers.
+ *
+ * <p>
+ * With a {@link MigrationJournal}, every completed table range is recorded. A resumed copy skips
+ * the completed ranges and deletes the partial rows of the incomplete ranges before copying them
+ * again.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DirectCopy {
+    public static final Logger LOGGER = Logger.getLogger(DirectCopy.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_COMMIT_INTERVAL = 10000;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final long DEFAULT_PARTITION_SIZE = 1000000;
+
+    // H2 2.0 limits CHARACTER VARYING and BINARY VARYING to 1048576, later versions to 1000000000
+    private static final int MAX_LENGTH = 1048576;
+    private static final int MAX_NUMERIC_PRECISION = 100000;
+
+    // the names H2 generates for anonymous constraints and their indices
+    private static final Pattern GENERATED_NAME_PATTERN =
+            Pattern.compile("(CONSTRAINT|PRIMARY_KEY)(_INDEX)?_[0-9A-F]+");
+
+    private final Connection source;
+    private final Connection target;
+    private final int sourceMajorVersion;
+    private final int targetMajorVersion;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = DEFAULT_COMMIT_INTERVAL;
+    private int parallelism = 1;
+    private long partitionSize = DEFAULT_PARTITION_SIZE;
+    private ConnectionSupplier sourceConnectionSupplier = null;
+    private ConnectionSupplier targetConnectionSupplier = null;
+    private MigrationJournal journal = null;
+    private boolean resumed = false;
+
+    private final ArrayList<Reference> deferredReferences = new ArrayList<>();
+
+    /**
+     * @param source the connection to the existing database, opened by the old H2 driver
+     * @param target the connection to the new and empty database, opened by the new H2 driver
+     */
+    public DirectCopy(Connection source, Connection target) throws SQLException {
+        this.source = Objects.requireNonNull(source);
+        this.target = Objects.requireNonNull(target);
+        this.sourceMajorVersion = source.getMetaData().getDatabaseMajorVersion();
+        this.targetMajorVersion = target.getMetaData().getDatabaseMajorVersion();
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize the number of rows sent to the target database in one batch
+     */
+    public DirectCopy setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * @param commitInterval the number of rows after which the target database commits
+     */
+    public DirectCopy setCommitInterval(int commitInterval) {
+        if (commitInterval < 1) {
+            throw new IllegalArgumentException("The commit interval must be positive.");
+        }
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the maximum number of tables copied at the same time
+     * @param sourceConnectionSupplier opens additional connections to the existing database
+     * @param targetConnectionSupplier opens additional connections to the new database
+     */
+    public DirectCopy setParallelism(int parallelism,
+            ConnectionSupplier sourceConnectionSupplier,
+            ConnectionSupplier targetConnectionSupplier) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+        this.sourceConnectionSupplier = Objects.requireNonNull(sourceConnectionSupplier);
+        this.targetConnectionSupplier = Objects.requireNonNull(targetConnectionSupplier);
+        return this;
+    }
+
+    public long getPartitionSize() {
+        return partitionSize;
+    }
+
+    /**
+     * @param partitionSize the number of rows above which a table is split into key ranges, when
+     *        copying in parallel
+     */
+    public DirectCopy setPartitionSize(long partitionSize) {
+        if (partitionSize < 1) {
+            throw new IllegalArgumentException("The partition size must be positive.");
+        }
+        this.partitionSize = partitionSize;
+        return this;
+    }
+
+    public MigrationJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal the journal recording the completed steps, or NULL
+     */
+    public DirectCopy setJournal(MigrationJournal journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Copies the schemas, tables, constraints, indices and rows from the source into the target.
+     *
+     * @return the number of copied rows
+     */
+    public long copy() throws SQLException {
+        long start = System.currentTimeMillis();
+
+        MetaData metaData = new MetaData(source);
+        metaData.build();
+
+        Collection<Table> tables = getTables(metaData);
+        List<String> skippedObjects = getSkippedObjects(source);
+        if (!skippedObjects.isEmpty()) {
+            LOGGER.warning("The COPY mode skips " + skippedObjects.size()
+                    + " objects, please use the SCRIPT or STREAM mode for them: "
+                    + String.join(", ", skippedObjects));
+        }
+
+        deferredReferences.clear();
+        List<List<Table>> levels = getDependencyLevels(tables, deferredReferences);
+
+        resumed = journal != null && journal.isDone(MigrationJournal.SCHEMA);
+        if (resumed) {
+            LOGGER.info("Resume the copy of " + tables.size() + " tables.");
+        } else {
+            createSchema(tables);
+            journalDone(MigrationJournal.SCHEMA);
+        }
+
+        long rows = copyLevels(levels);
+
+        if (journal == null || !journal.isDone(MigrationJournal.INDICES)) {
+            try (Statement st = target.createStatement()) {
+                for (Table table : tables) {
+                    for (Index index : getSecondaryIndices(table, tables)) {
+                        execute(st, getCreateIndexSql(table, index));
+                    }
+                    restartIdentities(st, table);
+                }
+
+                for (Reference reference : deferredReferences) {
+                    execute(st, getCreateReferenceSql(reference));
+                }
+            }
+            journalDone(MigrationJournal.INDICES);
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        LOGGER.info("Copied " + tables.size() + " tables and " + rows + " rows in " + millis
+                + " ms (" + (rows * 1000 / millis) + " rows/s).");
+        return rows;
+    }
+
+    /**
+     * Lists the objects of the user schemas, which are not copied: views, sequences, triggers,
+     * check constraints, domains, aliases, constants, users, roles and rights. The sequences of the
+     * identity columns are not listed, they are restarted with their tables.
+     *
+     * <p>
+     * The INFORMATION_SCHEMA differs between the H2 versions, so every object type has a query for
+     * each version. The first query supported by the existing database is used.
+     *
+     * @param connection the connection to the existing database
+     * @return the skipped objects, e.g. {@code VIEW PUBLIC.V}
+     */
+    static List<String> getSkippedObjects(Connection connection) throws SQLException {
+        String[][] queries = new String[][] {
+                {"VIEW", "SELECT TABLE_SCHEMA || '.' || TABLE_NAME FROM INFORMATION_SCHEMA.VIEWS "
+                        + "WHERE TABLE_SCHEMA <> 'INFORMATION_SCHEMA'"},
+                {"SEQUENCE", "SELECT SEQUENCE_SCHEMA || '.' || SEQUENCE_NAME "
+                        + "FROM INFORMATION_SCHEMA.SEQUENCES "
+                        + "WHERE SEQUENCE_SCHEMA <> 'INFORMATION_SCHEMA' "
+                        + "AND SEQUENCE_NAME NOT LIKE 'SYSTEM_SEQUENCE_%'"},
+                {"TRIGGER", "SELECT TRIGGER_SCHEMA || '.' || TRIGGER_NAME "
+                        + "FROM INFORMATION_SCHEMA.TRIGGERS "
+                        + "WHERE TRIGGER_SCHEMA <> 'INFORMATION_SCHEMA'"},
+                {"CHECK", "SELECT CONSTRAINT_SCHEMA || '.' || CONSTRAINT_NAME "
+                        + "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+                        + "WHERE CONSTRAINT_TYPE = 'CHECK'",
+                        "SELECT CONSTRAINT_SCHEMA || '.' || CONSTRAINT_NAME "
+                                + "FROM INFORMATION_SCHEMA.CONSTRAINTS "
+                                + "WHERE CONSTRAINT_TYPE = 'CHECK'"},
+                // H2 1.x stores the column constraints with the columns
+                {"CHECK", "SELECT TABLE_SCHEMA || '.' || TABLE_NAME || '.' || COLUMN_NAME "
+                        + "FROM INFORMATION_SCHEMA.COLUMNS WHERE CHECK_CONSTRAINT <> '' "
+                        + "AND TABLE_SCHEMA <> 'INFORMATION_SCHEMA'"},
+                {"DOMAIN", "SELECT DOMAIN_SCHEMA || '.' || DOMAIN_NAME "
+                        + "FROM INFORMATION_SCHEMA.DOMAINS"},
+                {"ALIAS", "SELECT ROUTINE_SCHEMA || '.' || ROUTINE_NAME "
+                        + "FROM INFORMATION_SCHEMA.ROUTINES "
+                        + "WHERE ROUTINE_SCHEMA <> 'INFORMATION_SCHEMA'",
+                        "SELECT ALIAS_SCHEMA || '.' || ALIAS_NAME "
+                                + "FROM INFORMATION_SCHEMA.FUNCTION_ALIASES"},
+                {"CONSTANT", "SELECT CONSTANT_SCHEMA || '.' || CONSTANT_NAME "
+                        + "FROM INFORMATION_SCHEMA.CONSTANTS"},
+                {"USER", "SELECT USER_NAME FROM INFORMATION_SCHEMA.USERS "
+                        + "WHERE USER_NAME <> CURRENT_USER",
+                        "SELECT NAME FROM INFORMATION_SCHEMA.USERS WHERE NAME <> CURRENT_USER"},
+                {"ROLE", "SELECT ROLE_NAME FROM INFORMATION_SCHEMA.ROLES "
+                        + "WHERE ROLE_NAME <> 'PUBLIC'",
+                        "SELECT NAME FROM INFORMATION_SCHEMA.ROLES WHERE NAME <> 'PUBLIC'"},
+                {"GRANT TO", "SELECT DISTINCT GRANTEE FROM INFORMATION_SCHEMA.RIGHTS"}};
+
+        ArrayList<String> skippedObjects = new ArrayList<>();
+        try (Statement st = connection.createStatement()) {
+            for (String[] query : queries) {
+                for (int i = 1; i < query.length; i++) {
+                    try (ResultSet rs = st.executeQuery(query[i])) {
+                        while (rs.next()) {
+                            skippedObjects.add(query[0] + " " + rs.getString(1));
+                        }
+                        break;
+                    } catch (SQLException ex) {
+                        // the INFORMATION_SCHEMA of this H2 version has no such table or column
+                        LOGGER.log(Level.FINE, "Skip the query " + query[i], ex);
+                    }
+                }
+            }
+        }
+        return skippedObjects;
+    }
+
+    private void createSchema(Collection<Table> tables) throws SQLException {
+        try (Statement st = target.createStatement()) {
+            Set<String> schemaNames = new HashSet<>();
+            for (Table table : tables) {
+                if (!table.tableSchema.equalsIgnoreCase("PUBLIC")
+                        && schemaNames.add(table.tableSchema)) {
+                    execute(st, "CREATE SCHEMA IF NOT EXISTS " + quote(table.tableSchema));
+                }
+            }
+
+            for (Table table : tables) {
+                execute(st, getCreateTableSql(table));
+                for (Index index : getUniqueConstraints(table, tables)) {
+                    execute(st, "ALTER TABLE " + getQualifiedName(table) + " ADD "
+                            + getConstraintName(index.indexName) + "UNIQUE "
+                            + getIndexColumns(index, false));
+                }
+            }
+
+            for (Table table : tables) {
+                for (Reference reference : table.references.values()) {
+                    if (!deferredReferences.contains(reference)) {
+                        execute(st, getCreateReferenceSql(reference));
+                    }
+                }
+            }
+        }
+    }
+
+    private void journalDone(String step) throws SQLException {
+        if (journal != null) {
+            try {
+                journal.done(step);
+            } catch (IOException ex) {
+                throw new SQLException("Failed to write the journal " + journal.getFile(), ex);
+            }
+        }
+    }
+
+    /**
+     * Copies a range unless the journal has recorded it as completed. When resuming, the partial
+     * rows of an incomplete range are deleted first.
+     */
+    private long copyJournaled(TableRange range, Connection source, Connection target)
+            throws SQLException {
+        if (journal == null) {
+            return copyRange(range, source, target);
+        }
+
+        String step = "DATA " + range + " " + (range.condition != null ? range.condition : "")
+                + " " + Arrays.toString(range.parameters);
+        if (journal.isDone(step)) {
+            LOGGER.info("Skip the completed range " + range);
+            return 0;
+        }
+
+        if (resumed) {
+            try (PreparedStatement pst = target.prepareStatement("DELETE FROM "
+                    + getQualifiedName(range.table)
+                    + (range.condition != null ? " WHERE " + range.condition : ""))) {
+                for (int i = 0; i < range.parameters.length; i++) {
+                    pst.setObject(i + 1, range.parameters[i]);
+                }
+                int n = pst.executeUpdate();
+                if (n > 0) {
+                    LOGGER.info("Deleted " + n + " partial rows of " + range);
+                }
+            }
+        }
+
+        long rows = copyRange(range, source, target);
+        journalDone(step);
+        return rows;
+    }
+
+    private long copyLevels(List<List<Table>> levels) throws SQLException {
+        // COUNT(*) is answered from the row count of the table, so the ETA comes almost for free
+        for (List<Table> level : levels) {
+            for (Table table : level) {
+                MigrationProgress.addExpectedRows(countRows(table, source));
+            }
+        }
+
+        long rows = 0;
+        if (parallelism == 1) {
+            for (List<Table> level : levels) {
+                for (Table table : level) {
+                    rows += copyJournaled(new TableRange(table), source, target);
+                }
+            }
+            return rows;
+        }
+
+        int threads = 1;
+        ArrayList<List<TableRange>> rangeLevels = new ArrayList<>();
+        for (List<Table> level : levels) {
+            ArrayList<TableRange> ranges = new ArrayList<>();
+            for (Table table : level) {
+                ranges.addAll(getRanges(table, source));
+            }
+            rangeLevels.add(ranges);
+            threads = Math.max(threads, Math.min(parallelism, ranges.size()));
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "H2 Copy Worker " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // each worker takes its own pair of connections, the first pair is the main one
+        ArrayBlockingQueue<Connection[]> connections = new ArrayBlockingQueue<>(threads);
+        ArrayList<Connection> openedConnections = new ArrayList<>();
+        try {
+            connections.add(new Connection[] {source, target});
+            for (int i = 1; i < threads; i++) {
+                Connection sourceConnection = sourceConnectionSupplier.get();
+                openedConnections.add(sourceConnection);
+                Connection targetConnection = targetConnectionSupplier.get();
+                openedConnections.add(targetConnection);
+                connections.add(new Connection[] {sourceConnection, targetConnection});
+            }
+
+            int l = 0;
+            for (List<TableRange> ranges : rangeLevels) {
+                LOGGER.info("Copy " + levels.get(l).size() + " tables in " + ranges.size()
+                        + " ranges of dependency level " + (++l) + " with "
+                        + Math.min(threads, ranges.size()) + " workers.");
+
+                ArrayList<Future<Long>> futures = new ArrayList<>();
+                for (TableRange range : ranges) {
+                    futures.add(executorService.submit(() -> {
+                        Connection[] pair = connections.take();
+                        try {
+                            return copyJournaled(range, pair[0], pair[1]);
+                        } finally {
+                            connections.put(pair);
+                        }
+                    }));
+                }
+
+                for (Future<Long> future : futures) {
+                    rows += getResult(future);
+                }
+            }
+            return rows;
+        } finally {
+            executorService.shutdownNow();
+            for (Connection connection : openedConnections) {
+                try {
+                    connection.close();
+                } catch (SQLException ex) {
+                    LOGGER.log(Level.WARNING, "Failed to close the worker connection.", ex);
+                }
+            }
+        }
+    }
+
+    private static long getResult(Future<Long> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while copying the tables.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            throw new SQLException("Failed to copy the tables.", ex.getCause());
+        }
+    }
+
+    /**
+     * Copies the rows of one table using batched inserts. The target connection commits after
+     * every {@link #getCommitInterval()} rows.
+     *
+     * @param table the table to copy, which must exist in the target database already
+     * @param source the connection to the existing database
+     * @param target the connection to the new database
+     * @return the number of copied rows
+     */
+    public long copyTable(Table table, Connection source, Connection target) throws SQLException {
+        return copyRange(new TableRange(table), source, target);
+    }
+
+    /**
+     * Copies the rows of one range of a table using batched inserts, see {@link #copyTable}.
+     *
+     * @param range the range of the table to copy
+     * @param source the connection to the existing database
+     * @param target the connection to the new database
+     * @return the number of copied rows
+     */
+    public long copyRange(TableRange range, Connection source, Connection target)
+            throws SQLException {
+        long start = System.currentTimeMillis();
+        Table table = range.table;
+
+        ArrayList<Column> columns = new ArrayList<>();
+        for (Column column : table.columns) {
+            if (!"YES".equalsIgnoreCase(column.isGeneratedColumn)) {
+                columns.add(column);
+            }
+        }
+
+        StringBuilder columnNames = new StringBuilder();
+        StringBuilder parameters = new StringBuilder();
+        ValueKind[] valueKinds = new ValueKind[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                columnNames.append(", ");
+                parameters.append(", ");
+            }
+            columnNames.append(quote(columns.get(i).columnName));
+            parameters.append("?");
+            valueKinds[i] = getValueKind(columns.get(i));
+        }
+
+        String selectSql = "SELECT " + columnNames + " FROM " + getQualifiedName(table)
+                + (range.condition != null ? " WHERE " + range.condition : "");
+        String insertSql = "INSERT INTO " + getQualifiedName(table) + " (" + columnNames
+                + ") VALUES (" + parameters + ")";
+
+        long rows = 0;
+        boolean autoCommit = target.getAutoCommit();
+        target.setAutoCommit(false);
+        MigrationEvents.StatementGroupEvent event =
+                new MigrationEvents.StatementGroupEvent("Copy", range.toString());
+        event.begin();
+        MigrationProgress.workerStarted();
+        try (PreparedStatement st = source.prepareStatement(selectSql);
+                PreparedStatement pst = target.prepareStatement(insertSql)) {
+            st.setFetchSize(DEFAULT_FETCH_SIZE);
+            for (int i = 0; i < range.parameters.length; i++) {
+                st.setObject(i + 1, range.parameters[i]);
+            }
+            try (ResultSet rs = st.executeQuery()) {
+                int batchRows = 0;
+                while (rs.next()) {
+                    for (int i = 0; i < valueKinds.length; i++) {
+                        copyValue(rs, pst, i + 1, valueKinds[i], columns.get(i).dataType);
+                    }
+                    pst.addBatch();
+                    batchRows++;
+                    rows++;
+
+                    if (batchRows == batchSize || rows % commitInterval == 0) {
+                        pst.executeBatch();
+                        MigrationProgress.addRows(batchRows);
+                        batchRows = 0;
+                    }
+                    if (rows % commitInterval == 0) {
+                        target.commit();
+                    }
+                }
+                if (batchRows > 0) {
+                    pst.executeBatch();
+                    MigrationProgress.addRows(batchRows);
+                }
+                target.commit();
+                event.setSuccess(true);
+            }
+        } catch (SQLException ex) {
+            try {
+                target.rollback();
+            } catch (SQLException ex1) {
+                LOGGER.log(Level.WARNING, "Failed to roll back " + table.tableName, ex1);
+            }
+            throw new SQLException("Failed to copy the rows of table " + range + " after " + rows
+                    + " rows.", ex);
+        } finally {
+            event.commit();
+            MigrationProgress.workerFinished();
+            target.setAutoCommit(autoCommit);
+        }
+
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        LOGGER.info("Copied " + rows + " rows of " + range + " in " + millis + " ms ("
+                + (rows * 1000 / millis) + " rows/s).");
+        return rows;
+    }
+
+    /**
+     * Splits a table into ranges of about {@link #getPartitionSize()} rows. The ranges are built on
+     * the single column of the primary key or else of a unique index. Integer keys are split
+     * evenly between their MIN and MAX value, other keys at the values found by one ordered scan
+     * of the key. Tables without such a key or with less rows are returned as one range.
+     *
+     * @param table the table to split
+     * @param connection the connection to the existing database
+     * @return the ranges covering all rows of the table
+     */
+    public List<TableRange> getRanges(Table table, Connection connection) throws SQLException {
+        ArrayList<TableRange> ranges = new ArrayList<>();
+
+        Column keyColumn = getRangeColumn(table);
+        if (keyColumn == null) {
+            ranges.add(new TableRange(table));
+            return ranges;
+        }
+
+        long rowCount = countRows(table, connection);
+
+        long n = Math.min((rowCount + partitionSize - 1) / partitionSize, Integer.MAX_VALUE);
+        List<Object> boundaries = n < 2
+                ? new ArrayList<>()
+                : isIntegerKey(keyColumn)
+                        ? getIntegerBoundaries(table, keyColumn, (int) n, connection)
+                        : getScannedBoundaries(table, keyColumn, (int) n, rowCount, connection);
+        if (boundaries.isEmpty()) {
+            ranges.add(new TableRange(table));
+            return ranges;
+        }
+
+        String key = quote(keyColumn.columnName);
+        int count = boundaries.size() + 1
+                + (Integer.valueOf(DatabaseMetaData.columnNoNulls).equals(keyColumn.nullable)
+                        ? 0
+                        : 1);
+        ranges.add(new TableRange(table, 0, count, key + " < ?", boundaries.get(0)));
+        for (int i = 1; i < boundaries.size(); i++) {
+            ranges.add(new TableRange(table, i, count, key + " >= ? AND " + key + " < ?",
+                    boundaries.get(i - 1), boundaries.get(i)));
+        }
+        ranges.add(new TableRange(table, boundaries.size(), count, key + " >= ?",
+                boundaries.get(boundaries.size() - 1)));
+        if (ranges.size() < count) {
+            ranges.add(new TableRange(table, ranges.size(), count, key + " IS NULL"));
+        }
+
+        LOGGER.info("Split " + rowCount + " rows of " + table.tableSchema + "." + table.tableName
+                + " into " + count + " ranges of column " + keyColumn.columnName + ".");
+        return ranges;
+    }
+
+    private static long countRows(Table table, Connection connection) throws SQLException {
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + getQualifiedName(table))) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * @return the single column of the primary key or of a unique index, or NULL when the table
+     *         has no such key
+     */
+    private static Column getRangeColumn(Table table) {
+        String columnName = null;
+        if (table.primaryKey != null && table.primaryKey.columnNames.size() == 1) {
+            columnName = table.primaryKey.columnNames.getFirst();
+        } else {
+            for (Index index : table.indices.values()) {
+                if (!index.nonUnique && index.columns.size() == 1) {
+                    columnName = index.columns.firstEntry().getValue().columnName;
+                    break;
+                }
+            }
+        }
+
+        if (columnName != null) {
+            for (Column column : table.columns) {
+                if (column.columnName.equalsIgnoreCase(columnName)) {
+                    return column;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIntegerKey(Column column) {
+        switch (column.dataType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static List<Object> getIntegerBoundaries(Table table, Column column, int n,
+            Connection connection) throws SQLException {
+        ArrayList<Object> boundaries = new ArrayList<>();
+        String key = quote(column.columnName);
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT MIN(" + key + "), MAX(" + key + ") FROM "
+                        + getQualifiedName(table))) {
+            if (rs.next()) {
+                long min = rs.getLong(1);
+                long max = rs.getLong(2);
+                if (rs.wasNull()) {
+                    return boundaries;
+                }
+
+                BigInteger span = BigInteger.valueOf(max).subtract(BigInteger.valueOf(min));
+                long previous = min;
+                for (int i = 1; i < n; i++) {
+                    long boundary = BigInteger.valueOf(min)
+                            .add(span.multiply(BigInteger.valueOf(i))
+                                    .divide(BigInteger.valueOf(n)))
+                            .longValue();
+                    if (boundary > previous) {
+                        boundaries.add(boundary);
+                        previous = boundary;
+                    }
+                }
+            }
+        }
+        return boundaries;
+    }
+
+    private static List<Object> getScannedBoundaries(Table table, Column column, int n,
+            long rowCount, Connection connection) throws SQLException {
+        ArrayList<Object> boundaries = new ArrayList<>();
+        String key = quote(column.columnName);
+        long step = rowCount / n;
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(DEFAULT_FETCH_SIZE);
+            try (ResultSet rs = st.executeQuery("SELECT " + key + " FROM "
+                    + getQualifiedName(table) + " WHERE " + key + " IS NOT NULL ORDER BY " + key)) {
+                long r = 0;
+                while (rs.next() && boundaries.size() < n - 1) {
+                    if (r > 0 && r % step == 0) {
+                        boundaries.add(rs.getObject(1));
+                    }
+                    r++;
+                }
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * @return the tables of the user schemas, without views and system tables
+     */
+    public static Collection<Table> getTables(MetaData metaData) {
+        ArrayList<Table> tables = new ArrayList<>();
+        for (Catalog catalog : metaData.getCatalogs().values()) {
+            for (Schema schema : catalog.schemas.values()) {
+                if (schema.tableSchema.equalsIgnoreCase("INFORMATION_SCHEMA")) {
+                    continue;
+                }
+                for (Table table : schema.tables.values()) {
+                    if (table.tableType.equals("TABLE") || table.tableType.equals("BASE TABLE")) {
+                        tables.add(table);
+                    }
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Groups the tables into levels, where the tables of one level reference only tables of the
+     * previous levels. References, which can't be satisfied by any order (self references and
+     * cycles) are added to the deferred references.
+     *
+     * @param tables the tables to order
+     * @param deferredReferences receives the references to be created after the data
+     * @return the levels of tables in the order of their dependencies
+     */
+    public static List<List<Table>> getDependencyLevels(Collection<Table> tables,
+            Collection<Reference> deferredReferences) {
+        Map<String, Table> remaining = new LinkedHashMap<>();
+        for (Table table : tables) {
+            remaining.put(getKey(table.tableSchema, table.tableName), table);
+        }
+
+        ArrayList<List<Table>> levels = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            ArrayList<Table> level = new ArrayList<>();
+            for (Table table : remaining.values()) {
+                boolean independent = true;
+                for (Reference reference : table.references.values()) {
+                    String pkKey = getKey(reference.pkTableSchema, reference.pkTableName);
+                    if (pkKey.equals(getKey(table.tableSchema, table.tableName))) {
+                        if (!deferredReferences.contains(reference)) {
+                            deferredReferences.add(reference);
+                        }
+                    } else if (remaining.containsKey(pkKey)
+                            && !deferredReferences.contains(reference)) {
+                        independent = false;
+                    }
+                }
+                if (independent) {
+                    level.add(table);
+                }
+            }
+
+            if (level.isEmpty()) {
+                // only cycles are left, so defer all references between the remaining tables
+                for (Table table : remaining.values()) {
+                    for (Reference reference : table.references.values()) {
+                        if (remaining.containsKey(
+                                getKey(reference.pkTableSchema, reference.pkTableName))
+                                && !deferredReferences.contains(reference)) {
+                            deferredReferences.add(reference);
+                        }
+                    }
+                }
+                level.addAll(remaining.values());
+            }
+
+            for (Table table : level) {
+                remaining.remove(getKey(table.tableSchema, table.tableName));
+            }
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    private static String getKey(String tableSchema, String tableName) {
+        return (tableSchema + "." + tableName).toUpperCase();
+    }
+
+    private static void execute(Statement st, String sqlStr) throws SQLException {
+        LOGGER.fine(sqlStr);
+        st.executeUpdate(sqlStr);
+    }
+
+    private static String quote(String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String getQualifiedName(Table table) {
+        return quote(table.tableSchema) + "." + quote(table.tableName);
+    }
+
+    private static String getConstraintName(String name) {
+        return name == null || GENERATED_NAME_PATTERN.matcher(name).matches()
+                ? ""
+                : "CONSTRAINT " + quote(name) + " ";
+    }
+
+    private String getCreateTableSql(Table table) {
+        StringBuilder builder =
+                new StringBuilder("CREATE TABLE ").append(getQualifiedName(table)).append(" (");
+        int i = 0;
+        for (Column column : table.columns) {
+            if (i++ > 0) {
+                builder.append(",");
+            }
+            builder.append("\n    ").append(quote(column.columnName)).append(" ")
+                    .append(getColumnType(column));
+
+            String columnDefinition = column.columnDefinition;
+            if ("YES".equalsIgnoreCase(column.isGeneratedColumn) && columnDefinition != null) {
+                builder.append(targetMajorVersion > 1 ? " GENERATED ALWAYS AS (" : " AS (")
+                        .append(columnDefinition).append(")");
+            } else if ("YES".equalsIgnoreCase(column.isAutomaticIncrement)) {
+                builder.append(targetMajorVersion > 1
+                        ? " GENERATED BY DEFAULT AS IDENTITY"
+                        : " AUTO_INCREMENT");
+            } else if (columnDefinition != null && !columnDefinition.isEmpty()
+                    && columnDefinition.toUpperCase().contains("NEXT VALUE FOR")) {
+                // the sequence is not copied
+                LOGGER.warning("The COPY mode drops the DEFAULT " + columnDefinition
+                        + " of the column " + getQualifiedName(table) + "."
+                        + quote(column.columnName) + ".");
+            } else if (columnDefinition != null && !columnDefinition.isEmpty()) {
+                builder.append(" DEFAULT ").append(columnDefinition);
+            }
+
+            if (column.nullable != null && column.nullable == DatabaseMetaData.columnNoNulls) {
+                builder.append(" NOT NULL");
+            }
+        }
+
+        if (table.primaryKey != null && !table.primaryKey.columnNames.isEmpty()) {
+            builder.append(",\n    ").append(getConstraintName(table.primaryKey.primaryKeyName))
+                    .append("PRIMARY KEY (");
+            i = 0;
+            for (String columnName : table.primaryKey.columnNames) {
+                if (i++ > 0) {
+                    builder.append(", ");
+                }
+                builder.append(quote(columnName));
+            }
+            builder.append(")");
+        }
+        return builder.append("\n)").toString();
+    }
+
+    private String getColumnType(Column column) {
+        String typeName = column.typeName != null ? column.typeName.toUpperCase() : "";
+
+        if (typeName.startsWith("UUID") || typeName.startsWith("GEOMETRY")
+                || typeName.startsWith("JSON") || typeName.startsWith("INTERVAL")) {
+            return column.typeName;
+        } else if (typeName.startsWith("ENUM")) {
+            LOGGER.warning("The values of the ENUM column " + column.tableName + "."
+                    + column.columnName + " are unknown, it will be copied as CHARACTER VARYING.");
+            return targetMajorVersion > 1 ? "CHARACTER VARYING" : "VARCHAR";
+        } else if (typeName.contains("IGNORECASE")) {
+            return "VARCHAR_IGNORECASE" + getLength(column.columnSize);
+        } else if (typeName.equals("OTHER") || typeName.equals("JAVA_OBJECT")) {
+            return targetMajorVersion > 1 ? "JAVA_OBJECT" : "OTHER";
+        }
+
+        switch (column.dataType) {
+            case Types.CHAR:
+            case Types.NCHAR:
+                return "CHARACTER" + getLength(column.columnSize);
+            case Types.VARCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.LONGNVARCHAR:
+                return (targetMajorVersion > 1 ? "CHARACTER VARYING" : "VARCHAR")
+                        + getLength(column.columnSize);
+            case Types.CLOB:
+            case Types.NCLOB:
+                return targetMajorVersion > 1 ? "CHARACTER LARGE OBJECT" : "CLOB";
+            case Types.BINARY:
+                // H2 1.x treats BINARY as variable length, which needs VARIABLE_BINARY on import
+                return sourceMajorVersion > 1
+                        ? "BINARY" + getLength(column.columnSize)
+                        : (targetMajorVersion > 1 ? "BINARY VARYING" : "VARBINARY")
+                                + getLength(column.columnSize);
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return (targetMajorVersion > 1 ? "BINARY VARYING" : "VARBINARY")
+                        + getLength(column.columnSize);
+            case Types.BLOB:
+                return targetMajorVersion > 1 ? "BINARY LARGE OBJECT" : "BLOB";
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TINYINT:
+                return "TINYINT";
+            case Types.SMALLINT:
+                return "SMALLINT";
+            case Types.INTEGER:
+                return "INTEGER";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.REAL:
+                return "REAL";
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return "DOUBLE PRECISION";
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                if (column.columnSize == null || column.columnSize <= 0
+                        || column.columnSize > MAX_NUMERIC_PRECISION) {
+                    return "NUMERIC";
+                } else if (column.decimalDigits == null || column.decimalDigits <= 0
+                        || column.decimalDigits > column.columnSize) {
+                    return "NUMERIC(" + column.columnSize + ")";
+                } else {
+                    return "NUMERIC(" + column.columnSize + ", " + column.decimalDigits + ")";
+                }
+            case Types.DATE:
+                return "DATE";
+            case Types.TIME:
+                return "TIME" + getFractionalPrecision(column);
+            case Types.TIMESTAMP:
+                return "TIMESTAMP" + getFractionalPrecision(column);
+            case Types.TIME_WITH_TIMEZONE:
+                return "TIME" + getFractionalPrecision(column) + " WITH TIME ZONE";
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return "TIMESTAMP" + getFractionalPrecision(column) + " WITH TIME ZONE";
+            default:
+                return column.typeName;
+        }
+    }
+
+    private String getLength(Integer size) {
+        return size == null || size <= 0 || size == Integer.MAX_VALUE
+                || targetMajorVersion > 1 && size > MAX_LENGTH
+                        ? ""
+                        : "(" + size + ")";
+    }
+
+    private static String getFractionalPrecision(Column column) {
+        return column.decimalDigits != null && column.decimalDigits >= 0
+                && column.decimalDigits <= 9
+                        ? "(" + column.decimalDigits + ")"
+                        : "";
+    }
+
+    private static String getIndexColumns(Index index, boolean withOrder) {
+        StringBuilder builder = new StringBuilder("(");
+        int i = 0;
+        for (IndexColumn column : index.columns.values()) {
+            if (i++ > 0) {
+                builder.append(", ");
+            }
+            builder.append(quote(column.columnName));
+            if (withOrder && "D".equalsIgnoreCase(column.ascOrDesc)) {
+                builder.append(" DESC");
+            }
+        }
+        return builder.append(")").toString();
+    }
+
+    private static List<String> getIndexColumnNames(Index index) {
+        ArrayList<String> columnNames = new ArrayList<>();
+        for (IndexColumn column : index.columns.values()) {
+            columnNames.add(column.columnName.toUpperCase());
+        }
+        return columnNames;
+    }
+
+    private static List<String> getColumnNames(Collection<String> names) {
+        ArrayList<String> columnNames = new ArrayList<>();
+        for (String name : names) {
+            columnNames.add(name.toUpperCase());
+        }
+        return columnNames;
+    }
+
+    private static boolean isPrimaryKeyIndex(Table table, Index index) {
+        return !index.nonUnique && table.primaryKey != null
+                && getIndexColumnNames(index)
+                        .equals(getColumnNames(table.primaryKey.columnNames));
+    }
+
+    private static boolean isReferenced(Table table, Index index, Collection<Table> tables) {
+        List<String> columnNames = getIndexColumnNames(index);
+        String key = getKey(table.tableSchema, table.tableName);
+        for (Table t : tables) {
+            for (Reference reference : t.references.values()) {
+                if (key.equals(getKey(reference.pkTableSchema, reference.pkTableName))) {
+                    ArrayList<String> pkColumnNames = new ArrayList<>();
+                    for (String[] columns : reference.columns) {
+                        pkColumnNames.add(columns[0]);
+                    }
+                    if (columnNames.equals(getColumnNames(pkColumnNames))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the unique indices, which are created by a unique constraint or which are referenced
+     *         by a foreign key and so must exist before the references are created
+     */
+    private static List<Index> getUniqueConstraints(Table table, Collection<Table> tables) {
+        ArrayList<Index> indices = new ArrayList<>();
+        for (Index index : table.indices.values()) {
+            if (!index.nonUnique && !isPrimaryKeyIndex(table, index)
+                    && (GENERATED_NAME_PATTERN.matcher(index.indexName).matches()
+                            || isReferenced(table, index, tables))) {
+                indices.add(index);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return the indices to be built after the data, without the indices which are created by
+     *         the constraints already
+     */
+    private List<Index> getSecondaryIndices(Table table, Collection<Table> tables) {
+        List<Index> uniqueConstraints = getUniqueConstraints(table, tables);
+        ArrayList<Index> indices = new ArrayList<>();
+        for (Index index : table.indices.values()) {
+            if (isPrimaryKeyIndex(table, index) || uniqueConstraints.contains(index)) {
+                continue;
+            }
+
+            // the foreign keys created before the data have built their own index already
+            boolean referenceIndex = false;
+            for (Reference reference : table.references.values()) {
+                ArrayList<String> fkColumnNames = new ArrayList<>();
+                for (String[] columns : reference.columns) {
+                    fkColumnNames.add(columns[1]);
+                }
+                if (!deferredReferences.contains(reference) && getIndexColumnNames(index)
+                        .equals(getColumnNames(fkColumnNames))) {
+                    referenceIndex = true;
+                    break;
+                }
+            }
+            if (!referenceIndex) {
+                indices.add(index);
+            }
+        }
+        return indices;
+    }
+
+    private static String getCreateIndexSql(Table table, Index index) {
+        return "CREATE " + (index.nonUnique ? "" : "UNIQUE ") + "INDEX "
+                + (GENERATED_NAME_PATTERN.matcher(index.indexName).matches()
+                        ? ""
+                        : quote(index.tableSchema) + "." + quote(index.indexName) + " ")
+                + "ON " + getQualifiedName(table) + " " + getIndexColumns(index, true);
+    }
+
+    private static String getCreateReferenceSql(Reference reference) {
+        StringBuilder fkColumns = new StringBuilder();
+        StringBuilder pkColumns = new StringBuilder();
+        int i = 0;
+        for (String[] columns : reference.columns) {
+            if (i++ > 0) {
+                fkColumns.append(", ");
+                pkColumns.append(", ");
+            }
+            pkColumns.append(quote(columns[0]));
+            fkColumns.append(quote(columns[1]));
+        }
+
+        return "ALTER TABLE " + quote(reference.fkTableSchema) + "."
+                + quote(reference.fkTableName) + " ADD " + getConstraintName(reference.fkName)
+                + "FOREIGN KEY (" + fkColumns + ") REFERENCES "
+                + quote(reference.pkTableSchema) + "." + quote(reference.pkTableName) + " ("
+                + pkColumns + ")" + getReferenceRule("DELETE", reference.deleteRule)
+                + getReferenceRule("UPDATE", reference.updateRule);
+    }
+
+    private static String getReferenceRule(String action, Short rule) {
+        if (rule == null) {
+            return "";
+        }
+        switch (rule) {
+            case DatabaseMetaData.importedKeyCascade:
+                return " ON " + action + " CASCADE";
+            case DatabaseMetaData.importedKeySetNull:
+                return " ON " + action + " SET NULL";
+            case DatabaseMetaData.importedKeySetDefault:
+                return " ON " + action + " SET DEFAULT";
+            default:
+                return "";
+        }
+    }
+
+    private static void restartIdentities(Statement st, Table table) throws SQLException {
+        for (Column column : table.columns) {
+            if ("YES".equalsIgnoreCase(column.isAutomaticIncrement)) {
+                long value = 0;
+                try (ResultSet rs = st.executeQuery("SELECT MAX(" + quote(column.columnName)
+                        + ") FROM " + getQualifiedName(table))) {
+                    if (rs.next()) {
+                        value = rs.getLong(1);
+                    }
+                }
+                if (value > 0) {
+                    execute(st, "ALTER TABLE " + getQualifiedName(table) + " ALTER COLUMN "
+                            + quote(column.columnName) + " RESTART WITH " + (value + 1));
+                }
+            }
+        }
+    }
+
+    private ValueKind getValueKind(Column column) {
+        String typeName = column.typeName != null ? column.typeName.toUpperCase() : "";
+
+        if (typeName.startsWith("UUID")) {
+            return ValueKind.OBJECT;
+        } else if (typeName.startsWith("GEOMETRY") || typeName.startsWith("ENUM")
+                || typeName.startsWith("INTERVAL")) {
+            return ValueKind.STRING;
+        } else if (typeName.startsWith("JSON") || typeName.equals("OTHER")
+                || typeName.equals("JAVA_OBJECT")) {
+            return ValueKind.BYTES;
+        }
+
+        switch (column.dataType) {
+            case Types.CLOB:
+            case Types.NCLOB:
+                return ValueKind.CHARACTER_STREAM;
+            case Types.BLOB:
+                return ValueKind.BINARY_STREAM;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.JAVA_OBJECT:
+                return ValueKind.BYTES;
+            case Types.TIME_WITH_TIMEZONE:
+                return ValueKind.OFFSET_TIME;
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return ValueKind.OFFSET_DATE_TIME;
+            default:
+                return ValueKind.OBJECT;
+        }
+    }
+
+    /**
+     * Moves one value between the two drivers. Both drivers live in their own ClassLoader, so only
+     * values of the Java Platform can be handed over, while LOBs are streamed and the driver
+     * specific objects are converted into their String representation.
+     */
+    private static void copyValue(ResultSet rs, PreparedStatement pst, int i,
+            ValueKind valueKind, int dataType) throws SQLException {
+        switch (valueKind) {
+            case CHARACTER_STREAM:
+                Reader reader = rs.getCharacterStream(i);
+                if (reader == null) {
+                    pst.setNull(i, dataType);
+                } else {
+                    pst.setCharacterStream(i, reader);
+                }
+                break;
+            case BINARY_STREAM:
+                InputStream inputStream = rs.getBinaryStream(i);
+                if (inputStream == null) {
+                    pst.setNull(i, dataType);
+                } else {
+                    pst.setBinaryStream(i, inputStream);
+                }
+                break;
+            case BYTES:
+                pst.setBytes(i, rs.getBytes(i));
+                break;
+            case STRING:
+                pst.setString(i, rs.getString(i));
+                break;
+            case OFFSET_TIME:
+                pst.setObject(i, rs.getObject(i, OffsetTime.class));
+                break;
+            case OFFSET_DATE_TIME:
+                pst.setObject(i, rs.getObject(i, OffsetDateTime.class));
+                break;
+            default:
+                Object value = rs.getObject(i);
+                if (value == null) {
+                    pst.setNull(i, dataType);
+                } else if (value.getClass().getClassLoader() != null && value.getClass()
+                        .getClassLoader() != ClassLoader.getPlatformClassLoader()) {
+                    pst.setString(i, rs.getString(i));
+                } else {
+                    pst.setObject(i, value);
+                }
+        }
+    }
+
+    /**
+     * A part of a table, selected by a condition on its key column.
+     */
+    public static class TableRange {
+        final Table table;
+        final int index;
+        final int count;
+        final String condition;
+        final Object[] parameters;
+
+        public TableRange(Table table) {
+            this(table, 0, 1, null);
+        }
+
+        public TableRange(Table table, int index, int count, String condition,
+                Object... parameters) {
+            this.table = Objects.requireNonNull(table);
+            this.index = index;
+            this.count = count;
+            this.condition = condition;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public String toString() {
+            return table.tableSchema + "." + table.tableName
+                    + (count > 1 ? " [" + (index + 1) + "/" + count + "]" : "");
+        }
+    }
+
+    /**
+     * Opens a new connection to the source or target database for a worker.
+     */
+    public interface ConnectionSupplier {
+        Connection get() throws SQLException;
+    }
+
+    private enum ValueKind {
+        OBJECT, STRING, BYTES, CHARACTER_STREAM, BINARY_STREAM, OFFSET_TIME, OFFSET_DATE_TIME
+    }
+}
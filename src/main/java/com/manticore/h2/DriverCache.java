@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache of the H2 Jars extracted from the application Jar, since a Jar can't be
+ * loaded from inside a Jar. Every Jar is stored once under the SHA-256 of its content, e.g.
+ * {@code <cache>/<sha-256>/h2-1.4.200.bin}, and is never replaced.
+ *
+ * <p>
+ * An index maps the name, size and time of the embedded resource to its SHA-256, so a later start
+ * finds the cached Jar without reading the embedded resource again. The cache folder is defined by
+ * the System Property {@value #CACHE_FOLDER_PROPERTY}, otherwise {@code $XDG_CACHE_HOME} or
+ * {@code ~/.cache} is used.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverCache {
+    public static final Logger LOGGER = Logger.getLogger(DriverCache.class.getName());
+
+    public static final String CACHE_FOLDER_PROPERTY = "h2migrationtool.cache";
+
+    private static final String INDEX_FILE_NAME = "drivers.index";
+
+    private final Path folder;
+    private final Properties index = new Properties();
+    private boolean indexModified = false;
+
+    public DriverCache(Path folder) {
+        this.folder = folder;
+
+        Path indexPath = folder.resolve(INDEX_FILE_NAME);
+        if (Files.isRegularFile(indexPath)) {
+            try (InputStream inputStream = Files.newInputStream(indexPath)) {
+                index.load(inputStream);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to read the driver index " + indexPath, ex);
+            }
+        }
+    }
+
+    public static Path getDefaultFolder() {
+        String folderName = System.getProperty(CACHE_FOLDER_PROPERTY);
+        if (folderName != null && !folderName.isBlank()) {
+            return H2MigrationTool.getAbsoluteFile(folderName).toPath();
+        }
+
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        File cacheFolder = cacheHome != null && !cacheHome.isBlank()
+                ? new File(cacheHome)
+                : new File(System.getProperty("user.home"), ".cache");
+        return new File(cacheFolder, "h2migrationtool/drivers").toPath();
+    }
+
+    public Path getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the cached copy of an embedded H2 Jar and extracts the Jar first, when it is not
+     * cached yet.
+     *
+     * @param resource the H2 Jar inside the application Jar
+     * @return the cached copy with the same file name
+     */
+    public Path get(Path resource) throws IOException {
+        String fileName = resource.getFileName().toString();
+        String key = fileName + ":" + Files.size(resource) + ":"
+                + Files.getLastModifiedTime(resource).toMillis();
+
+        String sha256 = index.getProperty(key);
+        if (sha256 != null) {
+            Path cachedPath = folder.resolve(sha256).resolve(fileName);
+            if (Files.isRegularFile(cachedPath)) {
+                return cachedPath;
+            }
+        }
+
+        Files.createDirectories(folder);
+        Path tmpPath = Files.createTempFile(folder, fileName, ".tmp");
+        try {
+            try (InputStream inputStream = new DigestInputStream(
+                    Files.newInputStream(resource), MessageDigest.getInstance("SHA-256"));
+                    OutputStream outputStream = Files.newOutputStream(tmpPath)) {
+                inputStream.transferTo(outputStream);
+                sha256 = toHex(((DigestInputStream) inputStream).getMessageDigest().digest());
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IOException("SHA-256 is not supported.", ex);
+            }
+
+            Path cachedPath = folder.resolve(sha256).resolve(fileName);
+            if (!Files.isRegularFile(cachedPath)) {
+                Files.createDirectories(cachedPath.getParent());
+                move(tmpPath, cachedPath);
+                LOGGER.fine("Cached the H2 library " + resource + " as " + cachedPath);
+            }
+
+            index.setProperty(key, sha256);
+            indexModified = true;
+            return cachedPath;
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    /**
+     * Writes the index, when new Jars have been cached.
+     */
+    public void saveIndex() throws IOException {
+        if (indexModified) {
+            Path tmpPath = Files.createTempFile(folder, INDEX_FILE_NAME, ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tmpPath)) {
+                    index.store(outputStream, "H2 libraries by the SHA-256 of their content");
+                }
+                move(tmpPath, folder.resolve(INDEX_FILE_NAME));
+                indexModified = false;
+            } finally {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+
+    // other processes may cache the same file at the same time, so the file appears at once
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            if (!Files.exists(target)) {
+                Files.move(source, target);
+            } else {
+                LOGGER.log(Level.FINE, "The file " + target + " exists already.", ex);
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent history of the drivers which opened a database of a certain family, see
+ * {@link DatabaseFileHeader#getFingerprint()}. The automatic migration tries the fastest driver
+ * known for the family first, so repeated migrations of similar databases need one attempt only.
+ *
+ * <p>
+ * Every line maps a fingerprint to the successful drivers and their average time in milliseconds,
+ * e.g. {@code 2.1.214=1200,2.0.206=1800}.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverHistory {
+    public static final Logger LOGGER = Logger.getLogger(DriverHistory.class.getName());
+
+    public static final String HISTORY_FILE_NAME = "driver-history.index";
+
+    private final Path file;
+    private final Properties history = new Properties();
+    private boolean modified = false;
+
+    public DriverHistory(Path file) {
+        this.file = file;
+
+        if (Files.isRegularFile(file)) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                history.load(inputStream);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to read the driver history " + file, ex);
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Records a driver which opened a database of the family.
+     *
+     * @param fingerprint the fingerprint of the database file
+     * @param driverRecord the successful driver
+     * @param millis the time the migration took with the driver
+     */
+    public synchronized void record(String fingerprint, DriverRecord driverRecord,
+            long millis) {
+        LinkedHashMap<String, Long> entries = getEntries(fingerprint);
+        entries.merge(driverRecord.getVersion(), millis, (m1, m2) -> (m1 + m2) / 2);
+
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> e : entries.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(",");
+            }
+            builder.append(e.getKey()).append("=").append(e.getValue());
+        }
+        history.setProperty(fingerprint, builder.toString());
+        modified = true;
+    }
+
+    /**
+     * Sorts the drivers known for the family first, the fastest one first. The other drivers
+     * follow in their given order.
+     *
+     * @param fingerprint the fingerprint of the database file
+     * @param driverRecords the drivers to try
+     * @return the drivers in the order to try
+     */
+    public synchronized List<DriverRecord> sort(String fingerprint,
+            Collection<DriverRecord> driverRecords) {
+        LinkedHashMap<String, Long> entries = getEntries(fingerprint);
+
+        ArrayList<DriverRecord> known = new ArrayList<>();
+        ArrayList<DriverRecord> sorted = new ArrayList<>();
+        for (DriverRecord driverRecord : driverRecords) {
+            if (entries.containsKey(driverRecord.getVersion())) {
+                known.add(driverRecord);
+            } else {
+                sorted.add(driverRecord);
+            }
+        }
+        known.sort((r1, r2) -> Long.compare(entries.get(r1.getVersion()),
+                entries.get(r2.getVersion())));
+        sorted.addAll(0, known);
+        return sorted;
+    }
+
+    /**
+     * Writes the history, when it has been modified.
+     */
+    public synchronized void save() throws IOException {
+        if (modified) {
+            Files.createDirectories(file.getParent());
+            Path tmpPath = Files.createTempFile(file.getParent(), HISTORY_FILE_NAME, ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tmpPath)) {
+                    history.store(outputStream, "H2 drivers by database fingerprint: version=ms");
+                }
+                Files.move(tmpPath, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                modified = false;
+            } finally {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+
+    private LinkedHashMap<String, Long> getEntries(String fingerprint) {
+        LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+        String value = history.getProperty(fingerprint);
+        if (value != null && !value.isEmpty()) {
+            for (String entry : value.split(",")) {
+                int i = entry.indexOf('=');
+                try {
+                    entries.put(entry.substring(0, i), Long.parseLong(entry.substring(i + 1)));
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.FINE, "Skip the invalid history entry " + entry, ex);
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A persistent index of the known H2 libraries, holding the version, the build id, the SHA-256 and
+ * the result of the probe of every library. A library is probed only once, when it is used first,
+ * and the result is reused as long as the file does not change.
+ *
+ * <p>
+ * Every line maps the URL of a library to {@code version,buildId,sha256,size,lastModified,probe},
+ * where the probe is {@code OK} or empty when not probed yet. A failed probe may be transient,
+ * e.g. an interrupted or cancelled migration, so it is remembered until the end of the run only
+ * and the library is probed again by the next run.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverIndex {
+    public static final Logger LOGGER = Logger.getLogger(DriverIndex.class.getName());
+
+    public static final String INDEX_FILE_NAME = "driver-records.index";
+
+    private static final String PROBE_OK = "OK";
+
+    private final Path file;
+    private final Properties index = new Properties();
+    private final HashSet<String> failedUrls = new HashSet<>();
+    private boolean modified = false;
+
+    public DriverIndex(Path file) {
+        this.file = file;
+
+        if (Files.isRegularFile(file)) {
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                index.load(inputStream);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to read the driver index " + file, ex);
+            }
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Registers a library, which is not indexed yet or has been changed since.
+     *
+     * @return FALSE, when the library has failed the probe during this run
+     */
+    public synchronized boolean register(URL url, String version, String buildId) {
+        String key = url.toExternalForm();
+        if (failedUrls.contains(key)) {
+            return false;
+        }
+
+        String[] entry = getCurrentEntry(url);
+        if (entry != null) {
+            return true;
+        }
+
+        String sha256 = "";
+        long size = -1;
+        long lastModified = -1;
+        File f = toFile(url);
+        if (f != null) {
+            size = f.length();
+            lastModified = f.lastModified();
+            try {
+                sha256 = getSha256(f.toPath());
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "Failed to read the H2 library " + f, ex);
+            }
+        }
+
+        index.setProperty(key, String.join(",", version, buildId, sha256, String.valueOf(size),
+                String.valueOf(lastModified), ""));
+        modified = true;
+        return true;
+    }
+
+    /**
+     * @return TRUE, when the library has been probed successfully and did not change since
+     */
+    public synchronized boolean isProbed(URL url) {
+        String[] entry = getCurrentEntry(url);
+        return entry != null && PROBE_OK.equals(entry[5]);
+    }
+
+    /**
+     * Records the result of a probe. Only a successful probe is saved, a failed one is
+     * remembered until the end of the run.
+     */
+    public synchronized void setProbed(URL url, boolean success) {
+        if (success) {
+            failedUrls.remove(url.toExternalForm());
+        } else {
+            failedUrls.add(url.toExternalForm());
+        }
+
+        String value = index.getProperty(url.toExternalForm());
+        if (value != null) {
+            String[] entry = value.split(",", -1);
+            entry[5] = success ? PROBE_OK : "";
+            index.setProperty(url.toExternalForm(), String.join(",", entry));
+            modified = true;
+        }
+    }
+
+    /**
+     * Writes the index, when it has been modified.
+     */
+    public synchronized void save() throws IOException {
+        if (modified) {
+            Files.createDirectories(file.getParent());
+            Path tmpPath = Files.createTempFile(file.getParent(), INDEX_FILE_NAME, ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tmpPath)) {
+                    index.store(outputStream,
+                            "H2 libraries: version,buildId,sha256,size,lastModified,probe");
+                }
+                Files.move(tmpPath, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                modified = false;
+            } finally {
+                Files.deleteIfExists(tmpPath);
+            }
+        }
+    }
+
+    // the entry is valid as long as the size and time of the file did not change
+    private String[] getCurrentEntry(URL url) {
+        String value = index.getProperty(url.toExternalForm());
+        if (value == null) {
+            return null;
+        }
+
+        String[] entry = value.split(",", -1);
+        File f = toFile(url);
+        if (entry.length != 6 || f != null && (f.length() != Long.parseLong(entry[3])
+                || f.lastModified() != Long.parseLong(entry[4]))) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static File toFile(URL url) {
+        try {
+            return "file".equals(url.getProtocol()) ? Paths.get(url.toURI()).toFile() : null;
+        } catch (URISyntaxException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    private static String getSha256(Path path) throws IOException {
+        try (DigestInputStream inputStream = new DigestInputStream(Files.newInputStream(path),
+                MessageDigest.getInstance("SHA-256"))) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+
+            StringBuilder builder = new StringBuilder();
+            for (byte b : inputStream.getMessageDigest().digest()) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-256 is not supported.", ex);
+        }
+    }
+}
@@ -20,7 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,36 +32,46 @@ public class DriverRecord implements Comparable<DriverRecord> {
     public static final Logger LOGGER = Logger.getLogger(DriverRecord.class.getName());
     // git rev-list --topo-order -10000 HEAD --pretty=reference --abbrev-commit --reverse | sed -n
     // '1p;0~2p' > ~/data/src/H2MigrationTool/src/com/manticore/h2/h2-git.log
-    private static final ArrayList<String> BUILD_ID_LIST = new ArrayList<>();
+    // the position of every build id in the log, read once when the first snapshot is found
+    private static final HashMap<String, Integer> BUILD_ID_ORDINALS = new HashMap<>();
     int majorVersion;
     int minorVersion;
     int patchId;
     String buildId;
     URL url;
 
-    public DriverRecord(int majorVersion, int minorVersion, int patchID, String buildId, URL url) {
-
-        if (buildId != null && !buildId.isEmpty()) {
-            synchronized (BUILD_ID_LIST) {
-                if (BUILD_ID_LIST.isEmpty()) {
-                    try (InputStream in =
-                            ClassLoader.getSystemResourceAsStream("com/manticore/h2/h2-git.log")) {
-                        for (String line : IOUtils.readLines(in, Charset.defaultCharset())) {
-                            String id = line.split(" ", 2)[0];
-                            BUILD_ID_LIST.add(id);
-                        }
-                    } catch (IOException ex) {
-                        LOGGER.log(Level.SEVERE, null, ex);
-                    }
-                }
-            }
-        }
+    // the position of the build id in the log, -1 for a release or an unknown build
+    private final int buildOrdinal;
 
+    public DriverRecord(int majorVersion, int minorVersion, int patchID, String buildId, URL url) {
         this.majorVersion = majorVersion;
         this.minorVersion = minorVersion;
         this.patchId = patchID;
         this.buildId = buildId == null || buildId.isBlank() ? "" : buildId;
         this.url = url;
+        this.buildOrdinal = getBuildOrdinal(this.buildId);
+    }
+
+    private static int getBuildOrdinal(String buildId) {
+        if (buildId.isEmpty()) {
+            return -1;
+        }
+
+        synchronized (BUILD_ID_ORDINALS) {
+            if (BUILD_ID_ORDINALS.isEmpty()) {
+                try (InputStream in =
+                        ClassLoader.getSystemResourceAsStream("com/manticore/h2/h2-git.log")) {
+                    int i = 0;
+                    for (String line : IOUtils.readLines(in, Charset.defaultCharset())) {
+                        String id = line.split(" ", 2)[0];
+                        BUILD_ID_ORDINALS.putIfAbsent(id, i++);
+                    }
+                } catch (IOException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+            return BUILD_ID_ORDINALS.getOrDefault(buildId, -1);
+        }
     }
 
     @Override
@@ -82,9 +92,12 @@ public class DriverRecord implements Comparable<DriverRecord> {
             } else if (!buildId.isEmpty() && t.buildId.isEmpty()) {
                 compareTo = 1;
             } else if (!buildId.isEmpty() && !t.buildId.isEmpty()) {
-                int i1 = BUILD_ID_LIST.indexOf(buildId);
-                int i2 = BUILD_ID_LIST.indexOf(t.buildId);
-                compareTo = Integer.compare(i1, i2);
+                compareTo = Integer.compare(buildOrdinal, t.buildOrdinal);
+
+                // builds missing in the log must not be equal to each other
+                if (compareTo == 0) {
+                    compareTo = buildId.compareTo(t.buildId);
+                }
             }
         }
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.sql.Driver;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps one warm ClassLoader per H2 Jar, so the H2 engine is loaded and compiled only once, no
+ * matter how many databases are migrated with it. The Driver and the H2 tools (e.g.
+ * {@code org.h2.tools.Script} and {@code org.h2.tools.Recover}) are reached through the same
+ * loader.
+ *
+ * <p>
+ * Every {@link #acquire(URL)} must be followed by a {@link #release(Driver)}. A loader without any
+ * references stays idle until more than {@link #getMaxIdle()} loaders are idle, then the least
+ * recently used one is evicted: its Driver is deregistered and the loader is closed.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverRegistry {
+    public static final Logger LOGGER = Logger.getLogger(DriverRegistry.class.getName());
+
+    public static final int DEFAULT_MAX_IDLE = 8;
+
+    // in the order of the last access, for evicting the least recently used loaders first
+    private static final LinkedHashMap<String, PooledDriver> DRIVERS =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private static int maxIdle = DEFAULT_MAX_IDLE;
+
+    private DriverRegistry() {}
+
+    public static synchronized int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @param maxIdle the number of loaders kept warm without any references
+     */
+    public static synchronized void setMaxIdle(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException("The number of idle loaders must not be negative.");
+        }
+        DriverRegistry.maxIdle = maxIdle;
+        evict();
+    }
+
+    /**
+     * Returns the Driver of the H2 Jar and increments its references. The loader is created on
+     * the first call only.
+     *
+     * @param url the URL of the H2 Jar
+     * @return the registered Driver of the H2 Jar
+     */
+    public static Driver acquire(URL url) throws PrivilegedActionException {
+        PooledDriver pooledDriver;
+        synchronized (DriverRegistry.class) {
+            pooledDriver =
+                    DRIVERS.computeIfAbsent(url.toExternalForm(), k -> new PooledDriver(url));
+            pooledDriver.references++;
+        }
+
+        try {
+            return pooledDriver.getDriver();
+        } catch (PrivilegedActionException | RuntimeException ex) {
+            synchronized (DriverRegistry.class) {
+                pooledDriver.references--;
+                DRIVERS.remove(url.toExternalForm(), pooledDriver);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Releases a Driver returned by {@link #acquire(URL)}. A Driver which does not belong to the
+     * registry is unloaded right away.
+     *
+     * @param driver the Driver to release
+     */
+    public static void release(Driver driver) {
+        synchronized (DriverRegistry.class) {
+            for (PooledDriver pooledDriver : DRIVERS.values()) {
+                if (pooledDriver.driver == driver) {
+                    if (pooledDriver.references > 0) {
+                        pooledDriver.references--;
+                    }
+                    evict();
+                    return;
+                }
+            }
+        }
+        unload(driver);
+    }
+
+    /**
+     * @return TRUE, when a loader of the H2 Jar is held by the registry
+     */
+    public static synchronized boolean isLoaded(URL url) {
+        return DRIVERS.containsKey(url.toExternalForm());
+    }
+
+    /**
+     * Evicts all loaders without any references.
+     */
+    public static void clear() {
+        ArrayList<PooledDriver> evicted = new ArrayList<>();
+        synchronized (DriverRegistry.class) {
+            DRIVERS.values().removeIf(pooledDriver -> {
+                if (pooledDriver.references == 0) {
+                    evicted.add(pooledDriver);
+                    return true;
+                }
+                return false;
+            });
+        }
+        for (PooledDriver pooledDriver : evicted) {
+            pooledDriver.close();
+        }
+    }
+
+    // must be called while holding the lock of the registry
+    private static void evict() {
+        int idle = 0;
+        for (PooledDriver pooledDriver : DRIVERS.values()) {
+            if (pooledDriver.references == 0) {
+                idle++;
+            }
+        }
+
+        // the iteration starts with the least recently used loader
+        Iterator<PooledDriver> iterator = DRIVERS.values().iterator();
+        while (iterator.hasNext() && idle > maxIdle) {
+            PooledDriver pooledDriver = iterator.next();
+            if (pooledDriver.references == 0) {
+                iterator.remove();
+                idle--;
+                pooledDriver.close();
+            }
+        }
+    }
+
+    private static void unload(Driver driver) {
+        try {
+            driver.getClass().getDeclaredMethod("unload").invoke(null);
+            if (driver.getClass().getClassLoader() instanceof URLClassLoader) {
+                ((URLClassLoader) driver.getClass().getClassLoader()).close();
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINE, "Failed to unload Driver " + driver.getMajorVersion() + "."
+                    + driver.getMinorVersion(), ex);
+        }
+    }
+
+    private static class PooledDriver {
+        private final URL url;
+        private int references = 0;
+        private volatile Driver driver = null;
+
+        private PooledDriver(URL url) {
+            this.url = url;
+        }
+
+        private synchronized Driver getDriver() throws PrivilegedActionException {
+            if (driver == null) {
+                MigrationEvents.ClassLoaderEvent event =
+                        new MigrationEvents.ClassLoaderEvent(url.toExternalForm());
+                event.begin();
+                try {
+                    driver = AccessController
+                            .doPrivileged((PrivilegedExceptionAction<Driver>) () -> {
+                                URLClassLoader loader = new URLClassLoader(new URL[] {url},
+                                        ClassLoader.getPlatformClassLoader());
+                                Class<?> classToLoad = loader.loadClass("org.h2.Driver");
+                                Method method = classToLoad.getDeclaredMethod("load");
+                                return (Driver) method.invoke(null);
+                            });
+                    event.setSuccess(true);
+                } finally {
+                    event.commit();
+                }
+                LOGGER.fine("Loaded the Driver from " + url);
+            }
+            return driver;
+        }
+
+        private synchronized void close() {
+            if (driver != null) {
+                LOGGER.fine("Evict the Driver of " + url);
+                unload(driver);
+                driver = null;
+            }
+        }
+    }
+
+    static synchronized int size() {
+        return DRIVERS.size();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import javax.swing.table.AbstractTableModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The status of the database files processed by a batch of the UI, one row per file. The model
+ * must be updated on the Event Dispatch Thread only.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class FileStatusTableModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES =
+            new String[] {"Database File", "Status", "Elapsed", "Result"};
+
+    private final ArrayList<FileStatus> rows = new ArrayList<>();
+    private final HashMap<File, Integer> rowIndices = new HashMap<>();
+
+    /**
+     * Adds a new row or replaces the row of the same file.
+     *
+     * @param fileStatus the new status of the file
+     */
+    public void update(FileStatus fileStatus) {
+        Integer index = rowIndices.get(fileStatus.file);
+        if (index == null) {
+            index = rows.size();
+            rows.add(fileStatus);
+            rowIndices.put(fileStatus.file, index);
+            fireTableRowsInserted(index, index);
+        } else {
+            rows.set(index, fileStatus);
+            fireTableRowsUpdated(index, index);
+        }
+    }
+
+    /**
+     * Refreshes the elapsed time of the running files.
+     */
+    public void updateRunning() {
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).status == Status.RUNNING) {
+                fireTableCellUpdated(i, 2);
+            }
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        FileStatus fileStatus = rows.get(rowIndex);
+        switch (columnIndex) {
+            case 0:
+                return fileStatus.file.getName();
+            case 1:
+                return fileStatus.status;
+            case 2:
+                return fileStatus.status == Status.QUEUED ? ""
+                        : String.format("%.1f s", fileStatus.getElapsedMillis() / 1000d);
+            default:
+                return fileStatus.message;
+        }
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    public static class FileStatus {
+        public final File file;
+        public final Status status;
+        public final long startMillis;
+        public final long endMillis;
+        public final String message;
+
+        public FileStatus(File file, Status status, long startMillis, long endMillis,
+                String message) {
+            this.file = file;
+            this.status = status;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.message = message;
+        }
+
+        public long getElapsedMillis() {
+            return (status == Status.RUNNING ? System.currentTimeMillis() : endMillis)
+                    - startMillis;
+        }
+    }
+}
@@ -26,15 +26,23 @@ import org.apache.commons.io.FilenameUtils;
 import javax.swing.*;
 import javax.swing.plaf.nimbus.NimbusLookAndFeel;
 import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -53,18 +61,34 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipInputStream;
 
 /**
  * @author Andreas Reichel <andreas@manticore-projects.com>
@@ -74,11 +98,45 @@ public class H2MigrationTool {
     public static final Logger LOGGER = Logger.getLogger(H2MigrationTool.class.getName());
     public static final Pattern VERSION_PATTERN = Pattern
             .compile("([0-9]+)\\.([0-9]+)\\.([0-9]+)(-([a-z0-9]{9}))?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MINOR_VERSION_PATTERN = Pattern.compile("([0-9]+)\\.([0-9]+)");
+    private static final Pattern COMPRESSION_PATTERN =
+            Pattern.compile("COMPRESSION\\s+(GZIP|ZIP)\\b", Pattern.CASE_INSENSITIVE);
+
+    // read by the MXBean and the workers while more drivers are read
+    private static final ConcurrentSkipListSet<DriverRecord> DRIVER_RECORDS =
+            new ConcurrentSkipListSet<>();
+    private static DriverIndex driverIndex = null;
+    private static DriverHistory driverHistory = null;
+
+    public static final String DATABASE_LOG_EXTENSION = ".migration.log";
+
+    // the milliseconds of the TIMED compaction
+    public static final int DEFAULT_COMPACT_TIME = 10000;
+
+    // the parent of all loggers of this package, referenced strongly to keep the added handlers
+    private static final Logger PACKAGE_LOGGER =
+            Logger.getLogger(H2MigrationTool.class.getPackage().getName());
+
+    // the database migrated by a worker, inherited by the threads the worker starts
+    private static final InheritableThreadLocal<String> CURRENT_DATABASE =
+            new InheritableThreadLocal<>();
+
+    // the compactions of the databases closed with CompactMode.BACKGROUND, one after the other
+    private static final ExecutorService COMPACT_EXECUTOR = Executors.newSingleThreadExecutor(
+            r -> {
+                // the thread must not report to the database which happened to start it
+                Thread thread = new Thread(null, r, "H2 Background Compaction", 0, false);
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final List<Future<?>> COMPACTIONS = new ArrayList<>();
 
-    private static final TreeSet<DriverRecord> DRIVER_RECORDS = new TreeSet<>();
-
+    /**
+     * @return a view of the H2 drivers read so far, which may be iterated while more drivers are
+     *         read
+     */
     public static Set<DriverRecord> getDriverRecords() {
-        return Collections.unmodifiableSet(DRIVER_RECORDS);
+        return Collections.unmodifiableNavigableSet(DRIVER_RECORDS);
     }
 
     public final static javax.swing.filechooser.FileFilter H2_DATABASE_FILE_FILTER =
@@ -116,6 +174,24 @@ public class H2MigrationTool {
 
             };
     private final TreeSet<Hook> hooks = new TreeSet<>();
+    private MigrationMode migrationMode = MigrationMode.SCRIPT;
+    private int batchSize = DirectCopy.DEFAULT_BATCH_SIZE;
+    private int commitInterval = DirectCopy.DEFAULT_COMMIT_INTERVAL;
+    private int copyThreads = 1;
+    private long copyPartitionSize = DirectCopy.DEFAULT_PARTITION_SIZE;
+    private boolean resume = false;
+    private int parallelism = 1;
+    private int compressionThreads = 1;
+    private boolean readAhead = false;
+    private int optimizeScriptRows = 0;
+    private boolean deferIndices = false;
+    private boolean deferForeignKeys = false;
+    private boolean bulkLoad = false;
+    private int analyzeSampleSize = 0;
+    private int analyzeThreads = 1;
+    private CompactMode compactMode = CompactMode.COMPACT;
+    private int compactTime = DEFAULT_COMPACT_TIME;
+    private File reportFolder = null;
 
     public static String getTempFolderName() {
         String tempPath = new File(System.getProperty("java.io.tmpdir")).getAbsolutePath();
@@ -213,7 +289,13 @@ public class H2MigrationTool {
         return readDriverRecords("");
     }
 
-    public static TreeSet<DriverRecord> readDriverRecords(String resourceName) throws Exception {
+    /**
+     * Discovers the H2 libraries, extracting the embedded ones into the {@link DriverCache} first.
+     * The discovery holds the lock of this class, so it must be done once before the databases are
+     * migrated concurrently, which then only read the discovered {@link DriverRecord}s.
+     */
+    public static synchronized TreeSet<DriverRecord> readDriverRecords(String resourceName)
+            throws Exception {
 
         Path myPath;
         FileSystem fileSystem = null;
@@ -233,6 +315,10 @@ public class H2MigrationTool {
             }
         }
 
+        DriverCache driverCache = fileSystem != null
+                ? new DriverCache(DriverCache.getDefaultFolder())
+                : null;
+
         for (Path path : findFilesInPathRecursively(myPath, 1, "h2", ".bin")) {
             LOGGER.fine("Found H2 library " + path);
             try {
@@ -242,13 +328,28 @@ public class H2MigrationTool {
                 // @todo: For any reason we can't load a Jar from inside a Jar
                 // so we have to extract a local copy first
                 // investigate, if the is a better solution, e. g. a special ClassLoader
-                if (resourceUri.getScheme().equals("jar")) {
+                URL cachedUrl = null;
+                if (driverCache != null) {
+                    try {
+                        cachedUrl = driverCache.get(path).toUri().toURL();
+                    } catch (IOException ex) {
+                        LOGGER.log(Level.WARNING, "Failed to cache the H2 library " + path
+                                + " in " + driverCache.getFolder(), ex);
+                    }
+                }
+
+                if (cachedUrl != null) {
+                    url = cachedUrl;
+                } else if (resourceUri.getScheme().equals("jar")) {
                     String fileName = FilenameUtils.getName(url.getPath());
                     File tmpFile = new File(System.getProperty("java.io.tmpdir"), fileName);
                     tmpFile.deleteOnExit();
 
-                    Files.copy(url.openStream(), tmpFile.toPath(),
-                            StandardCopyOption.REPLACE_EXISTING);
+                    // a Jar held open by a warm ClassLoader must not be replaced
+                    if (!DriverRegistry.isLoaded(tmpFile.toURI().toURL())) {
+                        Files.copy(url.openStream(), tmpFile.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
 
                     url = tmpFile.toURI().toURL();
                 }
@@ -261,6 +362,17 @@ public class H2MigrationTool {
 
         LOGGER.fine("Driver Records loaded: " + DRIVER_RECORDS.size());
 
+        saveDriverIndex();
+
+        if (driverCache != null) {
+            try {
+                driverCache.saveIndex();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Failed to write the index of the H2 libraries in "
+                        + driverCache.getFolder(), ex);
+            }
+        }
+
         if (fileSystem != null) {
             fileSystem.close();
         }
@@ -268,11 +380,12 @@ public class H2MigrationTool {
         return new TreeSet<>(DRIVER_RECORDS);
     }
 
-    public static void readDriverRecord(Path path) {
+    public static synchronized void readDriverRecord(Path path) {
         if (path != null) {
             try {
                 URL url = path.toUri().toURL();
                 readDriverRecord(url);
+                saveDriverIndex();
             } catch (Exception ex) {
                 LOGGER.log(Level.SEVERE,
                         "Failed to load the driver " + path, ex);
@@ -280,27 +393,14 @@ public class H2MigrationTool {
         }
     }
 
-    public static void readDriverRecord(final URL url) {
+    /**
+     * Registers the H2 library without loading it. The library is probed when it is used first,
+     * see {@link #loadDriver(DriverRecord)}, and a library which failed the probe during this run
+     * is skipped.
+     */
+    public static synchronized void readDriverRecord(final URL url) {
         try {
-            LOGGER.fine("Load Driver from: " + url.toExternalForm());
-            Properties properties = new Properties();
-            properties.setProperty("user", "sa");
-            properties.setProperty("password", "");
-
-            AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> {
-                try (URLClassLoader loader = new URLClassLoader(
-                        new URL[] {url},
-                        ClassLoader.getPlatformClassLoader())) {
-                    Class<?> classToLoad = loader.loadClass("org.h2.Driver");
-                    Method method = classToLoad.getDeclaredMethod("load");
-                    Driver driver = (Driver) method.invoke(null);
-                    try (Connection conn = driver.connect("jdbc:h2:mem:test", properties)) {
-                        // nothing for now
-                    }
-                    unloadDriver(driver);
-                    return null;
-                }
-            });
+            LOGGER.fine("Read Driver from: " + url.toExternalForm());
 
             Matcher matcher = VERSION_PATTERN.matcher(url.getFile());
             if (matcher.find()) {
@@ -310,8 +410,13 @@ public class H2MigrationTool {
                 String buildId = matcher.groupCount() == 5 ? matcher.group(5) : "";
                 DriverRecord driverRecord =
                         new DriverRecord(majorVersion, minorVersion, patchId, buildId, url);
-                DRIVER_RECORDS.add(driverRecord);
-                LOGGER.fine(driverRecord.toString());
+                if (getDriverIndex().register(url, driverRecord.getVersion(),
+                        driverRecord.buildId)) {
+                    DRIVER_RECORDS.add(driverRecord);
+                    LOGGER.fine(driverRecord.toString());
+                } else {
+                    LOGGER.warning("Skip the H2 library " + url + ", which failed the probe.");
+                }
             }
         } catch (Exception ex) {
             LOGGER.log(Level.SEVERE, "Failed to load the driver " + url.toString(), ex);
@@ -335,90 +440,163 @@ public class H2MigrationTool {
         return loadDriver(driverRecord);
     }
 
-    public static Driver loadDriver(DriverRecord driverRecord) throws PrivilegedActionException {
-        return AccessController.doPrivileged((PrivilegedExceptionAction<Driver>) () -> {
-            URLClassLoader loader =
-                    new URLClassLoader(new URL[] {driverRecord.url},
-                            ClassLoader.getPlatformClassLoader());
-            Class<?> classToLoad = loader.loadClass("org.h2.Driver");
-            Method method = classToLoad.getDeclaredMethod("load");
-            return (java.sql.Driver) method.invoke(null);
-        });
+    /**
+     * Acquires the Driver from the {@link DriverRegistry}, which keeps one warm ClassLoader per H2
+     * version. Every Driver must be released by {@link #unloadDriver(Driver)}. A Driver used for
+     * the first time is probed with an In-Memory Database.
+     */
+    public static Driver loadDriver(DriverRecord driverRecord)
+            throws PrivilegedActionException, SQLException {
+        // only reported, since the database remains in the phase which needs the driver
+        long start = System.currentTimeMillis();
+        MigrationEvents.DriverLoadEvent event = new MigrationEvents.DriverLoadEvent(driverRecord);
+        event.begin();
+        try {
+            Driver driver = DriverRegistry.acquire(driverRecord.url);
+            MigrationReport.recordDriver(driverRecord);
+
+            DriverIndex driverIndex = getDriverIndex();
+            if (!driverIndex.isProbed(driverRecord.url)) {
+                Properties properties = new Properties();
+                properties.setProperty("user", "sa");
+                properties.setProperty("password", "");
+
+                event.setProbed(true);
+                try (Connection conn = driver.connect("jdbc:h2:mem:test", properties)) {
+                    driverIndex.setProbed(driverRecord.url, true);
+                } catch (SQLException | RuntimeException ex) {
+                    driverIndex.setProbed(driverRecord.url, false);
+                    DriverRegistry.release(driver);
+                    throw new SQLException("The H2 library " + driverRecord.url
+                            + " failed the probe.", ex);
+                } finally {
+                    saveDriverIndex();
+                }
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_DRIVER_LOAD, start);
+            event.setSuccess(true);
+            return driver;
+        } finally {
+            event.commit();
+        }
     }
 
-    public static void unloadDriver(java.sql.Driver driver) {
+    /**
+     * @return the persistent index of the H2 libraries, see {@link DriverIndex}
+     */
+    public static synchronized DriverIndex getDriverIndex() {
+        if (driverIndex == null) {
+            driverIndex = new DriverIndex(
+                    DriverCache.getDefaultFolder().resolve(DriverIndex.INDEX_FILE_NAME));
+        }
+        return driverIndex;
+    }
+
+    /**
+     * Replaces the index of the H2 libraries, e.g. to keep it apart from the one in the
+     * {@link DriverCache#getDefaultFolder()}.
+     *
+     * @param driverIndex the index to use, or NULL for the one in the default cache folder
+     */
+    public static synchronized void setDriverIndex(DriverIndex driverIndex) {
+        H2MigrationTool.driverIndex = driverIndex;
+    }
+
+    private static void saveDriverIndex() {
+        DriverIndex driverIndex = getDriverIndex();
         try {
-            driver.getClass().getDeclaredMethod("unload").invoke(null);
-            if (driver.getClass().getClassLoader() instanceof URLClassLoader) {
-                ((URLClassLoader) driver.getClass().getClassLoader()).close();
-            }
-        } catch (Exception ex) {
-            LOGGER.log(Level.FINE, "Failed to unload Driver " + driver.getMajorVersion() + "."
-                    + driver.getMinorVersion(), ex);
+            driverIndex.save();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to write the driver index " + driverIndex.getFile(),
+                    ex);
         }
     }
 
+    /**
+     * Releases a Driver returned by {@link #loadDriver(DriverRecord)}. Its ClassLoader stays warm
+     * in the {@link DriverRegistry} until it is evicted.
+     */
+    public static void unloadDriver(java.sql.Driver driver) {
+        DriverRegistry.release(driver);
+    }
+
+    // the records are sorted already, so they are searched without copying them
+    private static NavigableSet<DriverRecord> toNavigableSet(Set<DriverRecord> driverRecords) {
+        return driverRecords instanceof NavigableSet
+                && ((NavigableSet<DriverRecord>) driverRecords).comparator() == null
+                        ? (NavigableSet<DriverRecord>) driverRecords
+                        : new TreeSet<>(driverRecords);
+    }
+
     public static DriverRecord getDriverRecord(Set<DriverRecord> driverRecords,
             int majorVersion,
             int minorVersion, int patchId, String buildID) {
-
-        for (DriverRecord r : new TreeSet<>(driverRecords).descendingSet()) {
-            if (buildID == null || buildID.isEmpty()) {
-                if (r.majorVersion == majorVersion && r.minorVersion == minorVersion
-                        && r.patchId == patchId
-                        && (r.buildId == null || r.buildId.isEmpty())) {
-                    return r;
-                }
-            } else if (r.majorVersion == majorVersion && r.minorVersion == minorVersion
-                    && r.patchId == patchId && r.buildId.equalsIgnoreCase(buildID)) {
-                return r;
-            }
-        }
-        return null;
+        DriverRecord key = new DriverRecord(majorVersion, minorVersion, patchId,
+                buildID != null ? buildID.toLowerCase() : "", null);
+        DriverRecord r = toNavigableSet(driverRecords).floor(key);
+        return key.equals(r) ? r : null;
     }
 
+    /**
+     * @return the latest patch of the {@code major.minor} version
+     */
     public static DriverRecord getDriverRecord(Set<DriverRecord> driverRecords,
             int majorVersion,
             int minorVersion) {
-        for (DriverRecord r : new TreeSet<>(driverRecords).descendingSet()) {
-            if (r.majorVersion == majorVersion && r.minorVersion == minorVersion) {
-                return r;
-            }
+        // sorts before all patches of the next minor version
+        DriverRecord key = new DriverRecord(majorVersion, minorVersion + 1, -1, "", null);
+        DriverRecord r = toNavigableSet(driverRecords).lower(key);
+        return r != null && r.majorVersion == majorVersion && r.minorVersion == minorVersion
+                ? r
+                : null;
+    }
+
+    /**
+     * @return the latest driver not newer than the version, e.g. the nearest older build when the
+     *         requested snapshot is not available
+     */
+    public static DriverRecord getNearestDriverRecord(Set<DriverRecord> driverRecords,
+            String version) throws Exception {
+        Matcher matcher = VERSION_PATTERN.matcher(version);
+        if (!matcher.find()) {
+            throw new Exception(
+                    "The provided version " + version
+                            + " does not match the required format ###.###.###");
+        }
+
+        DriverRecord driverRecord = toNavigableSet(driverRecords).floor(new DriverRecord(
+                Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)),
+                Integer.parseInt(matcher.group(3)),
+                matcher.group(5) != null ? matcher.group(5).toLowerCase() : "", null));
+        if (driverRecord == null) {
+            throw new Exception("No H2 driver found for requestion version " + version);
         }
-        return null;
+        return driverRecord;
     }
 
+    /**
+     * @param version the exact version, e.g. {@code 2.1.214} or {@code 2.3.239-d0d227599}, or the
+     *        {@code major.minor} version for its latest patch, e.g. {@code 2.1}
+     */
     public static DriverRecord getDriverRecord(Set<DriverRecord> driverRecords, String version)
             throws Exception {
         DriverRecord driverRecord;
 
+        Matcher minorMatcher = MINOR_VERSION_PATTERN.matcher(version.trim());
         Matcher matcher = VERSION_PATTERN.matcher(version);
-        if (matcher.find()) {
-            if (matcher.groupCount() == 2) {
-                int majorVersion = Integer.parseInt(matcher.group(1));
-                int minorVersion = Integer.parseInt(matcher.group(2));
-
-                driverRecord = getDriverRecord(driverRecords, majorVersion, minorVersion);
-            } else if (matcher.groupCount() == 3) {
-                int majorVersion = Integer.parseInt(matcher.group(1));
-                int minorVersion = Integer.parseInt(matcher.group(2));
-                int patchId = Integer.parseInt(matcher.group(3));
-
-                driverRecord =
-                        getDriverRecord(driverRecords, majorVersion, minorVersion, patchId, "");
-            } else if (matcher.groupCount() == 5) {
-                int majorVersion = Integer.parseInt(matcher.group(1));
-                int minorVersion = Integer.parseInt(matcher.group(2));
-                int patchId = Integer.parseInt(matcher.group(3));
-                String buildId = matcher.group(5);
-
-                driverRecord = getDriverRecord(driverRecords, majorVersion, minorVersion, patchId,
-                        buildId);
-            } else {
-                throw new Exception(
-                        "The provided version " + version
-                                + " does not match the required format ###.###.###");
-            }
+        if (minorMatcher.matches()) {
+            int majorVersion = Integer.parseInt(minorMatcher.group(1));
+            int minorVersion = Integer.parseInt(minorMatcher.group(2));
+
+            driverRecord = getDriverRecord(driverRecords, majorVersion, minorVersion);
+        } else if (matcher.find()) {
+            int majorVersion = Integer.parseInt(matcher.group(1));
+            int minorVersion = Integer.parseInt(matcher.group(2));
+            int patchId = Integer.parseInt(matcher.group(3));
+            String buildId = matcher.group(5);
+
+            driverRecord = getDriverRecord(driverRecords, majorVersion, minorVersion, patchId,
+                    buildId);
         } else {
             throw new Exception(
                     "The provided version " + version
@@ -447,7 +625,54 @@ public class H2MigrationTool {
         options.addOption("c", "compression", true, "The compression method [ZIP, GZIP]");
         options.addOption(Option.builder("o").longOpt("options").hasArgs().valueSeparator(' ')
                 .desc("The upgrade options [QUIRKS_MODE VARIABLE_BINARY]").build());
+        options.addOption("m", "mode", true,
+                "The migration mode [SCRIPT, STREAM, COPY, SHARDED], "
+                        + "STREAM and COPY do not write a script file, "
+                        + "SHARDED writes one script file per table.");
+        options.addOption(null, "batch-size", true,
+                "The number of rows per insert batch in COPY mode, default 1000.");
+        options.addOption(null, "commit-interval", true,
+                "The number of rows per commit in COPY mode, default 10000.");
+        options.addOption(null, "threads", true,
+                "The number of tables copied at the same time in COPY and SHARDED mode "
+                        + "or indexed and validated at the same time with --defer-indices "
+                        + "and --defer-foreign-keys, default 1.");
+        options.addOption(null, "partition-rows", true,
+                "The number of rows above which a table is split into key ranges, "
+                        + "when copying with several threads, default 1000000.");
+        options.addOption(null, "resume", false, "Resume a failed migration from its journal.");
+        options.addOption(null, "parallelism", true,
+                "The number of databases of a folder migrated at the same time, default 1.");
+        options.addOption(null, "compression-threads", true,
+                "The number of threads compressing the script with GZIP, default 1.");
+        options.addOption(null, "read-ahead", false,
+                "Inflate a compressed script on a separate thread during the import.");
         options.addOption(null, "force", false, "Overwrite files and continue on failure.");
+        options.addOption(null, "optimize-script", true,
+                "Merge the single-row INSERTs of a plain script into multi-row INSERTs "
+                        + "of this many rows before the import, default 0 (off).");
+        options.addOption(null, "defer-indices", false,
+                "Create the secondary indices and the foreign keys of a script after the "
+                        + "data, on --threads connections at once.");
+        options.addOption(null, "defer-foreign-keys", false,
+                "Validate and create the foreign keys of a script after the data, "
+                        + "on --threads connections at once, and report all violations.");
+        options.addOption(null, "bulk-load", false,
+                "Import the script with a larger cache and deferred writes, "
+                        + "restoring the settings before the shutdown.");
+        options.addOption(null, "analyze", true,
+                "The number of rows sampled per table by ANALYZE, "
+                        + "0 for all rows (default) or -1 to skip ANALYZE.");
+        options.addOption(null, "analyze-threads", true,
+                "The number of tables analyzed at the same time, default 1.");
+        options.addOption(null, "compact", true,
+                "The compaction of the new database [COMPACT, DEFRAG, TIMED, BACKGROUND], "
+                        + "default COMPACT.");
+        options.addOption(null, "compact-time", true,
+                "The milliseconds of the TIMED compaction, default 10000.");
+        options.addOption(null, "report", true,
+                "Write a JSON and a Prometheus textfile report of every migrated database "
+                        + "into this folder.");
         options.addOption("h", "help", false, "Show the help message.");
 
         // create the parser
@@ -545,16 +770,72 @@ public class H2MigrationTool {
                 boolean force = line.hasOption("force");
 
                 H2MigrationTool app = new H2MigrationTool();
+                if (line.hasOption("mode")) {
+                    app.setMigrationMode(
+                            MigrationMode.valueOf(line.getOptionValue("mode").toUpperCase()));
+                }
+                if (line.hasOption("batch-size")) {
+                    app.setBatchSize(Integer.parseInt(line.getOptionValue("batch-size")));
+                }
+                if (line.hasOption("commit-interval")) {
+                    app.setCommitInterval(
+                            Integer.parseInt(line.getOptionValue("commit-interval")));
+                }
+                if (line.hasOption("threads")) {
+                    app.setCopyThreads(Integer.parseInt(line.getOptionValue("threads")));
+                }
+                if (line.hasOption("partition-rows")) {
+                    app.setCopyPartitionSize(
+                            Long.parseLong(line.getOptionValue("partition-rows")));
+                }
+                app.setResume(line.hasOption("resume"));
+                if (line.hasOption("parallelism")) {
+                    app.setParallelism(Integer.parseInt(line.getOptionValue("parallelism")));
+                }
+                if (line.hasOption("compression-threads")) {
+                    app.setCompressionThreads(
+                            Integer.parseInt(line.getOptionValue("compression-threads")));
+                }
+                app.setReadAhead(line.hasOption("read-ahead"));
+                if (line.hasOption("optimize-script")) {
+                    app.setOptimizeScriptRows(
+                            Integer.parseInt(line.getOptionValue("optimize-script")));
+                }
+                app.setDeferIndices(line.hasOption("defer-indices"));
+                app.setDeferForeignKeys(line.hasOption("defer-foreign-keys"));
+                app.setBulkLoad(line.hasOption("bulk-load"));
+                if (line.hasOption("analyze")) {
+                    app.setAnalyzeSampleSize(Integer.parseInt(line.getOptionValue("analyze")));
+                }
+                if (line.hasOption("analyze-threads")) {
+                    app.setAnalyzeThreads(
+                            Integer.parseInt(line.getOptionValue("analyze-threads")));
+                }
+                if (line.hasOption("compact")) {
+                    app.setCompactMode(
+                            CompactMode.valueOf(line.getOptionValue("compact").toUpperCase()));
+                }
+                if (line.hasOption("compact-time")) {
+                    app.setCompactTime(Integer.parseInt(line.getOptionValue("compact-time")));
+                }
+                if (line.hasOption("report")) {
+                    app.setReportFolder(getAbsoluteFile(line.getOptionValue("report")));
+                }
                 H2MigrationTool.readDriverRecords(ressourceName);
 
-                if (versionFrom != null && versionFrom.length() > 1) {
-                    app.migrate(versionFrom, versionTo, databaseFileName, user, password,
-                            scriptFileName,
-                            compression, upgradeOptions, overwrite, force, "");
-                } else {
-                    app.migrateAuto(versionTo, databaseFileName, user, password, scriptFileName,
-                            compression,
-                            upgradeOptions, overwrite, force);
+                try {
+                    if (versionFrom != null && versionFrom.length() > 1) {
+                        app.migrate(versionFrom, versionTo, databaseFileName, user, password,
+                                scriptFileName,
+                                compression, upgradeOptions, overwrite, force, "");
+                    } else {
+                        app.migrateAuto(versionTo, databaseFileName, user, password,
+                                scriptFileName, compression,
+                                upgradeOptions, overwrite, force);
+                    }
+                } finally {
+                    // the compaction thread is a daemon, which does not keep the JVM alive
+                    awaitCompactions();
                 }
             } catch (Exception ex) {
                 LOGGER.log(Level.FINE, "Failed to migrate the database.", ex);
@@ -647,13 +928,313 @@ public class H2MigrationTool {
         return getDriverRecord(H2MigrationTool.DRIVER_RECORDS, version);
     }
 
+    public MigrationMode getMigrationMode() {
+        return migrationMode;
+    }
+
+    public H2MigrationTool setMigrationMode(MigrationMode migrationMode) {
+        this.migrationMode = Objects.requireNonNull(migrationMode);
+        return this;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public H2MigrationTool setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive.");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getCommitInterval() {
+        return commitInterval;
+    }
+
+    public H2MigrationTool setCommitInterval(int commitInterval) {
+        if (commitInterval < 1) {
+            throw new IllegalArgumentException("The commit interval must be positive.");
+        }
+        this.commitInterval = commitInterval;
+        return this;
+    }
+
+    public int getCopyThreads() {
+        return copyThreads;
+    }
+
+    /**
+     * @param copyThreads the number of tables copied at the same time in COPY mode, each by its
+     *        own worker with its own source and target connection
+     */
+    public H2MigrationTool setCopyThreads(int copyThreads) {
+        if (copyThreads < 1) {
+            throw new IllegalArgumentException("The number of copy threads must be positive.");
+        }
+        this.copyThreads = copyThreads;
+        return this;
+    }
+
+    public long getCopyPartitionSize() {
+        return copyPartitionSize;
+    }
+
+    /**
+     * @param copyPartitionSize the number of rows above which a table is split into key ranges,
+     *        which are copied by different workers
+     */
+    public H2MigrationTool setCopyPartitionSize(long copyPartitionSize) {
+        if (copyPartitionSize < 1) {
+            throw new IllegalArgumentException("The partition size must be positive.");
+        }
+        this.copyPartitionSize = copyPartitionSize;
+        return this;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @param resume when TRUE, a failed migration continues from its journal and skips the steps
+     *        which have been completed already, see {@link MigrationJournal}
+     */
+    public H2MigrationTool setResume(boolean resume) {
+        this.resume = resume;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of databases of a folder migrated at the same time by
+     *        {@link #migrateAuto(String, String, String, String, String, String, String, boolean,
+     *        boolean)}
+     */
+    public H2MigrationTool setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("The parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * @param compressionThreads the number of threads compressing an exported script with
+     *        {@code COMPRESSION GZIP}, see {@link ParallelGzipOutputStream}. With 1 thread, H2
+     *        compresses the script itself.
+     */
+    public H2MigrationTool setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("The number of threads must be positive.");
+        }
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * @param readAhead when TRUE, a compressed script is inflated by a separate thread while the
+     *        new database executes its statements. Otherwise H2 inflates the script itself,
+     *        which is the default.
+     */
+    public H2MigrationTool setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+        return this;
+    }
+
+    public int getOptimizeScriptRows() {
+        return optimizeScriptRows;
+    }
+
+    /**
+     * @param optimizeScriptRows the maximum number of rows of the multi-row INSERTs, into which
+     *        the single-row INSERTs of a plain script are merged before the import, see
+     *        {@link ScriptOptimizer}. With 0, the script is imported as it is.
+     */
+    public H2MigrationTool setOptimizeScriptRows(int optimizeScriptRows) {
+        if (optimizeScriptRows < 0) {
+            throw new IllegalArgumentException("The number of rows must not be negative.");
+        }
+        this.optimizeScriptRows = optimizeScriptRows;
+        return this;
+    }
+
+    public boolean isDeferIndices() {
+        return deferIndices;
+    }
+
+    /**
+     * @param deferIndices when TRUE, the secondary indices and the foreign keys of a script are
+     *        created after the data, on {@link #getCopyThreads()} connections at once, see
+     *        {@link DeferredScript}
+     */
+    public H2MigrationTool setDeferIndices(boolean deferIndices) {
+        this.deferIndices = deferIndices;
+        return this;
+    }
+
+    public boolean isDeferForeignKeys() {
+        return deferForeignKeys;
+    }
+
+    /**
+     * @param deferForeignKeys when TRUE, the foreign keys of a script are validated and
+     *        created after the data, on {@link #getCopyThreads()} connections at once, see
+     *        {@link DeferredScript#createForeignKeys}
+     */
+    public H2MigrationTool setDeferForeignKeys(boolean deferForeignKeys) {
+        this.deferForeignKeys = deferForeignKeys;
+        return this;
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    /**
+     * @param bulkLoad when TRUE, the script is imported with the {@link BulkLoadProfile} of the
+     *        new H2 version, which is restored before the database is shut down
+     */
+    public H2MigrationTool setBulkLoad(boolean bulkLoad) {
+        this.bulkLoad = bulkLoad;
+        return this;
+    }
+
+    public int getAnalyzeSampleSize() {
+        return analyzeSampleSize;
+    }
+
+    /**
+     * @param analyzeSampleSize the number of rows sampled per table by {@code ANALYZE}, 0 for all
+     *        rows or a negative number to skip {@code ANALYZE}. With {@link #getAnalyzeThreads()}
+     *        above 1, the tables are analyzed on several connections at once.
+     */
+    public H2MigrationTool setAnalyzeSampleSize(int analyzeSampleSize) {
+        this.analyzeSampleSize = analyzeSampleSize;
+        return this;
+    }
+
+    public int getAnalyzeThreads() {
+        return analyzeThreads;
+    }
+
+    /**
+     * @param analyzeThreads the number of tables analyzed at the same time, each on its own
+     *        connection to the new database
+     */
+    public H2MigrationTool setAnalyzeThreads(int analyzeThreads) {
+        if (analyzeThreads < 1) {
+            throw new IllegalArgumentException("The number of analyze threads must be positive.");
+        }
+        this.analyzeThreads = analyzeThreads;
+        return this;
+    }
+
+    public CompactMode getCompactMode() {
+        return compactMode;
+    }
+
+    public H2MigrationTool setCompactMode(CompactMode compactMode) {
+        this.compactMode = Objects.requireNonNull(compactMode);
+        return this;
+    }
+
+    public int getCompactTime() {
+        return compactTime;
+    }
+
+    /**
+     * @param compactTime the milliseconds of the {@link CompactMode#TIMED} compaction
+     */
+    public H2MigrationTool setCompactTime(int compactTime) {
+        if (compactTime < 0) {
+            throw new IllegalArgumentException("The compaction time must not be negative.");
+        }
+        this.compactTime = compactTime;
+        return this;
+    }
+
+    public File getReportFolder() {
+        return reportFolder;
+    }
+
+    /**
+     * @param reportFolder the folder of the {@link MigrationReport} of every migrated database or
+     *        NULL for no reports
+     */
+    public H2MigrationTool setReportFolder(File reportFolder) {
+        this.reportFolder = reportFolder;
+        return this;
+    }
+
+    private Connection connectSource(Driver driver, String databaseFileName, String user,
+            String password, String connectionParameters) throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+
+        Connection connection = driver.connect(
+                "jdbc:h2:" + databaseFileName + ";ACCESS_MODE_DATA=r"
+                        + Objects.requireNonNull(connectionParameters),
+                properties);
+        if (connection == null) {
+            throw new SQLException("The H2 driver " + driver.getMajorVersion() + "."
+                    + driver.getMinorVersion() + " did not accept the database "
+                    + databaseFileName);
+        }
+        return connection;
+    }
+
+    /**
+     * Writes the SQL Script of the connected database into a stream, without an intermediate file.
+     * The statements are taken from the result of a {@code SCRIPT} command and written in UTF-8
+     * exactly as {@code SCRIPT TO} would write them. The stream will be flushed, but not closed.
+     *
+     * @param connection the connection to the database to export
+     * @param outputStream the stream to write the script into
+     * @return the number of written statements
+     */
+    public long writeScript(Connection connection, OutputStream outputStream)
+            throws SQLException, IOException {
+        long n = 0;
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(outputStream, StandardCharsets.UTF_8),
+                ScriptPipe.DEFAULT_CHUNK_SIZE);
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SCRIPT")) {
+            while (rs.next()) {
+                String s = rs.getString(1);
+                writer.write(s);
+                if (!s.endsWith(";")) {
+                    writer.write(';');
+                }
+                writer.write('\n');
+                n++;
+            }
+        }
+        writer.flush();
+        return n;
+    }
+
     public ScriptResult writeScript(DriverRecord driverRecord, String databaseFileName,
             String user,
             String password, String scriptFileName, String options, String connectionParameters)
             throws SQLException, ClassNotFoundException, NoSuchMethodException,
             InstantiationException,
             IllegalAccessException, IllegalArgumentException, InvocationTargetException,
-            PrivilegedActionException {
+            PrivilegedActionException, IOException {
 
         Properties properties = new Properties();
         properties.setProperty("user", user);
@@ -669,37 +1250,45 @@ public class H2MigrationTool {
             // processScript(String url, String user, String password, String fileName, String
             // options1,
             // String options2) throws SQLException
-            if (driver.getMajorVersion() == 1 && driver.getMinorVersion() <= 3) {
-                String sql = String.format("SCRIPT TO '%s' %s", scriptFileName, options);
-                try (PreparedStatement st = connection.prepareStatement(sql)) {
-                    st.execute();
-                    return new ScriptResult(scriptFileName, commands);
+            MigrationEvents.ExportEvent event =
+                    new MigrationEvents.ExportEvent("SCRIPT TO", scriptFileName);
+            event.begin();
+            try {
+                if (driver.getMajorVersion() == 1 && driver.getMinorVersion() <= 3) {
+                    String sql = String.format("SCRIPT TO '%s' %s", scriptFileName, options);
+                    try (PreparedStatement st = connection.prepareStatement(sql)) {
+                        st.execute();
+                    }
+                } else if (compressionThreads > 1 && options != null
+                        && options.trim().toUpperCase().endsWith("GZIP")) {
+                    // the script is compressed on several threads instead of the single H2 thread
+                    event.setMethod("Parallel GZIP");
+                    try (OutputStream outputStream = new ParallelGzipOutputStream(
+                            new FileOutputStream(scriptFileName), compressionThreads)) {
+                        long n = writeScript(connection, outputStream);
+                        LOGGER.fine("Wrote " + n + " statements compressed by "
+                                + compressionThreads + " threads into " + scriptFileName);
+                    }
+                } else {
+                    // the Script tool is reached through the ClassLoader of the Driver
+                    event.setMethod("Script Tool");
+                    AccessController.doPrivileged((PrivilegedExceptionAction<Void>) () -> {
+                        Class<?>[] argClasses = new Class<?>[] {Connection.class, String.class,
+                                String.class, String.class};
+                        Class<?> classToLoad = Class.forName("org.h2.tools.Script", true,
+                                driver.getClass().getClassLoader());
+                        Method method = classToLoad.getDeclaredMethod("process", argClasses);
+                        Object instance = classToLoad.getDeclaredConstructor().newInstance();
+                        // Connection conn, String fileName, String options1, String options2
+                        method.invoke(instance, connection, scriptFileName, "", options);
+                        return null;
+                    });
                 }
-            } else {
-                URL url = driverRecord.url;
-                return AccessController
-                        .doPrivileged((PrivilegedExceptionAction<ScriptResult>) () -> {
-                            try (URLClassLoader loader =
-                                    new URLClassLoader(
-                                            new URL[] {driverRecord.url},
-                                            ClassLoader.getPlatformClassLoader())) {
-                                Class<?>[] argClasses =
-                                        new Class<?>[] {Connection.class, String.class,
-                                                String.class, String.class};
-                                Class<?> classToLoad =
-                                        Class.forName("org.h2.tools.Script", true, loader);
-                                Method method =
-                                        classToLoad.getDeclaredMethod("process", argClasses);
-                                Object instance =
-                                        classToLoad.getDeclaredConstructor().newInstance();
-                                // Connection conn, String fileName, String options1, String
-                                // options2
-                                method.invoke(instance, connection, scriptFileName, "", options);
-                                return new ScriptResult(scriptFileName, commands);
-                            }
-                        });
+                event.setSuccess(true);
+                return new ScriptResult(scriptFileName, commands);
+            } finally {
+                event.commit();
             }
-
         } finally {
             unloadDriver(driver);
         }
@@ -725,14 +1314,14 @@ public class H2MigrationTool {
                     + " does not seem to be a H2 database. Only *.h2.db and *.mv.db files are supported.");
         }
 
-        final URL url = driverRecord.url;
         final String finalDatabaseName = databaseName;
 
-        return AccessController.doPrivileged((PrivilegedExceptionAction<ScriptResult>) () -> {
-            try (URLClassLoader loader =
-                    new URLClassLoader(new URL[] {driverRecord.url},
-                            ClassLoader.getPlatformClassLoader())) {
-                Class<?> classToLoad = Class.forName("org.h2.tools.Recover", true, loader);
+        // the Recover tool is reached through the ClassLoader of the Driver
+        Driver driver = loadDriver(driverRecord);
+        try {
+            return AccessController.doPrivileged((PrivilegedExceptionAction<ScriptResult>) () -> {
+                Class<?> classToLoad = Class.forName("org.h2.tools.Recover", true,
+                        driver.getClass().getClassLoader());
                 Class<?>[] argClasses = new Class<?>[] {String.class, String.class};
                 Method method = classToLoad.getDeclaredMethod("execute", argClasses);
                 Object instance = classToLoad.getDeclaredConstructor().newInstance();
@@ -740,84 +1329,803 @@ public class H2MigrationTool {
                 // public static void execute(String dir, String db) throws SQLException
                 method.invoke(instance, folderName, finalDatabaseName);
                 return new ScriptResult(scriptFileName, new ArrayList<>());
-            }
-        });
+            });
+        } finally {
+            unloadDriver(driver);
+        }
     }
 
     private ScriptResult createFromScript(DriverRecord driverRecord, String databaseFileName,
             String user, String password, String scriptFileName, String options,
             List<String> commands,
-            boolean overwrite, String connectionParameters) throws Exception {
+            boolean overwrite, String connectionParameters, MigrationJournal journal)
+            throws Exception {
 
-        String modifiedDatabaseFileName = databaseFileName + "." + driverRecord.patchId
-                + (!driverRecord.buildId.isEmpty() ? ("-" + driverRecord.buildId) : "");
+        boolean imported = journal != null && journal.isDone(MigrationJournal.IMPORT);
+        String modifiedDatabaseFileName = prepareTargetDatabase(driverRecord, databaseFileName,
+                overwrite, imported);
 
         Properties properties = new Properties();
         properties.setProperty("user", user);
         properties.setProperty("password", password);
 
-        Driver driver = loadDriver(driverRecord.getVersion());
-        File dbFile = new File(modifiedDatabaseFileName + ".mv.db");
-        if (dbFile.exists()) {
-            if (dbFile.isFile() && dbFile.canWrite() && overwrite) {
-                boolean delete = dbFile.delete();
-            } else if (dbFile.isFile() && !(dbFile.canWrite() && overwrite)) {
-                throw new Exception("The Database File " + dbFile
-                        + " exists already and should not be overwritten automatically.");
-            } else {
-                throw new Exception(
-                        "The Database File " + dbFile
-                                + " points to an existing Folder or irregular .");
-            }
-        }
-
-
-        try (Connection connection =
-                driver.connect("jdbc:h2:" + modifiedDatabaseFileName + connectionParameters,
-                        properties);
+        Driver driver = loadDriver(driverRecord);
+        String url = getTargetUrl(modifiedDatabaseFileName, connectionParameters);
+        try (Connection connection = driver.connect(url, properties);
                 Statement stat = connection.createStatement()) {
 
-            final String sqlStr = String.format("RUNSCRIPT FROM '%s' %s", scriptFileName, options);
-            stat.executeUpdate(sqlStr);
+            if (imported) {
+                LOGGER.info("Skip the completed import into " + modifiedDatabaseFileName);
+            } else {
+                long start = MigrationProgress.enterPhase(MigrationReport.PHASE_IMPORT);
+                if (new File(scriptFileName).isFile()) {
+                    MigrationReport.recordBytesRead(new File(scriptFileName).length());
+                }
 
-            executeCommands(connection, commands);
+                // the cache is shared by the databases migrated at the same time
+                BulkLoadProfile bulkLoadProfile = bulkLoad
+                        ? new BulkLoadProfile(driverRecord,
+                                BulkLoadProfile.getDefaultCacheSize() / parallelism)
+                        : null;
+                if (bulkLoadProfile != null) {
+                    bulkLoadProfile.apply(connection);
+                }
 
-            List<String> commands1 = executeHooks(connection, HookStage.INIT);
-            executeCommands(connection, commands1);
+                MigrationEvents.ImportEvent event =
+                        new MigrationEvents.ImportEvent("RUNSCRIPT", scriptFileName);
+                event.begin();
+                try {
+                    Matcher matcher = COMPRESSION_PATTERN.matcher(options);
+                    if ((optimizeScriptRows > 0 || deferIndices || deferForeignKeys)
+                            && new File(scriptFileName).isFile()) {
+                        event.setMethod("Rewritten");
+                        runScriptRewritten(connection, () -> driver.connect(url, properties),
+                                scriptFileName, options);
+                    } else if (readAhead && matcher.find()
+                            && new File(scriptFileName).isFile()) {
+                        event.setMethod("Read-Ahead");
+                        runScriptReadAhead(stat, scriptFileName,
+                                matcher.group(1).equalsIgnoreCase("ZIP"),
+                                matcher.replaceFirst("").trim());
+                    } else {
+                        final String sqlStr = String.format("RUNSCRIPT FROM '%s' %s",
+                                scriptFileName, options);
+                        stat.executeUpdate(sqlStr);
+                    }
 
-            commands.addAll(commands1);
+                    if (bulkLoadProfile != null) {
+                        bulkLoadProfile.restore(connection);
+                    }
+                    event.setSuccess(true);
+                } catch (Exception ex) {
+                    // a resumed import must not start from the settings of the failed one
+                    if (bulkLoadProfile != null) {
+                        try {
+                            bulkLoadProfile.restore(connection);
+                        } catch (SQLException restoreEx) {
+                            ex.addSuppressed(restoreEx);
+                        }
+                    }
+                    throw ex;
+                } finally {
+                    event.commit();
+                }
+                MigrationReport.recordPhase(MigrationReport.PHASE_IMPORT, start);
+                if (journal != null) {
+                    journal.done(MigrationJournal.IMPORT);
+                }
+            }
 
-            stat.executeUpdate("ANALYZE SAMPLE_SIZE 0");
-            stat.executeUpdate("SHUTDOWN COMPACT");
+            finishDatabase(driverRecord, connection, driver, url, properties, commands);
         } finally {
             unloadDriver(driver);
         }
+        MigrationReport
+                .recordBytesWritten(MigrationReport.getDatabaseSize(modifiedDatabaseFileName));
         return new ScriptResult(scriptFileName, commands);
     }
 
-    public ScriptResult migrate(String versionFrom, String versionTo, String databaseFileName,
-            String user, String password, String scriptFileName, String compression,
-            String upgradeOptions, boolean overwrite, boolean force, String connectionParameters)
-            throws Exception {
-
-        String modifiedDatabaseFileName = databaseFileName;
-        String modifiedScriptFileName = scriptFileName;
-        String modifiedCompression = compression;
-        ArrayList<String> commands = new ArrayList<>();
-        DriverRecord driverRecordFrom = getDriverRecord(versionFrom);
-        DriverRecord driverRecordTo = getDriverRecord(versionTo);
+    /**
+     * Runs a compressed script, which is inflated by a separate thread into a bounded
+     * {@link ScriptPipe} while the new database executes the statements.
+     *
+     * @param zip TRUE for the {@code COMPRESSION ZIP} format of H2, FALSE for GZIP
+     * @param options the options of {@code RUNSCRIPT} without the compression
+     */
+    private static void runScriptReadAhead(Statement stat, String scriptFileName, boolean zip,
+            String options) throws Exception {
+        ExecutorService executorService = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "H2 Script Inflater " + scriptFileName);
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        ScriptResult scriptResult = null;
-        boolean success = false;
+        try (ScriptPipe pipe = new ScriptPipe()) {
+            Future<Long> inflater = executorService.submit(() -> {
+                try (InputStream inputStream = openCompressedScript(scriptFileName, zip)) {
+                    long n = inputStream.transferTo(pipe.getOutputStream());
+                    pipe.getOutputStream().close();
+                    return n;
+                } catch (Exception ex) {
+                    pipe.fail(ex);
+                    throw ex;
+                }
+            });
 
-        if (modifiedDatabaseFileName.toLowerCase().endsWith(".mv.db")
-                || modifiedDatabaseFileName.toLowerCase().endsWith(".h2.db")) {
-            modifiedDatabaseFileName =
-                    modifiedDatabaseFileName.substring(0,
-                            modifiedDatabaseFileName.length() - ".mv.db".length());
-            LOGGER.info(
-                    "Found H2 DB " + modifiedDatabaseFileName
-                            + " which will be exported to SQL Script");
+            LongSupplier bytesTransferred = pipe::getBytesTransferred;
+            MigrationProgress.addByteSource(bytesTransferred);
+
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(pipe.getClassLoader(contextClassLoader));
+            try {
+                stat.executeUpdate(
+                        String.format("RUNSCRIPT FROM '%s' %s", pipe.getFileName(), options));
+            } catch (Exception ex) {
+                // a failed inflater is reported as the cause of the failed RUNSCRIPT already
+                pipe.abort();
+                inflater.cancel(true);
+                throw ex;
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+                MigrationProgress.removeByteSource(bytesTransferred);
+            }
+
+            LOGGER.fine("Inflated " + inflater.get() + " bytes of " + scriptFileName
+                    + " ahead of the import.");
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a script through rewritten copies, which are written next to the script and deleted
+     * after the import: the single-row INSERTs are merged by the {@link ScriptOptimizer} and the
+     * secondary indices and foreign keys are created after the data by the {@link DeferredScript}.
+     * A compressed script is inflated into a plain copy first, since the statements are read
+     * through memory-mapped regions of a plain file.
+     */
+    private void runScriptRewritten(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, String scriptFileName,
+            String options) throws Exception {
+        String baseName = scriptFileName.replaceFirst("(?i)\\.sql(\\.gz|\\.zip)?$", "");
+
+        ArrayList<Path> rewrittenPaths = new ArrayList<>();
+        try {
+            Path path = Paths.get(scriptFileName);
+            Matcher matcher = COMPRESSION_PATTERN.matcher(options);
+            if (matcher.find()) {
+                Path inflatedPath = Paths.get(baseName + ".inflated.sql");
+                rewrittenPaths.add(inflatedPath);
+                try (InputStream inputStream = openCompressedScript(scriptFileName,
+                        matcher.group(1).equalsIgnoreCase("ZIP"))) {
+                    Files.copy(inputStream, inflatedPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+                path = inflatedPath;
+                options = matcher.replaceFirst("").trim();
+            }
+
+            if (optimizeScriptRows > 0) {
+                Path optimizedPath = Paths.get(baseName + ".optimized.sql");
+                rewrittenPaths.add(optimizedPath);
+                new ScriptOptimizer(optimizeScriptRows).optimize(path, optimizedPath);
+                path = optimizedPath;
+            }
+
+            DeferredScript deferredScript = null;
+            if (deferIndices || deferForeignKeys) {
+                Path loadPath = Paths.get(baseName + ".load.sql");
+                rewrittenPaths.add(loadPath);
+                deferredScript = DeferredScript.split(path, loadPath, deferIndices,
+                        deferForeignKeys);
+                path = loadPath;
+            }
+
+            try (Statement stat = connection.createStatement()) {
+                stat.executeUpdate(String.format("RUNSCRIPT FROM '%s' %s",
+                        path.toAbsolutePath(), options));
+            }
+
+            if (deferredScript != null) {
+                deferredScript.createIndices(connection, connectionSupplier, copyThreads);
+                deferredScript.createForeignKeys(connection, connectionSupplier, copyThreads);
+            }
+        } finally {
+            for (Path rewrittenPath : rewrittenPaths) {
+                Files.deleteIfExists(rewrittenPath);
+            }
+        }
+    }
+
+    private static InputStream openCompressedScript(String scriptFileName, boolean zip)
+            throws IOException {
+        InputStream inputStream = new BufferedInputStream(
+                new FileInputStream(scriptFileName), ScriptPipe.DEFAULT_CHUNK_SIZE);
+        try {
+            if (zip) {
+                // H2 writes one entry and reads the first entry only
+                ZipInputStream zipInputStream = new ZipInputStream(inputStream);
+                if (zipInputStream.getNextEntry() == null) {
+                    throw new IOException("The file " + scriptFileName + " has no ZIP entry.");
+                }
+                return zipInputStream;
+            } else {
+                return new GZIPInputStream(inputStream, ScriptPipe.DEFAULT_CHUNK_SIZE);
+            }
+        } catch (IOException ex) {
+            inputStream.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Verifies, that the new database file does not exist yet or may be overwritten.
+     *
+     * @param resume when TRUE, an existing database file is kept for resuming the migration
+     * @return the name of the new database, without the file extension
+     */
+    private static String prepareTargetDatabase(DriverRecord driverRecord,
+            String databaseFileName, boolean overwrite, boolean resume) throws Exception {
+        String modifiedDatabaseFileName = prepareDatabaseName(driverRecord, databaseFileName);
+
+        File dbFile = new File(modifiedDatabaseFileName + ".mv.db");
+        if (dbFile.isFile() && resume) {
+            LOGGER.info("Resume the migration into the existing Database File " + dbFile);
+        } else if (dbFile.exists()) {
+            if (dbFile.isFile() && dbFile.canWrite() && overwrite) {
+                boolean delete = dbFile.delete();
+            } else if (dbFile.isFile() && !(dbFile.canWrite() && overwrite)) {
+                throw new Exception("The Database File " + dbFile
+                        + " exists already and should not be overwritten automatically.");
+            } else {
+                throw new Exception(
+                        "The Database File " + dbFile
+                                + " points to an existing Folder or irregular .");
+            }
+        }
+        return modifiedDatabaseFileName;
+    }
+
+    /**
+     * Opens the journal of the migration of one database, see {@link MigrationJournal}.
+     *
+     * @param versionFrom the version of the old H2 driver, when known
+     */
+    private MigrationJournal openJournal(String versionFrom, DriverRecord driverRecordTo,
+            String databaseFileName) throws IOException {
+        String header = "H2MigrationTool " + migrationMode + " " + versionFrom + " "
+                + driverRecordTo.getVersion() + " " + databaseFileName;
+        return MigrationJournal.open(prepareDatabaseName(driverRecordTo, databaseFileName),
+                header, resume);
+    }
+
+    private static String prepareDatabaseName(DriverRecord driverRecord,
+            String databaseFileName) {
+        return databaseFileName + "." + driverRecord.patchId
+                + (!driverRecord.buildId.isEmpty() ? ("-" + driverRecord.buildId) : "");
+    }
+
+    /**
+     * @return the URL of the new database, which sets the {@link #getCompactTime()} for the
+     *         {@link CompactMode#TIMED} compaction, since H2 reads it only when opening the
+     *         database
+     */
+    private String getTargetUrl(String databaseFileName, String connectionParameters) {
+        return "jdbc:h2:" + databaseFileName + connectionParameters
+                + (compactMode == CompactMode.TIMED ? ";MAX_COMPACT_TIME=" + compactTime : "");
+    }
+
+    /**
+     * Executes the commands and the INIT hooks on the new database, then analyzes and compacts it
+     * according to the {@link #getAnalyzeSampleSize()} and the {@link #getCompactMode()}. The
+     * executed INIT commands are added to the commands.
+     *
+     * @param driverRecord the H2 version of the new database
+     * @param driver the driver, url and properties for opening more connections to the new
+     *        database
+     */
+    private void finishDatabase(DriverRecord driverRecord, Connection connection, Driver driver,
+            String url, Properties properties, List<String> commands) throws Exception {
+        try (Statement stat = connection.createStatement()) {
+            executeCommands(connection, commands);
+
+            List<String> commands1 = executeHooks(connection, HookStage.INIT);
+            executeCommands(connection, commands1);
+
+            commands.addAll(commands1);
+
+            List<String> tableNames = getTableNames(connection);
+            if (MigrationReport.getCurrent() != null) {
+                for (String tableName : tableNames) {
+                    try (ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM " + tableName)) {
+                        MigrationReport.recordTableRows(tableName, rs.next() ? rs.getLong(1) : 0);
+                    }
+                }
+            }
+
+            long start = MigrationProgress.enterPhase(MigrationReport.PHASE_ANALYZE);
+            if (analyzeSampleSize >= 0) {
+                MigrationEvents.MaintenanceEvent event =
+                        new MigrationEvents.MaintenanceEvent("ANALYZE");
+                event.begin();
+                try {
+                    if (analyzeThreads > 1) {
+                        analyzeTables(connection, () -> driver.connect(url, properties),
+                                tableNames);
+                    } else {
+                        stat.executeUpdate("ANALYZE SAMPLE_SIZE " + analyzeSampleSize);
+                    }
+                    event.setSuccess(true);
+                } finally {
+                    event.commit();
+                }
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_ANALYZE, start);
+            LOGGER.fine("Analyzed the new database in " + (System.currentTimeMillis() - start)
+                    + " ms.");
+
+            start = MigrationProgress.enterPhase(MigrationReport.PHASE_COMPACT);
+            MigrationEvents.MaintenanceEvent event =
+                    new MigrationEvents.MaintenanceEvent("SHUTDOWN " + compactMode);
+            event.begin();
+            try {
+                switch (compactMode) {
+                    case DEFRAG:
+                        stat.executeUpdate("SHUTDOWN DEFRAG");
+                        break;
+                    case TIMED:
+                        // the database has been opened with the MAX_COMPACT_TIME, see
+                        // getTargetUrl()
+                        stat.executeUpdate("SHUTDOWN");
+                        break;
+                    case BACKGROUND:
+                        // compacted afterwards, see compactInBackground()
+                        stat.executeUpdate("SHUTDOWN");
+                        break;
+                    default:
+                        stat.executeUpdate("SHUTDOWN COMPACT");
+                }
+                event.setSuccess(true);
+            } finally {
+                event.commit();
+            }
+            if (compactMode == CompactMode.BACKGROUND) {
+                compactInBackground(driverRecord, url, properties);
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_COMPACT, start);
+            LOGGER.fine("Closed the new database with " + compactMode + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
+    }
+
+    /**
+     * Opens a database closed with {@link CompactMode#BACKGROUND} again and closes it with
+     * {@code SHUTDOWN COMPACT} on the background thread. A failed compaction is logged and leaves
+     * the complete, but not compacted database behind.
+     */
+    private static synchronized void compactInBackground(DriverRecord driverRecord, String url,
+            Properties properties) {
+        COMPACTIONS.add(COMPACT_EXECUTOR.submit(() -> {
+            long start = System.currentTimeMillis();
+            MigrationEvents.MaintenanceEvent event =
+                    new MigrationEvents.MaintenanceEvent("SHUTDOWN COMPACT");
+            event.begin();
+            try {
+                Driver driver = DriverRegistry.acquire(driverRecord.url);
+                try (Connection connection = driver.connect(url, properties);
+                        Statement stat = connection.createStatement()) {
+                    stat.executeUpdate("SHUTDOWN COMPACT");
+                } finally {
+                    DriverRegistry.release(driver);
+                }
+                event.setSuccess(true);
+                LOGGER.info("Compacted the new database " + url + " in the background in "
+                        + (System.currentTimeMillis() - start) + " ms.");
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Failed to compact the new database " + url, ex);
+            } finally {
+                event.commit();
+            }
+        }));
+    }
+
+    /**
+     * Waits for the compactions of the new databases closed with {@link CompactMode#BACKGROUND}.
+     * Those databases must not be opened before.
+     */
+    public static void awaitCompactions() throws InterruptedException {
+        List<Future<?>> compactions;
+        synchronized (H2MigrationTool.class) {
+            compactions = new ArrayList<>(COMPACTIONS);
+            COMPACTIONS.clear();
+        }
+        for (Future<?> compaction : compactions) {
+            try {
+                compaction.get();
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "Failed to compact a new database", ex.getCause());
+            }
+        }
+    }
+
+    /**
+     * Analyzes the tables of the new database one by one on {@link #getAnalyzeThreads()}
+     * connections at once. {@code ANALYZE TABLE} is supported by H2 1.4 and later only.
+     */
+    private void analyzeTables(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, List<String> tableNames)
+            throws SQLException, IOException {
+        ConnectionWorkers.execute(tableNames, connection, connectionSupplier, analyzeThreads,
+                "Analyze", (tableName, c) -> {
+                    try (Statement st = c.createStatement()) {
+                        st.executeUpdate("ANALYZE TABLE " + tableName + " SAMPLE_SIZE "
+                                + analyzeSampleSize);
+                    }
+                });
+    }
+
+    /**
+     * @return the quoted and qualified names of the tables of the database
+     */
+    private static List<String> getTableNames(Connection connection) throws SQLException {
+        ArrayList<String> tableNames = new ArrayList<>();
+        try (Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SELECT TABLE_SCHEMA, TABLE_NAME "
+                        + "FROM INFORMATION_SCHEMA.TABLES "
+                        + "WHERE TABLE_TYPE IN ('TABLE', 'BASE TABLE') "
+                        + "AND TABLE_SCHEMA <> 'INFORMATION_SCHEMA'")) {
+            while (rs.next()) {
+                tableNames.add("\"" + rs.getString(1).replace("\"", "\"\"") + "\".\""
+                        + rs.getString(2).replace("\"", "\"\"") + "\"");
+            }
+        }
+        return tableNames;
+    }
+
+    private static void recordScript(String scriptFileName, long startMillis) {
+        long size = new File(scriptFileName).length();
+        MigrationReport.recordPhase(MigrationReport.PHASE_EXPORT, startMillis);
+        MigrationReport.recordScriptSize(size);
+        MigrationReport.recordBytesWritten(size);
+    }
+
+    /**
+     * Migrates a database by copying the tables and rows directly from a connection of the old H2
+     * version into a connection of the new H2 version, see {@link DirectCopy}. No SQL Script is
+     * generated or parsed.
+     *
+     * @return the result holding the name of the new database file
+     */
+    public ScriptResult migrateCopy(DriverRecord driverRecordFrom, DriverRecord driverRecordTo,
+            String databaseFileName, String user, String password, boolean overwrite,
+            String connectionParameters) throws Exception {
+        Driver driver = loadDriver(driverRecordFrom);
+        try (Connection connection = connectSource(driver, databaseFileName, user, password,
+                connectionParameters)) {
+            return migrateCopy(driver, connection, driverRecordTo, databaseFileName, user,
+                    password, overwrite, connectionParameters, null);
+        } finally {
+            unloadDriver(driver);
+        }
+    }
+
+    private ScriptResult migrateCopy(Driver sourceDriver, Connection connection,
+            DriverRecord driverRecordTo, String databaseFileName, String user, String password,
+            boolean overwrite, String connectionParameters, MigrationJournal journal)
+            throws Exception {
+
+        List<String> commands = executeHooks(connection, HookStage.IMPORT);
+        executeHooks(connection, HookStage.EXPORT);
+
+        String modifiedDatabaseFileName = prepareTargetDatabase(driverRecordTo, databaseFileName,
+                overwrite, journal != null && journal.isDone(MigrationJournal.SCHEMA));
+
+        Properties properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+
+        Driver driver = loadDriver(driverRecordTo);
+        String url = getTargetUrl(modifiedDatabaseFileName, connectionParameters);
+        try (Connection targetConnection = driver.connect(url, properties)) {
+            long start = MigrationProgress.enterPhase(MigrationReport.PHASE_COPY);
+            MigrationEvents.CopyEvent event = new MigrationEvents.CopyEvent(copyThreads);
+            event.begin();
+            try {
+                new DirectCopy(connection, targetConnection)
+                        .setBatchSize(batchSize)
+                        .setCommitInterval(commitInterval)
+                        .setPartitionSize(copyPartitionSize)
+                        .setJournal(journal)
+                        .setParallelism(copyThreads,
+                                () -> connectSource(sourceDriver, databaseFileName, user,
+                                        password, connectionParameters),
+                                () -> driver.connect(url, properties))
+                        .copy();
+                event.setSuccess(true);
+            } finally {
+                event.commit();
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_COPY, start);
+
+            finishDatabase(driverRecordTo, targetConnection, driver, url, properties, commands);
+        } finally {
+            unloadDriver(driver);
+        }
+        MigrationReport
+                .recordBytesWritten(MigrationReport.getDatabaseSize(modifiedDatabaseFileName));
+        return new ScriptResult(getMigratedDatabaseFileName(driverRecordTo, databaseFileName),
+                commands);
+    }
+
+    /**
+     * Migrates a database through a {@link ShardedScript}: every table is exported into its own
+     * script file and the files are imported at the same time, each by its own connection. The
+     * script files are kept in the folder {@code <databaseFileName>.shards}, so a single table can
+     * be imported again later.
+     *
+     * @return the result holding the name of the new database file
+     */
+    public ScriptResult migrateSharded(DriverRecord driverRecordFrom, DriverRecord driverRecordTo,
+            String databaseFileName, String user, String password, String upgradeOptions,
+            boolean overwrite, String connectionParameters) throws Exception {
+        Driver driver = loadDriver(driverRecordFrom);
+        try (Connection connection = connectSource(driver, databaseFileName, user, password,
+                connectionParameters)) {
+            return migrateSharded(driver, connection, driverRecordTo, databaseFileName, user,
+                    password, upgradeOptions, overwrite, connectionParameters, null);
+        } finally {
+            unloadDriver(driver);
+        }
+    }
+
+    private ScriptResult migrateSharded(Driver sourceDriver, Connection connection,
+            DriverRecord driverRecordTo, String databaseFileName, String user, String password,
+            String upgradeOptions, boolean overwrite, String connectionParameters,
+            MigrationJournal journal) throws Exception {
+
+        List<String> commands = executeHooks(connection, HookStage.IMPORT);
+        executeHooks(connection, HookStage.EXPORT);
+
+        File folder = new File(databaseFileName + ".shards");
+        String scriptStep = MigrationJournal.SCRIPT + " " + folder.getAbsolutePath();
+        ShardedScript script;
+        if (journal != null && journal.isDone(scriptStep)) {
+            LOGGER.info("Skip the completed export into " + folder);
+            script = ShardedScript.read(folder);
+        } else {
+            long start = MigrationProgress.enterPhase(MigrationReport.PHASE_EXPORT);
+            MigrationEvents.ExportEvent event =
+                    new MigrationEvents.ExportEvent("Sharded", folder.getPath());
+            event.begin();
+            try {
+                script = ShardedScript.export(connection,
+                        () -> connectSource(sourceDriver, databaseFileName, user, password,
+                                connectionParameters),
+                        folder, copyThreads);
+                event.setSuccess(true);
+            } finally {
+                event.commit();
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_EXPORT, start);
+            MigrationReport.recordBytesWritten(MigrationReport.getFolderSize(folder));
+            if (journal != null) {
+                journal.done(scriptStep);
+            }
+        }
+        MigrationReport.recordScriptSize(MigrationReport.getFolderSize(folder));
+
+        String modifiedDatabaseFileName = prepareTargetDatabase(driverRecordTo, databaseFileName,
+                overwrite, journal != null && journal.isDone(MigrationJournal.SCHEMA));
+
+        Properties properties = new Properties();
+        properties.setProperty("user", user);
+        properties.setProperty("password", password);
+
+        Driver driver = loadDriver(driverRecordTo);
+        String url = getTargetUrl(modifiedDatabaseFileName, connectionParameters);
+        try (Connection targetConnection = driver.connect(url, properties)) {
+            long start = MigrationProgress.enterPhase(MigrationReport.PHASE_IMPORT);
+            MigrationReport.recordBytesRead(MigrationReport.getFolderSize(folder));
+            MigrationEvents.ImportEvent event =
+                    new MigrationEvents.ImportEvent("Sharded", folder.getPath());
+            event.begin();
+            try {
+                script.importScripts(targetConnection, () -> driver.connect(url, properties),
+                        upgradeOptions, copyThreads, journal);
+                event.setSuccess(true);
+            } finally {
+                event.commit();
+            }
+            MigrationReport.recordPhase(MigrationReport.PHASE_IMPORT, start);
+
+            finishDatabase(driverRecordTo, targetConnection, driver, url, properties, commands);
+        } finally {
+            unloadDriver(driver);
+        }
+        MigrationReport
+                .recordBytesWritten(MigrationReport.getDatabaseSize(modifiedDatabaseFileName));
+        return new ScriptResult(getMigratedDatabaseFileName(driverRecordTo, databaseFileName),
+                commands);
+    }
+
+    /**
+     * Migrates a database by streaming the Script of the old H2 version directly into the
+     * {@code RUNSCRIPT} of the new H2 version through a bounded {@link ScriptPipe}. Export and
+     * import run concurrently, each in its own driver ClassLoader, and no script file is written.
+     *
+     * @return the result holding the name of the new database file
+     */
+    public ScriptResult migrateStreaming(DriverRecord driverRecordFrom,
+            DriverRecord driverRecordTo, String databaseFileName, String user, String password,
+            String upgradeOptions, boolean overwrite, String connectionParameters)
+            throws Exception {
+        Driver driver = loadDriver(driverRecordFrom);
+        try (Connection connection = connectSource(driver, databaseFileName, user, password,
+                connectionParameters)) {
+            return migrateStreaming(connection, driverRecordTo, databaseFileName, user, password,
+                    upgradeOptions, overwrite, connectionParameters, null);
+        } finally {
+            unloadDriver(driver);
+        }
+    }
+
+    private ScriptResult migrateStreaming(Connection connection, DriverRecord driverRecordTo,
+            String databaseFileName, String user, String password, String upgradeOptions,
+            boolean overwrite, String connectionParameters, MigrationJournal journal)
+            throws Exception {
+
+        // the Hooks are executed before the export starts, so the commands are complete before
+        // the import can finish
+        List<String> commands = executeHooks(connection, HookStage.IMPORT);
+        executeHooks(connection, HookStage.EXPORT);
+
+        if (journal != null && journal.isDone(MigrationJournal.IMPORT)) {
+            createFromScript(driverRecordTo, databaseFileName, user, password, "",
+                    upgradeOptions, commands, overwrite, connectionParameters, journal);
+            return new ScriptResult(
+                    getMigratedDatabaseFileName(driverRecordTo, databaseFileName), commands);
+        }
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "H2 Script Export " + databaseFileName);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // the export thread leaves the phase to this thread, which enters the import once the
+        // RUNSCRIPT runs
+        long exportStart = MigrationProgress.enterPhase(MigrationReport.PHASE_EXPORT);
+        try (ScriptPipe pipe = new ScriptPipe()) {
+            Future<Long> export = executorService.submit(() -> {
+                MigrationEvents.ExportEvent event =
+                        new MigrationEvents.ExportEvent("Stream", pipe.getFileName());
+                event.begin();
+                try {
+                    long n = writeScript(connection, pipe.getOutputStream());
+                    pipe.getOutputStream().close();
+                    event.setSuccess(true);
+                    MigrationReport.recordPhase(MigrationReport.PHASE_EXPORT, exportStart);
+                    return n;
+                } catch (Exception ex) {
+                    pipe.fail(ex);
+                    throw ex;
+                } finally {
+                    event.commit();
+                }
+            });
+
+            LongSupplier bytesTransferred = pipe::getBytesTransferred;
+            MigrationProgress.addByteSource(bytesTransferred);
+
+            ScriptResult scriptResult;
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(pipe.getClassLoader(contextClassLoader));
+            try {
+                scriptResult = createFromScript(driverRecordTo, databaseFileName, user, password,
+                        pipe.getFileName(), upgradeOptions, commands, overwrite,
+                        connectionParameters, journal);
+            } catch (Exception ex) {
+                // a failed export is reported as the cause of the failed RUNSCRIPT already
+                pipe.abort();
+                export.cancel(true);
+                throw ex;
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+                MigrationProgress.removeByteSource(bytesTransferred);
+            }
+
+            long n = export.get();
+            MigrationReport.recordScriptSize(pipe.getBytesTransferred());
+            LOGGER.info("Streamed " + n + " statements and " + pipe.getBytesTransferred()
+                    + " bytes from " + databaseFileName + " into the " + driverRecordTo
+                    + " database.");
+
+            return new ScriptResult(getMigratedDatabaseFileName(driverRecordTo, databaseFileName),
+                    scriptResult.commands);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private static String getMigratedDatabaseFileName(DriverRecord driverRecord,
+            String databaseFileName) {
+        return databaseFileName + "." + driverRecord.patchId
+                + (!driverRecord.buildId.isEmpty() ? ("-" + driverRecord.buildId) : "")
+                + ".mv.db";
+    }
+
+    public ScriptResult migrate(String versionFrom, String versionTo, String databaseFileName,
+            String user, String password, String scriptFileName, String compression,
+            String upgradeOptions, boolean overwrite, boolean force, String connectionParameters)
+            throws Exception {
+        String databaseName = databaseFileName
+                .replaceFirst("(?i)\\.(mv\\.db|h2\\.db|sql|sql\\.gz|sql\\.zip)$", "");
+
+        // a script is counted when it is imported
+        long size = databaseFileName.toLowerCase().endsWith(".db")
+                ? new File(databaseFileName).length()
+                : 0;
+        return track(databaseName, size,
+                () -> migrateFile(versionFrom, versionTo, databaseFileName, user, password,
+                        scriptFileName, compression, upgradeOptions, overwrite, force,
+                        connectionParameters));
+    }
+
+    /**
+     * Migrates a database without a script file in STREAM, COPY or SHARDED mode. The source is
+     * opened with its own driver and the journal is deleted once the new database is complete.
+     *
+     * @param failure the message of the exception thrown when the migration failed
+     * @param migration the migration of the {@link #getMigrationMode()}
+     */
+    private ScriptResult migrateDirect(String versionFrom, DriverRecord driverRecordFrom,
+            DriverRecord driverRecordTo, String databaseName, String user, String password,
+            String connectionParameters, String failure, DirectMigration migration)
+            throws Exception {
+        try (MigrationJournal journal = openJournal(versionFrom, driverRecordTo, databaseName)) {
+            ScriptResult scriptResult;
+            Driver driver = loadDriver(driverRecordFrom);
+            try (Connection connection = connectSource(driver, databaseName, user, password,
+                    Objects.requireNonNull(connectionParameters))) {
+                scriptResult = migration.migrate(driver, connection, databaseName, journal);
+            } finally {
+                unloadDriver(driver);
+            }
+            journal.delete();
+
+            LOGGER.info("Created new " + driverRecordTo + " database: "
+                    + scriptResult.scriptFileName);
+            return scriptResult;
+        } catch (Exception ex) {
+            throw new Exception(failure, ex);
+        }
+    }
+
+    private ScriptResult migrateFile(String versionFrom, String versionTo,
+            String databaseFileName, String user, String password, String scriptFileName,
+            String compression, String upgradeOptions, boolean overwrite, boolean force,
+            String connectionParameters) throws Exception {
+
+        String modifiedDatabaseFileName = databaseFileName;
+        String modifiedScriptFileName = scriptFileName;
+        String modifiedCompression = compression;
+        ArrayList<String> commands = new ArrayList<>();
+        DriverRecord driverRecordFrom = getDriverRecord(versionFrom);
+        DriverRecord driverRecordTo = getDriverRecord(versionTo);
+
+        ScriptResult scriptResult = null;
+        boolean success = false;
+        MigrationJournal journal = null;
+
+        if (modifiedDatabaseFileName.toLowerCase().endsWith(".mv.db")
+                || modifiedDatabaseFileName.toLowerCase().endsWith(".h2.db")) {
+            modifiedDatabaseFileName =
+                    modifiedDatabaseFileName.substring(0,
+                            modifiedDatabaseFileName.length() - ".mv.db".length());
+            LOGGER.info(
+                    "Found H2 DB " + modifiedDatabaseFileName
+                            + " which will be exported to SQL Script");
 
             if (modifiedScriptFileName == null || modifiedScriptFileName.isEmpty()) {
                 modifiedScriptFileName = modifiedDatabaseFileName + ".sql";
@@ -832,24 +2140,61 @@ public class H2MigrationTool {
             }
 
             readHooks(versionFrom);
-            try {
+            if (migrationMode == MigrationMode.STREAM) {
+                return migrateDirect(versionFrom, driverRecordFrom, driverRecordTo,
+                        modifiedDatabaseFileName, user, password, connectionParameters,
+                        "Failed to stream " + driverRecordFrom + " database into new "
+                                + driverRecordTo + " database",
+                        (driver, connection, name, directJournal) -> migrateStreaming(connection,
+                                driverRecordTo, name, user, password, upgradeOptions, force,
+                                connectionParameters, directJournal));
+            } else if (migrationMode == MigrationMode.COPY) {
+                return migrateDirect(versionFrom, driverRecordFrom, driverRecordTo,
+                        modifiedDatabaseFileName, user, password, connectionParameters,
+                        "Failed to copy " + driverRecordFrom + " database into new "
+                                + driverRecordTo + " database",
+                        (driver, connection, name, directJournal) -> migrateCopy(driver,
+                                connection, driverRecordTo, name, user, password, force,
+                                connectionParameters, directJournal));
+            } else if (migrationMode == MigrationMode.SHARDED) {
+                return migrateDirect(versionFrom, driverRecordFrom, driverRecordTo,
+                        modifiedDatabaseFileName, user, password, connectionParameters,
+                        "Failed to import the sharded script of " + driverRecordFrom
+                                + " database into new " + driverRecordTo + " database",
+                        (driver, connection, name, directJournal) -> migrateSharded(driver,
+                                connection, driverRecordTo, name, user, password,
+                                upgradeOptions, force, connectionParameters, directJournal));
+            }
 
-                scriptResult =
-                        writeScript(driverRecordFrom, modifiedDatabaseFileName, user, password,
-                                modifiedScriptFileName, modifiedCompression,
-                                Objects.requireNonNull(connectionParameters));
+            journal = openJournal(versionFrom, driverRecordTo, modifiedDatabaseFileName);
+            String scriptStep = MigrationJournal.SCRIPT + " " + modifiedScriptFileName;
+            if (journal.isDone(scriptStep) && new File(modifiedScriptFileName).isFile()) {
+                LOGGER.info("Skip the completed export into " + modifiedScriptFileName);
+                success = true;
+            } else {
+                long start = MigrationProgress.enterPhase(MigrationReport.PHASE_EXPORT);
+                try {
 
-                modifiedScriptFileName = scriptResult.scriptFileName;
-                commands.addAll(scriptResult.commands);
+                    scriptResult =
+                            writeScript(driverRecordFrom, modifiedDatabaseFileName, user,
+                                    password, modifiedScriptFileName, modifiedCompression,
+                                    Objects.requireNonNull(connectionParameters));
+                    recordScript(scriptResult.scriptFileName, start);
 
-                success = true;
-                LOGGER.info(
-                        "Wrote " + driverRecordFrom + " database to script: "
-                                + modifiedScriptFileName);
-            } catch (Exception ex) {
-                throw new Exception(
-                        "Failed to write " + driverRecordFrom + " database to script",
-                        ex);
+                    modifiedScriptFileName = scriptResult.scriptFileName;
+                    commands.addAll(scriptResult.commands);
+                    journal.done(scriptStep);
+
+                    success = true;
+                    LOGGER.info(
+                            "Wrote " + driverRecordFrom + " database to script: "
+                                    + modifiedScriptFileName);
+                } catch (Exception ex) {
+                    journal.close();
+                    throw new Exception(
+                            "Failed to write " + driverRecordFrom + " database to script",
+                            ex);
+                }
             }
         } else if (modifiedDatabaseFileName.toLowerCase().endsWith(".sql")) {
             LOGGER.info(
@@ -901,11 +2246,15 @@ public class H2MigrationTool {
                         : upgradeOptions;
 
         if (success) {
+            if (journal == null) {
+                journal = openJournal(versionFrom, driverRecordTo, modifiedDatabaseFileName);
+            }
             try {
                 scriptResult =
                         createFromScript(driverRecordTo, modifiedDatabaseFileName, user, password,
                                 modifiedScriptFileName, options, commands, force,
-                                Objects.requireNonNull(connectionParameters));
+                                Objects.requireNonNull(connectionParameters), journal);
+                journal.delete();
                 modifiedDatabaseFileName = modifiedDatabaseFileName + "." + driverRecordTo.patchId
                         + (!driverRecordTo.buildId.isEmpty() ? ("-" + driverRecordTo.buildId) : "")
                         + ".mv.db";
@@ -919,6 +2268,8 @@ public class H2MigrationTool {
                         "Failed to created new " + driverRecordTo + " database: "
                                 + modifiedDatabaseFileName,
                         ex);
+            } finally {
+                journal.close();
             }
         }
         return scriptResult;
@@ -936,7 +2287,6 @@ public class H2MigrationTool {
 
         ArrayList<String> databaseNames = new ArrayList<>();
         String modifiedDatabaseFileName = databaseFileName;
-        String modifiedScriptFileName = scriptFileName;
 
         FilenameFilter filenameFilter = new FilenameFilter() {
             @Override
@@ -980,79 +2330,441 @@ public class H2MigrationTool {
                     "No H2 libraries found and loaded yet. Please define, where to load the H2 libraries from.");
         }
 
-        ArrayList<String> commands = new ArrayList<>();
-
         DriverRecord firstDriverRecordFrom = DRIVER_RECORDS.last(); // getDriverRecord(1, 4);
         DriverRecord driverRecordTo =
                 versionTo != null && versionTo.length() > 1 ? getDriverRecord(versionTo)
                         : DRIVER_RECORDS.last();
 
+        if (parallelism > 1 && databaseNames.size() > 1) {
+            migrateAutoParallel(firstDriverRecordFrom, driverRecordTo, databaseNames, user,
+                    password, compression, upgradeOptions, force);
+            return;
+        }
+
         for (String databaseName : databaseNames) {
-            if (modifiedScriptFileName == null || modifiedScriptFileName.isEmpty()) {
-                modifiedScriptFileName = databaseName + ".sql";
+            // a given Script File Name can't be shared by the databases of a folder
+            track(databaseName, MigrationReport.getDatabaseSize(databaseName), () -> {
+                migrateAutoDatabase(firstDriverRecordFrom, driverRecordTo, databaseName, user,
+                        password, databaseNames.size() == 1 ? scriptFileName : null,
+                        compression, upgradeOptions, force);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Migrates the databases of a folder on a bounded pool of {@link #getParallelism()} workers.
+     * Every worker uses its own copy of the settings, so the migrations do not share any state
+     * except the warm H2 drivers of the {@link DriverRegistry}. The log of every database is
+     * written to its own {@code <database>.migration.log} file. A failed database does not stop
+     * the others, all failures are summarized at the end.
+     */
+    private void migrateAutoParallel(DriverRecord firstDriverRecordFrom,
+            DriverRecord driverRecordTo, List<String> databaseNames, String user,
+            String password, String compression, String upgradeOptions, boolean force)
+            throws Exception {
+        long start = System.currentTimeMillis();
+        int threads = Math.min(parallelism, databaseNames.size());
+        LOGGER.info("Migrate " + databaseNames.size() + " H2 databases with " + threads
+                + " workers.");
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "H2 Migration Worker " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LinkedHashMap<String, Future<Long>> futures = new LinkedHashMap<>();
+        try {
+            for (String databaseName : databaseNames) {
+                futures.put(databaseName, executorService.submit(() -> {
+                    long started = System.currentTimeMillis();
+                    Handler handler = openDatabaseLog(databaseName);
+                    try {
+                        H2MigrationTool tool = copySettings();
+                        tool.track(databaseName, MigrationReport.getDatabaseSize(databaseName),
+                                () -> {
+                                    tool.migrateAutoDatabase(firstDriverRecordFrom,
+                                            driverRecordTo, databaseName, user, password, null,
+                                            compression, upgradeOptions, force);
+                                    return null;
+                                });
+                        return System.currentTimeMillis() - started;
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.SEVERE, "Failed to migrate H2 DB " + databaseName, ex);
+                        throw ex;
+                    } finally {
+                        closeDatabaseLog(handler);
+                    }
+                }));
             }
 
-            if (compression != null && compression.endsWith("GZIP")
-                    && !modifiedScriptFileName.toLowerCase().endsWith(".gz")) {
-                modifiedScriptFileName = modifiedScriptFileName + ".gz";
-            } else if (compression != null && compression.endsWith("ZIP")
-                    && !modifiedScriptFileName.toLowerCase().endsWith(".zip")) {
-                modifiedScriptFileName = modifiedScriptFileName + ".zip";
+            ArrayList<String> failedDatabaseNames = new ArrayList<>();
+            for (Map.Entry<String, Future<Long>> e : futures.entrySet()) {
+                try {
+                    LOGGER.info("Migrated H2 DB " + e.getKey() + " in " + e.getValue().get()
+                            + " ms.");
+                } catch (ExecutionException ex) {
+                    failedDatabaseNames.add(e.getKey());
+                    LOGGER.severe("Failed to migrate H2 DB " + e.getKey() + ", see "
+                            + e.getKey() + DATABASE_LOG_EXTENSION + "\n"
+                            + ex.getCause().getLocalizedMessage());
+                }
             }
 
-            boolean success = false;
-            NavigableSet<DriverRecord> headSet =
-                    DRIVER_RECORDS.headSet(firstDriverRecordFrom, true);
-            for (DriverRecord driverRecordFrom : headSet.descendingSet()) {
-                readHooks(driverRecordFrom.getVersion());
+            LOGGER.info("Migrated " + (databaseNames.size() - failedDatabaseNames.size()) + " of "
+                    + databaseNames.size() + " H2 databases in "
+                    + (System.currentTimeMillis() - start) + " ms, "
+                    + failedDatabaseNames.size() + " failed.");
+            if (!failedDatabaseNames.isEmpty()) {
+                throw new Exception("Failed to migrate " + failedDatabaseNames.size() + " of "
+                        + databaseNames.size() + " H2 databases: "
+                        + String.join(", ", failedDatabaseNames));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new Exception("Interrupted while migrating the H2 databases.", ex);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
 
-                try {
-                    ScriptResult scriptResult =
-                            writeScript(driverRecordFrom, databaseName, user, password,
-                                    modifiedScriptFileName, compression, "");
+    /**
+     * Migrates a database while its progress is shown by the {@link MigrationProgress} MBean. When
+     * a {@link #getReportFolder()} is set, its {@link MigrationReport} is current and is written
+     * afterwards, also when the migration failed.
+     *
+     * @param databaseName the name of the database without the extension
+     * @param size the bytes of the database or script to migrate
+     */
+    private <T> T track(String databaseName, long size, Callable<T> migration)
+            throws Exception {
+        MigrationProgress.register();
+        MigrationProgress.start(databaseName);
 
-                    modifiedScriptFileName = scriptResult.scriptFileName;
+        MigrationReport report = null;
+        if (reportFolder != null) {
+            report = MigrationReport.start(databaseName);
+            MigrationReport.recordBytesRead(size);
+        }
 
-                    success = true;
-                    LOGGER.info(
-                            "Wrote " + driverRecordFrom + " database to script: "
-                                    + modifiedScriptFileName);
-                    break;
-                } catch (Exception ex) {
-                    LOGGER.log(Level.FINE,
-                            "Failed to write " + driverRecordFrom
-                                    + " database to script",
-                            ex);
-                    LOGGER.warning("Failed to write " + driverRecordFrom
-                            + " database to script\n" + ex.getLocalizedMessage());
+        boolean success = false;
+        try {
+            T result = migration.call();
+            success = true;
+            return result;
+        } finally {
+            MigrationProgress.finish(success);
+            if (report != null) {
+                report.finish(success);
+                try {
+                    report.write(reportFolder);
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING,
+                            "Failed to write the migration report into " + reportFolder, ex);
                 }
             }
+        }
+    }
+
+    /**
+     * Writes the log records of all threads working on the database into its own log file.
+     */
+    private static Handler openDatabaseLog(String databaseName) throws IOException {
+        CURRENT_DATABASE.set(databaseName);
+
+        StreamHandler handler = new StreamHandler(
+                new FileOutputStream(databaseName + DATABASE_LOG_EXTENSION),
+                new SimpleFormatter()) {
+            @Override
+            public synchronized void publish(LogRecord logRecord) {
+                super.publish(logRecord);
+                flush();
+            }
+        };
+        handler.setFilter(logRecord -> databaseName.equals(CURRENT_DATABASE.get()));
+        PACKAGE_LOGGER.addHandler(handler);
+        return handler;
+    }
+
+    private static void closeDatabaseLog(Handler handler) {
+        PACKAGE_LOGGER.removeHandler(handler);
+        handler.close();
+        CURRENT_DATABASE.remove();
+    }
+
+    /**
+     * @return a new instance with the same settings, but without any state of a migration
+     */
+    private H2MigrationTool copySettings() {
+        return new H2MigrationTool()
+                .setMigrationMode(migrationMode)
+                .setBatchSize(batchSize)
+                .setCommitInterval(commitInterval)
+                .setCopyThreads(copyThreads)
+                .setCopyPartitionSize(copyPartitionSize)
+                .setResume(resume)
+                .setParallelism(parallelism)
+                .setCompressionThreads(compressionThreads)
+                .setReadAhead(readAhead)
+                .setOptimizeScriptRows(optimizeScriptRows)
+                .setDeferIndices(deferIndices)
+                .setDeferForeignKeys(deferForeignKeys)
+                .setBulkLoad(bulkLoad)
+                .setAnalyzeSampleSize(analyzeSampleSize)
+                .setAnalyzeThreads(analyzeThreads)
+                .setCompactMode(compactMode)
+                .setCompactTime(compactTime)
+                .setReportFolder(reportFolder);
+    }
+
+    /**
+     * @return the drivers to try for the database, limited to the drivers which can open the
+     *         format found in the header of the database file. The drivers which migrated similar
+     *         databases before come first, the others follow in descending order.
+     */
+    private static List<DriverRecord> getDriverRecordsFrom(DriverRecord firstDriverRecordFrom,
+            String databaseName, DatabaseFileHeader header) {
+        ArrayList<DriverRecord> driverRecords = new ArrayList<>();
+        for (DriverRecord driverRecord : DRIVER_RECORDS.headSet(firstDriverRecordFrom, true)
+                .descendingSet()) {
+            if (header.isCompatible(driverRecord)) {
+                driverRecords.add(driverRecord);
+            }
+        }
+        List<DriverRecord> sortedDriverRecords =
+                getDriverHistory().sort(header.getFingerprint(), driverRecords);
+        LOGGER.info("Found " + header + " in H2 DB " + databaseName + ", will try the drivers "
+                + sortedDriverRecords);
+        return sortedDriverRecords;
+    }
+
+    /**
+     * @return the persistent history of the drivers which migrated a database, see
+     *         {@link DriverHistory}
+     */
+    public static synchronized DriverHistory getDriverHistory() {
+        if (driverHistory == null) {
+            driverHistory = new DriverHistory(
+                    DriverCache.getDefaultFolder().resolve(DriverHistory.HISTORY_FILE_NAME));
+        }
+        return driverHistory;
+    }
+
+    /**
+     * Replaces the history of the drivers which migrated a database, so a caller decides where
+     * {@link #migrateAuto(String)} learns from.
+     *
+     * @param driverHistory the history to use, or NULL for the one in the default cache folder
+     */
+    public static synchronized void setDriverHistory(DriverHistory driverHistory) {
+        H2MigrationTool.driverHistory = driverHistory;
+    }
+
+    private static void recordDriver(DatabaseFileHeader header, DriverRecord driverRecord,
+            long millis) {
+        DriverHistory driverHistory = getDriverHistory();
+        driverHistory.record(header.getFingerprint(), driverRecord, millis);
+        try {
+            driverHistory.save();
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "Failed to write the driver history "
+                    + driverHistory.getFile(), ex);
+        }
+    }
+
+    private void migrateAutoDatabase(DriverRecord firstDriverRecordFrom,
+            DriverRecord driverRecordTo, String databaseName, String user, String password,
+            String scriptFileName, String compression, String upgradeOptions, boolean force)
+            throws Exception {
+        if (migrationMode == MigrationMode.STREAM || migrationMode == MigrationMode.COPY
+                || migrationMode == MigrationMode.SHARDED) {
+            migrateAutoDirect(firstDriverRecordFrom, driverRecordTo, databaseName, user,
+                    password, upgradeOptions, force);
+            return;
+        }
+
+        String modifiedScriptFileName = scriptFileName;
+        if (modifiedScriptFileName == null || modifiedScriptFileName.isEmpty()) {
+            modifiedScriptFileName = databaseName + ".sql";
+        }
 
-            String options =
-                    compression != null && !compression.isEmpty()
-                            ? compression + " " + upgradeOptions
-                            : upgradeOptions;
+        if (compression != null && compression.endsWith("GZIP")
+                && !modifiedScriptFileName.toLowerCase().endsWith(".gz")) {
+            modifiedScriptFileName = modifiedScriptFileName + ".gz";
+        } else if (compression != null && compression.endsWith("ZIP")
+                && !modifiedScriptFileName.toLowerCase().endsWith(".zip")) {
+            modifiedScriptFileName = modifiedScriptFileName + ".zip";
+        }
+
+        boolean success = false;
+        MigrationJournal journal = openJournal("AUTO", driverRecordTo, databaseName);
+        String scriptStep = MigrationJournal.SCRIPT + " " + modifiedScriptFileName;
+        if (journal.isDone(scriptStep) && new File(modifiedScriptFileName).isFile()) {
+            LOGGER.info("Skip the completed export into " + modifiedScriptFileName);
+            success = true;
+        }
+
+        DatabaseFileHeader header = DatabaseFileHeader.read(databaseName);
+        for (DriverRecord driverRecordFrom : getDriverRecordsFrom(firstDriverRecordFrom,
+                databaseName, header)) {
             if (success) {
-                try {
-                    ScriptResult scriptResult =
-                            createFromScript(driverRecordTo, databaseName, user, password,
-                                    modifiedScriptFileName, options, commands, force, "");
+                break;
+            }
+            readHooks(driverRecordFrom.getVersion());
 
-                    databaseName = scriptResult.scriptFileName;
-                    LOGGER.info("Created new " + driverRecordTo + " database: "
-                            + databaseName);
-                } catch (Exception ex) {
-                    throw new Exception(
-                            "Failed to created new " + driverRecordTo.toString() + " database: "
-                                    + databaseName,
-                            ex);
-                }
-            } else {
+            try {
+                long started = System.currentTimeMillis();
+                ScriptResult scriptResult =
+                        writeScript(driverRecordFrom, databaseName, user, password,
+                                modifiedScriptFileName, compression, "");
+                recordScript(scriptResult.scriptFileName, started);
+
+                modifiedScriptFileName = scriptResult.scriptFileName;
+                journal.done(scriptStep);
+                recordDriver(header, driverRecordFrom, System.currentTimeMillis() - started);
+
+                success = true;
+                LOGGER.info(
+                        "Wrote " + driverRecordFrom + " database to script: "
+                                + modifiedScriptFileName);
+                break;
+            } catch (Exception ex) {
+                LOGGER.log(Level.FINE,
+                        "Failed to write " + driverRecordFrom
+                                + " database to script",
+                        ex);
+                LOGGER.warning("Failed to write " + driverRecordFrom
+                        + " database to script\n" + ex.getLocalizedMessage());
+            }
+        }
+
+        String options =
+                compression != null && !compression.isEmpty()
+                        ? compression + " " + upgradeOptions
+                        : upgradeOptions;
+        if (success) {
+            try {
+                ScriptResult scriptResult =
+                        createFromScript(driverRecordTo, databaseName, user, password,
+                                modifiedScriptFileName, options, new ArrayList<>(), force, "",
+                                journal);
+                journal.delete();
+
+                databaseName = scriptResult.scriptFileName;
+                LOGGER.info("Created new " + driverRecordTo + " database: "
+                        + databaseName);
+            } catch (Exception ex) {
+                throw new Exception(
+                        "Failed to created new " + driverRecordTo.toString() + " database: "
+                                + databaseName,
+                        ex);
+            } finally {
+                journal.close();
+            }
+        } else {
+            journal.close();
+            throw new Exception(
+                    " Failed to migrate H2 DB " + databaseName + " to version  " + driverRecordTo
+                            + " when exporting failed with all known H2 drivers.");
+        }
+
+    }
+
+    private void migrateAutoDirect(DriverRecord firstDriverRecordFrom,
+            DriverRecord driverRecordTo, String databaseName, String user, String password,
+            String upgradeOptions, boolean force) throws Exception {
+
+        DatabaseFileHeader header = DatabaseFileHeader.read(databaseName);
+        for (DriverRecord driverRecordFrom : getDriverRecordsFrom(firstDriverRecordFrom,
+                databaseName, header)) {
+            readHooks(driverRecordFrom.getVersion());
+
+            long started = System.currentTimeMillis();
+            Driver driver = loadDriver(driverRecordFrom);
+            Connection connection;
+            try {
+                connection = connectSource(driver, databaseName, user, password, "");
+            } catch (Exception ex) {
+                unloadDriver(driver);
+                LOGGER.log(Level.FINE, "Failed to open " + driverRecordFrom + " database", ex);
+                LOGGER.warning("Failed to open " + driverRecordFrom + " database\n"
+                        + ex.getLocalizedMessage());
+                continue;
+            }
+
+            try (MigrationJournal journal = openJournal("AUTO", driverRecordTo, databaseName)) {
+                ScriptResult scriptResult = migrationMode == MigrationMode.COPY
+                        ? migrateCopy(driver, connection, driverRecordTo, databaseName, user,
+                                password, force, "", journal)
+                        : migrationMode == MigrationMode.SHARDED
+                                ? migrateSharded(driver, connection, driverRecordTo,
+                                        databaseName, user, password, upgradeOptions, force, "",
+                                        journal)
+                                : migrateStreaming(connection, driverRecordTo, databaseName,
+                                        user, password, upgradeOptions, force, "", journal);
+                journal.delete();
+                recordDriver(header, driverRecordFrom, System.currentTimeMillis() - started);
+                LOGGER.info("Migrated " + driverRecordFrom + " database into new "
+                        + driverRecordTo + " database: " + scriptResult.scriptFileName);
+                return;
+            } catch (Exception ex) {
                 throw new Exception(
-                        " Failed to migrate H2 DB " + databaseName + " to version  " + versionTo
-                                + " when exporting failed with all known H2 drivers.");
+                        "Failed to created new " + driverRecordTo + " database: " + databaseName,
+                        ex);
+            } finally {
+                connection.close();
+                unloadDriver(driver);
             }
         }
+
+        throw new Exception(
+                " Failed to migrate H2 DB " + databaseName + " to version  " + driverRecordTo
+                        + " when opening failed with all known H2 drivers.");
+    }
+
+    public enum MigrationMode {
+        /**
+         * Export into a script file first and import the script file afterwards.
+         */
+        SCRIPT,
+        /**
+         * Stream the export directly into the import, without writing a script file.
+         */
+        STREAM,
+        /**
+         * Copy the tables and rows directly between the two drivers, without any script. Views,
+         * sequences, triggers, users and rights are not copied.
+         */
+        COPY,
+        /**
+         * Export every table into its own script file and import the files at the same time. The
+         * indices and constraints are created after all data has been imported.
+         */
+        SHARDED
+    }
+
+    public enum CompactMode {
+        /**
+         * Compact the new database fully on {@code SHUTDOWN COMPACT}.
+         */
+        COMPACT,
+        /**
+         * Rewrite the new database on {@code SHUTDOWN DEFRAG}, which also orders the pages.
+         */
+        DEFRAG,
+        /**
+         * Compact the new database for at most {@link H2MigrationTool#getCompactTime()}
+         * milliseconds.
+         */
+        TIMED,
+        /**
+         * Close the new database with a plain {@code SHUTDOWN}, then open it again and compact it
+         * on a background thread while the next database is migrated, see
+         * {@link H2MigrationTool#awaitCompactions()}.
+         */
+        BACKGROUND
     }
 
     private enum HookStage {
@@ -1115,4 +2827,12 @@ public class H2MigrationTool {
             this.commands = new ArrayList<>(commands);
         }
     }
+
+    /**
+     * Migrates an open source database into a new database, see {@link MigrationMode}.
+     */
+    private interface DirectMigration {
+        ScriptResult migrate(Driver driver, Connection connection, String databaseName,
+                MigrationJournal journal) throws Exception;
+    }
 }
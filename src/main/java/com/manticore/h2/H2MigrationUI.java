@@ -14,6 +14,8 @@
  */
 package com.manticore.h2;
 
+import com.manticore.h2.FileStatusTableModel.FileStatus;
+import com.manticore.h2.FileStatusTableModel.Status;
 import com.manticore.h2.H2MigrationTool.ScriptResult;
 
 import javax.swing.*;
@@ -31,17 +33,21 @@ import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.Driver;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -140,22 +146,20 @@ public class H2MigrationUI extends JFrame {
                     if (result == JOptionPane.YES_OPTION) {
                         final JTextArea textArea = new JTextArea(24, 72);
                         textArea.setFont(MONOSPACED_FONT);
+                        final FileStatusTableModel statusModel = new FileStatusTableModel();
+                        final int threads = (Integer) threadsSpinner.getValue();
 
-                        SwingWorker<Map<File, Exception>, Entry<File, String>> worker =
+                        SwingWorker<Map<File, Exception>, FileStatus> worker =
                                 new SwingWorker<>() {
 
                                     @Override
                                     protected Map<File, Exception> doInBackground()
                                             throws Exception {
-                                        H2MigrationTool tool = new H2MigrationTool();
                                         H2MigrationTool.readDriverRecords();
 
                                         DriverRecord from = fromVersionList.getSelectedValue();
 
                                         ArrayList<File> databaseFiles = new ArrayList<>();
-                                        HashMap<File, Exception> failedDatabaseFiles =
-                                                new HashMap<>();
-
                                         if (selectedIndices.length > 0) {
                                             for (int i : selectedIndices) {
                                                 databaseFiles.add(databaseFileModel.get(i));
@@ -165,31 +169,22 @@ public class H2MigrationUI extends JFrame {
                                                     Collections.list(databaseFileModel.elements()));
                                         }
 
-                                        for (final File f : databaseFiles) {
-                                            try {
-                                                ScriptResult result =
-                                                        tool.writeRecoveryScript(from,
-                                                                f.getParent(),
-                                                                f.getName());
-
-                                                publish(new AbstractMap.SimpleEntry<>(f,
-                                                        result.scriptFileName));
-
-                                            } catch (Exception ex) {
-                                                LOGGER.log(Level.WARNING,
-                                                        "Failed to recover " + f.getAbsolutePath(),
-                                                        ex);
-                                                failedDatabaseFiles.put(f, ex);
-                                            }
-                                        }
-                                        return failedDatabaseFiles;
+                                        return executeBatch(databaseFiles, threads, "recover",
+                                                f -> new H2MigrationTool().writeRecoveryScript(
+                                                        from, f.getParent(), f.getName()),
+                                                this::publish);
                                     }
 
                                     @Override
-                                    protected void process(List<Entry<File, String>> entries) {
-                                        for (Entry<File, String> e : entries) {
-                                            textArea.append(e.getKey().getAbsolutePath() + " -> "
-                                                    + e.getValue() + "\n");
+                                    protected void process(List<FileStatus> entries) {
+                                        for (FileStatus e : entries) {
+                                            statusModel.update(e);
+                                            if (e.status != Status.DONE) {
+                                                continue;
+                                            }
+
+                                            textArea.append(e.file.getAbsolutePath() + " -> "
+                                                    + e.message + "\n");
 
                                             if (Desktop.isDesktopSupported()) {
                                                 Desktop desktop = Desktop.getDesktop();
@@ -197,18 +192,18 @@ public class H2MigrationUI extends JFrame {
                                                         && desktop
                                                                 .isSupported(Desktop.Action.OPEN)) {
                                                     try {
-                                                        desktop.open(e.getKey());
+                                                        desktop.open(e.file);
                                                     } catch (IOException ex) {
                                                         LOGGER.log(Level.SEVERE, ex.getMessage(),
                                                                 ex);
                                                     }
                                                 } else if (desktop.isSupported(
                                                         Desktop.Action.BROWSE_FILE_DIR)) {
-                                                    desktop.browseFileDirectory(e.getKey());
+                                                    desktop.browseFileDirectory(e.file);
                                                 } else if (desktop
                                                         .isSupported(Desktop.Action.OPEN)) {
                                                     try {
-                                                        desktop.open(e.getKey().getParentFile());
+                                                        desktop.open(e.file.getParentFile());
                                                     } catch (IOException ex) {
                                                         LOGGER.log(Level.SEVERE, ex.getMessage(),
                                                                 ex);
@@ -218,9 +213,9 @@ public class H2MigrationUI extends JFrame {
                                                 LOGGER.warning(
                                                         "Desktop Actions are not supported.");
 
-                                                JFileChooser chooser = new JFileChooser(e.getKey());
+                                                JFileChooser chooser = new JFileChooser(e.file);
                                                 chooser.setDialogType(JFileChooser.SAVE_DIALOG);
-                                                chooser.setSelectedFile(e.getKey());
+                                                chooser.setSelectedFile(e.file);
                                                 chooser.setFileSelectionMode(
                                                         JFileChooser.FILES_ONLY);
                                                 chooser.showSaveDialog(H2MigrationUI.this);
@@ -249,7 +244,7 @@ public class H2MigrationUI extends JFrame {
                                                                     + f.getValue().getCause()
                                                                             .getLocalizedMessage());
                                                     selectedIndices[i++] =
-                                                            databaseFileModel.indexOf(f);
+                                                            databaseFileModel.indexOf(f.getKey());
                                                 }
                                                 databaseFileList
                                                         .setSelectedIndices(selectedIndices);
@@ -261,7 +256,7 @@ public class H2MigrationUI extends JFrame {
                                         }
                                     }
                                 };
-                        executeAndWait(worker, H2MigrationUI.this, textArea);
+                        executeAndWait(worker, H2MigrationUI.this, textArea, statusModel);
                     }
                 }
             };
@@ -297,8 +292,10 @@ public class H2MigrationUI extends JFrame {
                     if (result == JOptionPane.YES_OPTION) {
                         final JTextArea textArea = new JTextArea(24, 72);
                         textArea.setFont(MONOSPACED_FONT);
+                        final FileStatusTableModel statusModel = new FileStatusTableModel();
+                        final int threads = (Integer) threadsSpinner.getValue();
 
-                        SwingWorker<Map<File, Exception>, Entry<File, String>> worker =
+                        SwingWorker<Map<File, Exception>, FileStatus> worker =
                                 new SwingWorker<>() {
 
                                     @Override
@@ -307,16 +304,12 @@ public class H2MigrationUI extends JFrame {
                                         String connectionParameters =
                                                 connectionParameterField.getText();
 
-                                        H2MigrationTool tool = new H2MigrationTool();
                                         H2MigrationTool.readDriverRecords();
 
                                         DriverRecord from = fromVersionList.getSelectedValue();
                                         DriverRecord to = toVersionList.getSelectedValue();
 
                                         ArrayList<File> databaseFiles = new ArrayList<>();
-                                        HashMap<File, Exception> failedDatabaseFiles =
-                                                new HashMap<>();
-
                                         if (selectedIndices.length > 0) {
                                             for (int i : selectedIndices) {
                                                 databaseFiles.add(databaseFileModel.get(i));
@@ -326,75 +319,67 @@ public class H2MigrationUI extends JFrame {
                                                     Collections.list(databaseFileModel.elements()));
                                         }
 
-                                        for (final File f : databaseFiles) {
-                                            try {
-                                                String versionFrom =
-                                                        from != null
-                                                                ? from.getVersion()
-                                                                : "";
-                                                String versionTo =
-                                                        to != null
-                                                                ? to.getVersion()
-                                                                : "";
-
-                                                String username = usernameField.getText();
-                                                String password = passwordField.getText();
-
-                                                String upgradeOptions =
-                                                        quirksModeBox.isSelected()
-                                                                ? "QUIRKS_MODE"
-                                                                : "";
-                                                if (varbinaryBox.isSelected()) {
-                                                    upgradeOptions +=
-                                                            upgradeOptions.isEmpty()
-                                                                    ? "VARIABLE_BINARY"
-                                                                    : " VARIABLE_BINARY";
-                                                }
-
-                                                String compression =
-                                                        (String) compressionBox.getSelectedItem();
-                                                if (compression != null
-                                                        && compression.length() > 0) {
-                                                    compression = "COMPRESSION " + compression;
-                                                }
+                                        String versionFrom =
+                                                from != null
+                                                        ? from.getVersion()
+                                                        : "";
+                                        String versionTo =
+                                                to != null
+                                                        ? to.getVersion()
+                                                        : "";
+
+                                        String username = usernameField.getText();
+                                        String password = passwordField.getText();
+
+                                        String upgradeOptions =
+                                                quirksModeBox.isSelected()
+                                                        ? "QUIRKS_MODE"
+                                                        : "";
+                                        if (varbinaryBox.isSelected()) {
+                                            upgradeOptions +=
+                                                    upgradeOptions.isEmpty()
+                                                            ? "VARIABLE_BINARY"
+                                                            : " VARIABLE_BINARY";
+                                        }
 
-                                                boolean overwrite = overwriteBox.isSelected();
-
-                                                ScriptResult result =
-                                                        tool.migrate(
-                                                                versionFrom,
-                                                                versionTo,
-                                                                f.getAbsolutePath(),
-                                                                username,
-                                                                password,
-                                                                "",
-                                                                compression,
-                                                                upgradeOptions,
-                                                                overwrite,
-                                                                overwrite,
-                                                                connectionParameters);
-
-                                                publish(new AbstractMap.SimpleEntry<>(
-                                                        f,
-                                                        result.scriptFileName));
-
-                                            } catch (Exception ex) {
-                                                LOGGER.log(
-                                                        Level.WARNING,
-                                                        "Failed to migrate " + f.getAbsolutePath(),
-                                                        ex);
-                                                failedDatabaseFiles.put(f, ex);
-                                            }
+                                        String compression =
+                                                (String) compressionBox.getSelectedItem();
+                                        if (compression != null
+                                                && compression.length() > 0) {
+                                            compression = "COMPRESSION " + compression;
                                         }
-                                        return failedDatabaseFiles;
+
+                                        boolean overwrite = overwriteBox.isSelected();
+
+                                        final String finalUpgradeOptions = upgradeOptions;
+                                        final String finalCompression = compression;
+                                        return executeBatch(databaseFiles, threads, "migrate",
+                                                f -> new H2MigrationTool().migrate(
+                                                        versionFrom,
+                                                        versionTo,
+                                                        f.getAbsolutePath(),
+                                                        username,
+                                                        password,
+                                                        "",
+                                                        finalCompression,
+                                                        finalUpgradeOptions,
+                                                        overwrite,
+                                                        overwrite,
+                                                        connectionParameters),
+                                                this::publish);
                                     }
 
                                     @Override
-                                    protected void process(List<Entry<File, String>> entries) {
-                                        for (Entry<File, String> e : entries) {
-                                            textArea.append(e.getKey().getAbsolutePath()
+                                    protected void process(List<FileStatus> entries) {
+                                        for (FileStatus e : entries) {
+                                            statusModel.update(e);
+                                            if (e.status != Status.DONE) {
+                                                continue;
+                                            }
+
+                                            textArea.append(e.file.getAbsolutePath()
                                                     + "\n -> "
-                                                    + e.getValue() + "\n");
+                                                    + e.message + "\n");
 
                                             if (Desktop.isDesktopSupported()) {
                                                 Desktop desktop = Desktop.getDesktop();
@@ -402,18 +387,18 @@ public class H2MigrationUI extends JFrame {
                                                         && desktop
                                                                 .isSupported(Desktop.Action.OPEN)) {
                                                     try {
-                                                        desktop.open(e.getKey());
+                                                        desktop.open(e.file);
                                                     } catch (IOException ex) {
                                                         LOGGER.log(Level.SEVERE, ex.getMessage(),
                                                                 ex);
                                                     }
                                                 } else if (desktop.isSupported(
                                                         Desktop.Action.BROWSE_FILE_DIR)) {
-                                                    desktop.browseFileDirectory(e.getKey());
+                                                    desktop.browseFileDirectory(e.file);
                                                 } else if (desktop
                                                         .isSupported(Desktop.Action.OPEN)) {
                                                     try {
-                                                        desktop.open(e.getKey().getParentFile());
+                                                        desktop.open(e.file.getParentFile());
                                                     } catch (IOException ex) {
                                                         LOGGER.log(Level.SEVERE, ex.getMessage(),
                                                                 ex);
@@ -423,9 +408,9 @@ public class H2MigrationUI extends JFrame {
                                                 LOGGER.warning(
                                                         "Desktop Actions are not supported.");
 
-                                                JFileChooser chooser = new JFileChooser(e.getKey());
+                                                JFileChooser chooser = new JFileChooser(e.file);
                                                 chooser.setDialogType(JFileChooser.SAVE_DIALOG);
-                                                chooser.setSelectedFile(e.getKey());
+                                                chooser.setSelectedFile(e.file);
                                                 chooser.setFileSelectionMode(
                                                         JFileChooser.FILES_ONLY);
                                                 chooser.showSaveDialog(H2MigrationUI.this);
@@ -454,7 +439,7 @@ public class H2MigrationUI extends JFrame {
                                                                     + f.getValue().getCause()
                                                                             .getLocalizedMessage());
                                                     selectedIndices[i++] =
-                                                            databaseFileModel.indexOf(f);
+                                                            databaseFileModel.indexOf(f.getKey());
                                                 }
                                                 databaseFileList
                                                         .setSelectedIndices(selectedIndices);
@@ -466,7 +451,7 @@ public class H2MigrationUI extends JFrame {
                                         }
                                     }
                                 };
-                        executeAndWait(worker, H2MigrationUI.this, textArea);
+                        executeAndWait(worker, H2MigrationUI.this, textArea, statusModel);
                     }
                 }
             };
@@ -597,6 +582,9 @@ public class H2MigrationUI extends JFrame {
     private final JCheckBox varbinaryBox = new JCheckBox("Convert BINARY to VARBINARY", false);
     private final JCheckBox quirksModeBox = new JCheckBox("Quirks Mode", true);
     private final JCheckBox overwriteBox = new JCheckBox("Overwrite", false);
+    private final JSpinner threadsSpinner =
+            new JSpinner(new SpinnerNumberModel(
+                    Math.min(4, Runtime.getRuntime().availableProcessors()), 1, 64, 1));
     private final Action addDatabaseFileAction =
             new AbstractAction("Add Database File", LIST_ADD_ICON) {
                 @Override
@@ -769,6 +757,56 @@ public class H2MigrationUI extends JFrame {
 
     public static void executeAndWait(SwingWorker<?, ?> worker, Component component,
             JTextArea textArea) {
+        textArea.setEditable(false);
+
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(320, 180));
+        scrollPane.setWheelScrollingEnabled(true);
+        scrollPane.setFocusable(false);
+
+        executeAndWait(worker, component, (JComponent) scrollPane);
+    }
+
+    /**
+     * Shows the status of every Database File of a batch above the text area, while the batch is
+     * running.
+     */
+    public static void executeAndWait(SwingWorker<?, ?> worker, Component component,
+            JTextArea textArea, FileStatusTableModel statusModel) {
+        textArea.setEditable(false);
+
+        JTable statusTable = new JTable(statusModel);
+        statusTable.setFillsViewportHeight(true);
+        statusTable.getColumnModel().getColumn(0).setPreferredWidth(200);
+        statusTable.getColumnModel().getColumn(3).setPreferredWidth(200);
+
+        JScrollPane tableScrollPane = new JScrollPane(statusTable);
+        tableScrollPane.setPreferredSize(new Dimension(640, 240));
+
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(640, 120));
+        scrollPane.setWheelScrollingEnabled(true);
+        scrollPane.setFocusable(false);
+
+        JSplitPane splitPane =
+                new JSplitPane(JSplitPane.VERTICAL_SPLIT, tableScrollPane, scrollPane);
+        splitPane.setResizeWeight(0.67);
+
+        // refreshes the elapsed time of the running files
+        Timer timer = new Timer(1000, e -> statusModel.updateRunning());
+        worker.addPropertyChangeListener(event -> {
+            if ("state".equals(event.getPropertyName())
+                    && SwingWorker.StateValue.DONE == event.getNewValue()) {
+                timer.stop();
+            }
+        });
+        timer.start();
+
+        executeAndWait(worker, component, (JComponent) splitPane);
+    }
+
+    private static void executeAndWait(SwingWorker<?, ?> worker, Component component,
+            JComponent content) {
         Window windowAncestor = SwingUtilities.getWindowAncestor(component);
 
         JDialog dialog =
@@ -811,17 +849,10 @@ public class H2MigrationUI extends JFrame {
         buttonPanel.add(new JButton(cancelAction));
         buttonPanel.add(new JButton(closeAction));
 
-        JScrollPane scrollPane = new JScrollPane(textArea);
-        scrollPane.setPreferredSize(new Dimension(320, 180));
-        scrollPane.setWheelScrollingEnabled(true);
-        scrollPane.setFocusable(false);
-
-        textArea.setEditable(false);
-
         dialog.setLayout(new BorderLayout(6, 6));
 
         dialog.add(iconLabel, BorderLayout.WEST);
-        dialog.add(scrollPane);
+        dialog.add(content);
         dialog.add(buttonPanel, BorderLayout.SOUTH);
 
         dialog.setLocationByPlatform(true);
@@ -873,6 +904,64 @@ public class H2MigrationUI extends JFrame {
         dialog.setVisible(true);
     }
 
+    /**
+     * Processes the Database Files on a pool of worker threads. Every change of the status of a
+     * file is handed to the publisher, e.g. {@link SwingWorker#publish(Object[])}.
+     *
+     * @param operation the name of the operation, used for logging
+     * @return the failed Database Files and their exceptions
+     */
+    public static Map<File, Exception> executeBatch(List<File> databaseFiles, int threads,
+            String operation, FileTask task, Consumer<FileStatus> publisher)
+            throws InterruptedException {
+        Map<File, Exception> failedDatabaseFiles =
+                Collections.synchronizedMap(new LinkedHashMap<>());
+
+        for (File f : databaseFiles) {
+            publisher.accept(new FileStatus(f, Status.QUEUED, 0, 0, ""));
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, databaseFiles.size())), r -> {
+                    Thread thread = new Thread(r, "H2 UI Worker " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (File f : databaseFiles) {
+                futures.add(executorService.submit(() -> {
+                    long start = System.currentTimeMillis();
+                    publisher.accept(new FileStatus(f, Status.RUNNING, start, 0, ""));
+                    try {
+                        ScriptResult result = task.execute(f);
+                        publisher.accept(new FileStatus(f, Status.DONE, start,
+                                System.currentTimeMillis(), result.scriptFileName));
+                    } catch (Exception ex) {
+                        LOGGER.log(Level.WARNING,
+                                "Failed to " + operation + " " + f.getAbsolutePath(), ex);
+                        failedDatabaseFiles.put(f, ex);
+                        publisher.accept(new FileStatus(f, Status.FAILED, start,
+                                System.currentTimeMillis(), ex.getLocalizedMessage()));
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                    LOGGER.log(Level.SEVERE, null, ex);
+                }
+            }
+        } finally {
+            // interrupts the running files, when the worker has been cancelled
+            executorService.shutdownNow();
+        }
+        return failedDatabaseFiles;
+    }
+
     private String getLabel(String label, int annotation) {
         switch (annotation) {
             case 1:
@@ -1147,6 +1236,19 @@ public class H2MigrationUI extends JFrame {
         constraints.fill = GridBagConstraints.NONE;
         // centerNorthPanel.add(repairModeBox, constraints);
 
+        constraints.gridy++;
+        constraints.gridx = 0;
+        constraints.fill = GridBagConstraints.HORIZONTAL;
+        JLabel threadsLabel = new JLabel(getLabel("Threads", 0));
+        threadsLabel.setLabelFor(threadsSpinner);
+        threadsLabel.setHorizontalAlignment(JLabel.TRAILING);
+        threadsLabel.setToolTipText("The number of Database Files processed at the same time.");
+        centerNorthPanel.add(threadsLabel, constraints);
+
+        constraints.gridx++;
+        constraints.fill = GridBagConstraints.NONE;
+        centerNorthPanel.add(threadsSpinner, constraints);
+
         JPanel southEastPanel = new JPanel(new FlowLayout(FlowLayout.LEADING, 6, 2));
         southEastPanel.add(helpButton);
 
@@ -1172,6 +1274,13 @@ public class H2MigrationUI extends JFrame {
         setVisible(visible);
     }
 
+    /**
+     * The operation executed for every Database File of a batch.
+     */
+    public interface FileTask {
+        ScriptResult execute(File databaseFile) throws Exception;
+    }
+
     private static class SwingWorkerCompletionWaiter implements PropertyChangeListener {
 
         private final JDialog dialog;
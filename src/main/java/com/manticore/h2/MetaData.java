@@ -47,10 +47,12 @@ public final class MetaData {
             table.getColumns(metaData);
 
             // "TABLE", "VIEW", "SYSTEM TABLE", "GLOBAL TEMPORARY", "LOCAL TEMPORARY", "ALIAS",
-            // "SYNONYM"
-            if (table.tableType.equals("TABLE") || table.tableType.equals("SYSTEM TABLE")) {
+            // "SYNONYM", H2 2.x reports "BASE TABLE"
+            if (table.tableType.equals("TABLE") || table.tableType.equals("BASE TABLE")
+                    || table.tableType.equals("SYSTEM TABLE")) {
                 table.getIndices(metaData, true);
                 table.getPrimaryKey(metaData);
+                table.getReferences(metaData);
             }
         }
 
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Java Flight Recorder events of a migration. A recording started with
+ * {@code -XX:StartFlightRecording} shows the loading of the drivers, the export, import and copy
+ * of every database, its statement groups and the final ANALYZE and compaction next to the GC and
+ * I/O events, instead of the reflective calls into the ClassLoaders of the H2 drivers.
+ *
+ * <p>
+ * Every event is created on the thread doing the work, so it is attributed to the current database
+ * of the {@link MigrationProgress}. An event is committed also when the work failed, so the time
+ * spent before the failure shows up in the recording with its success set to FALSE.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public final class MigrationEvents {
+    public static final String CATEGORY = "H2 Migration";
+
+    private MigrationEvents() {}
+
+    @Category(CATEGORY)
+    abstract static class DatabaseEvent extends Event {
+        @Label("Database")
+        String database = MigrationProgress.getDatabaseName();
+
+        @Label("Success")
+        @Description("Whether the work succeeded or failed with an exception.")
+        boolean success;
+
+        public void setSuccess(boolean success) {
+            this.success = success;
+        }
+    }
+
+    @Name("com.manticore.h2.DriverLoad")
+    @Label("Driver Load")
+    @Description("Acquires the Driver of an H2 version and probes a new H2 library.")
+    public static class DriverLoadEvent extends DatabaseEvent {
+        @Label("Version")
+        String version;
+
+        @Label("Probed")
+        boolean probed;
+
+        public DriverLoadEvent(DriverRecord driverRecord) {
+            this.version = driverRecord.getVersion();
+        }
+
+        public void setProbed(boolean probed) {
+            this.probed = probed;
+        }
+    }
+
+    @Name("com.manticore.h2.ClassLoaderCreation")
+    @Label("ClassLoader Creation")
+    @Description("Creates the isolated ClassLoader of an H2 library and loads its Driver.")
+    public static class ClassLoaderEvent extends DatabaseEvent {
+        @Label("Library")
+        String library;
+
+        public ClassLoaderEvent(String library) {
+            this.library = library;
+        }
+    }
+
+    @Name("com.manticore.h2.Export")
+    @Label("Export")
+    @Description("Exports a database into a script, a stream or the shards of a folder.")
+    public static class ExportEvent extends DatabaseEvent {
+        @Label("Method")
+        String method;
+
+        @Label("Target")
+        String target;
+
+        public ExportEvent(String method, String target) {
+            this.method = method;
+            this.target = target;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+    }
+
+    @Name("com.manticore.h2.Import")
+    @Label("Import")
+    @Description("Imports a script, a stream or the shards of a folder into the new database.")
+    public static class ImportEvent extends DatabaseEvent {
+        @Label("Method")
+        String method;
+
+        @Label("Source")
+        String source;
+
+        public ImportEvent(String method, String source) {
+            this.method = method;
+            this.source = source;
+        }
+
+        public void setMethod(String method) {
+            this.method = method;
+        }
+    }
+
+    @Name("com.manticore.h2.Copy")
+    @Label("Copy")
+    @Description("Copies a database directly into the new database.")
+    public static class CopyEvent extends DatabaseEvent {
+        @Label("Threads")
+        int threads;
+
+        public CopyEvent(int threads) {
+            this.threads = threads;
+        }
+    }
+
+    @Name("com.manticore.h2.StatementGroup")
+    @Label("Statement Group")
+    @Description("Executes the statements of one task, e.g. the rows of a table range, the "
+            + "data of a shard or the indices of a table.")
+    public static class StatementGroupEvent extends DatabaseEvent {
+        @Label("Group")
+        String group;
+
+        @Label("Name")
+        String name;
+
+        public StatementGroupEvent(String group, String name) {
+            this.group = group;
+            this.name = name;
+        }
+    }
+
+    @Name("com.manticore.h2.Maintenance")
+    @Label("Maintenance")
+    @Description("Analyzes or compacts the new database.")
+    public static class MaintenanceEvent extends DatabaseEvent {
+        @Label("Operation")
+        String operation;
+
+        public MaintenanceEvent(String operation) {
+            this.operation = operation;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A persistent, append-only journal of the completed steps of one migration, written next to the
+ * new database. A migration which failed can be resumed from the journal, skipping all steps which
+ * are completed already. The journal is deleted when the migration succeeds.
+ *
+ * <p>
+ * The first line identifies the migration, so a journal of a different migration is never resumed.
+ * Every following line records one completed step.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationJournal implements Closeable {
+    public static final Logger LOGGER = Logger.getLogger(MigrationJournal.class.getName());
+
+    public static final String FILE_EXTENSION = ".journal";
+
+    // the steps of a migration, the COPY mode adds one step per table range
+    public static final String SCRIPT = "SCRIPT";
+    public static final String IMPORT = "IMPORT";
+    public static final String SCHEMA = "SCHEMA";
+    public static final String INDICES = "INDICES";
+
+    private static final String DONE_PREFIX = "DONE ";
+
+    private final File file;
+    private final String header;
+    private final Set<String> completedSteps = ConcurrentHashMap.newKeySet();
+    private FileOutputStream outputStream;
+    private boolean resumed = false;
+
+    private MigrationJournal(File file, String header) {
+        this.file = file;
+        this.header = header;
+    }
+
+    /**
+     * Opens the journal of a migration.
+     *
+     * @param databaseFileName the name of the new database, without the file extension
+     * @param header the identification of the migration
+     * @param resume when TRUE, the completed steps of an existing journal with the same header are
+     *        read, otherwise an existing journal is replaced when the first step is completed
+     * @return the opened journal
+     */
+    public static MigrationJournal open(String databaseFileName, String header, boolean resume)
+            throws IOException {
+        MigrationJournal journal =
+                new MigrationJournal(new File(databaseFileName + FILE_EXTENSION), header);
+
+        if (resume && journal.file.isFile()) {
+            List<String> lines = Files.readAllLines(journal.file.toPath(), StandardCharsets.UTF_8);
+            if (!lines.isEmpty() && lines.get(0).equals(header)) {
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.startsWith(DONE_PREFIX)) {
+                        journal.completedSteps.add(line.substring(DONE_PREFIX.length()));
+                    }
+                }
+                journal.outputStream = new FileOutputStream(journal.file, true);
+                journal.resumed = !journal.completedSteps.isEmpty();
+                LOGGER.info("Resume the migration from " + journal.file + " with "
+                        + journal.completedSteps.size() + " completed steps.");
+                return journal;
+            }
+            LOGGER.warning("The journal " + journal.file
+                    + " belongs to a different migration and will be replaced.");
+        }
+        return journal;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return TRUE, when steps have been completed by a previous run
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public boolean isDone(String step) {
+        return completedSteps.contains(step);
+    }
+
+    /**
+     * Records a completed step and forces it to the disk, before the migration continues.
+     *
+     * @param step the completed step
+     */
+    public synchronized void done(String step) throws IOException {
+        if (completedSteps.add(step)) {
+            write(DONE_PREFIX + step);
+        }
+    }
+
+    private synchronized void write(String line) throws IOException {
+        if (outputStream == null) {
+            // a new journal replaces the old one only after the first completed step, so a failing
+            // attempt without resuming does not spoil the journal of an earlier attempt
+            outputStream = new FileOutputStream(file, false);
+            outputStream.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        outputStream.write((line.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+        outputStream.flush();
+        outputStream.getFD().sync();
+    }
+
+    /**
+     * Closes and deletes the journal, after the migration has been completed.
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+            outputStream = null;
+        }
+    }
+}
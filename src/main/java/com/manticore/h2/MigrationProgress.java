@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The live progress of the migrations of this JVM, registered as the MBean
+ * {@value #OBJECT_NAME} when the first migration starts. It can be polled by jconsole or a JMX
+ * exporter while the migrations are running.
+ *
+ * <p>
+ * The rows are counted by COPY and SHARDED migrations, the bytes by the streamed and the
+ * compressed scripts. A plain script is read by H2 itself, so only its phase is shown. The rates
+ * are measured over a sliding window of {@value #WINDOW_MILLIS} ms.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationProgress implements MigrationProgressMXBean {
+    public static final Logger LOGGER = Logger.getLogger(MigrationProgress.class.getName());
+
+    public static final String OBJECT_NAME = "com.manticore.h2:type=MigrationProgress";
+    public static final long WINDOW_MILLIS = 30000;
+
+    private static final MigrationProgress INSTANCE = new MigrationProgress();
+
+    // the database migrated by a thread, inherited by the threads it starts
+    private static final InheritableThreadLocal<String> CURRENT_DATABASE =
+            new InheritableThreadLocal<>();
+
+    private final LinkedHashMap<String, String> databasePhases = new LinkedHashMap<>();
+    private int completedDatabases = 0;
+    private int failedDatabases = 0;
+    private long rows = 0;
+    private long bytes = 0;
+    private long expectedRows = 0;
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+
+    // the counters of the running streams, which are added to the bytes when removed
+    private final CopyOnWriteArrayList<LongSupplier> byteSources = new CopyOnWriteArrayList<>();
+
+    // the samples of {millis, rows, bytes} within the window, the oldest first
+    private final ArrayDeque<long[]> samples = new ArrayDeque<>();
+
+    private boolean registered = false;
+
+    private MigrationProgress() {}
+
+    public static MigrationProgress getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, unless registered already.
+     */
+    public static void register() {
+        synchronized (INSTANCE) {
+            if (INSTANCE.registered) {
+                return;
+            }
+            INSTANCE.registered = true;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ex) {
+            LOGGER.fine("The MBean " + OBJECT_NAME + " is registered already.");
+        } catch (JMException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Failed to register the MBean " + OBJECT_NAME, ex);
+        }
+    }
+
+    /**
+     * Starts the progress of a database as the current database of this thread and of the threads
+     * it starts.
+     */
+    public static void start(String databaseName) {
+        CURRENT_DATABASE.set(databaseName);
+        synchronized (INSTANCE) {
+            INSTANCE.databasePhases.remove(databaseName);
+            INSTANCE.databasePhases.put(databaseName, "start");
+        }
+    }
+
+    /**
+     * Completes the progress of the current database of this thread.
+     *
+     * @param success TRUE, when the database has been migrated
+     */
+    public static void finish(boolean success) {
+        String databaseName = CURRENT_DATABASE.get();
+        CURRENT_DATABASE.remove();
+        synchronized (INSTANCE) {
+            INSTANCE.databasePhases.remove(databaseName);
+            if (success) {
+                INSTANCE.completedDatabases++;
+            } else {
+                INSTANCE.failedDatabases++;
+            }
+        }
+    }
+
+    /**
+     * @return the current database of this thread or NULL
+     */
+    public static String getDatabaseName() {
+        return CURRENT_DATABASE.get();
+    }
+
+    /**
+     * Sets the phase of the current database of this thread.
+     *
+     * @param phase the name of the phase, e.g. {@value MigrationReport#PHASE_IMPORT}
+     * @return the start of the phase
+     */
+    public static long enterPhase(String phase) {
+        String databaseName = CURRENT_DATABASE.get();
+        if (databaseName != null) {
+            synchronized (INSTANCE) {
+                if (INSTANCE.databasePhases.containsKey(databaseName)) {
+                    INSTANCE.databasePhases.put(databaseName, phase);
+                }
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    public static void addRows(long n) {
+        synchronized (INSTANCE) {
+            INSTANCE.rows += n;
+            INSTANCE.sample();
+        }
+    }
+
+    public static void addBytes(long n) {
+        synchronized (INSTANCE) {
+            INSTANCE.bytes += n;
+            INSTANCE.sample();
+        }
+    }
+
+    public static void addExpectedRows(long n) {
+        synchronized (INSTANCE) {
+            INSTANCE.expectedRows += n;
+        }
+    }
+
+    /**
+     * Counts the bytes of a running stream, which are read from its counter when polled.
+     *
+     * @param byteSource the counter of the bytes transferred by the stream
+     */
+    public static void addByteSource(LongSupplier byteSource) {
+        INSTANCE.byteSources.add(byteSource);
+    }
+
+    /**
+     * Adds the final count of a stream to the bytes and stops polling its counter.
+     */
+    public static void removeByteSource(LongSupplier byteSource) {
+        synchronized (INSTANCE) {
+            if (INSTANCE.byteSources.remove(byteSource)) {
+                INSTANCE.bytes += byteSource.getAsLong();
+                INSTANCE.sample();
+            }
+        }
+    }
+
+    public static void workerStarted() {
+        INSTANCE.activeWorkers.incrementAndGet();
+    }
+
+    public static void workerFinished() {
+        INSTANCE.activeWorkers.decrementAndGet();
+    }
+
+    // must be called while holding the lock of the instance
+    private long getBytes() {
+        long n = bytes;
+        for (LongSupplier byteSource : byteSources) {
+            n += byteSource.getAsLong();
+        }
+        return n;
+    }
+
+    // one sample per second at most, the samples outside of the window are dropped
+    private void sample() {
+        long now = System.currentTimeMillis();
+        long[] last = samples.peekLast();
+        if (last == null || now - last[0] >= 1000) {
+            samples.addLast(new long[] {now, rows, getBytes()});
+        } else {
+            last[1] = rows;
+            last[2] = getBytes();
+        }
+        while (samples.size() > 2 && now - samples.peekFirst()[0] > WINDOW_MILLIS) {
+            samples.removeFirst();
+        }
+    }
+
+    // the rate of the value of the samples over the window
+    private double getRate(int i) {
+        sample();
+        long[] first = samples.peekFirst();
+        long millis = System.currentTimeMillis() - first[0];
+        return millis > 0 ? (samples.peekLast()[i] - first[i]) * 1000d / millis : 0;
+    }
+
+    @Override
+    public synchronized String getCurrentDatabase() {
+        String databaseName = null;
+        for (String name : databasePhases.keySet()) {
+            databaseName = name;
+        }
+        return databaseName;
+    }
+
+    @Override
+    public synchronized String getPhase() {
+        String databaseName = getCurrentDatabase();
+        return databaseName != null ? databasePhases.get(databaseName) : null;
+    }
+
+    @Override
+    public synchronized Map<String, String> getDatabasePhases() {
+        return new LinkedHashMap<>(databasePhases);
+    }
+
+    @Override
+    public synchronized int getCompletedDatabases() {
+        return completedDatabases;
+    }
+
+    @Override
+    public synchronized int getFailedDatabases() {
+        return failedDatabases;
+    }
+
+    @Override
+    public synchronized long getRowsProcessed() {
+        return rows;
+    }
+
+    @Override
+    public synchronized long getBytesProcessed() {
+        return getBytes();
+    }
+
+    @Override
+    public synchronized double getRowsPerSecond() {
+        return getRate(1);
+    }
+
+    @Override
+    public synchronized double getBytesPerSecond() {
+        return getRate(2);
+    }
+
+    @Override
+    public synchronized long getExpectedRows() {
+        return expectedRows;
+    }
+
+    @Override
+    public synchronized long getEtaSeconds() {
+        double rowsPerSecond = getRate(1);
+        if (expectedRows > rows && rowsPerSecond > 0) {
+            return (long) ((expectedRows - rows) / rowsPerSecond);
+        }
+        return -1;
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return activeWorkers.get();
+    }
+
+    @Override
+    public List<String> getLoadedDrivers() {
+        ArrayList<String> drivers = new ArrayList<>();
+        for (DriverRecord driverRecord : H2MigrationTool.getDriverRecords()) {
+            if (driverRecord.url != null && DriverRegistry.isLoaded(driverRecord.url)) {
+                drivers.add(driverRecord.getVersion());
+            }
+        }
+        return drivers;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The live progress of the migrations of this JVM, see {@link MigrationProgress}.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public interface MigrationProgressMXBean {
+
+    /**
+     * @return the database started last of the running migrations or NULL
+     */
+    String getCurrentDatabase();
+
+    /**
+     * @return the phase of the current database, e.g. {@value MigrationReport#PHASE_IMPORT}
+     */
+    String getPhase();
+
+    /**
+     * @return the phase of every running migration by its database
+     */
+    Map<String, String> getDatabasePhases();
+
+    int getCompletedDatabases();
+
+    int getFailedDatabases();
+
+    long getRowsProcessed();
+
+    long getBytesProcessed();
+
+    /**
+     * @return the rows per second over the last {@value MigrationProgress#WINDOW_MILLIS} ms
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return the bytes per second over the last {@value MigrationProgress#WINDOW_MILLIS} ms
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return the rows known to be processed in total, 0 when unknown
+     */
+    long getExpectedRows();
+
+    /**
+     * @return the estimated seconds until the expected rows are processed, -1 when unknown
+     */
+    long getEtaSeconds();
+
+    /**
+     * @return the number of workers copying, importing, indexing or analyzing right now
+     */
+    int getActiveWorkers();
+
+    /**
+     * @return the H2 drivers loaded by the {@link DriverRegistry}
+     */
+    List<String> getLoadedDrivers();
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * The numbers of the migration of one database: the time per phase, the bytes read and written,
+ * the size of the script, the rows per table, the peak heap and the drivers used. The report is
+ * written as JSON and as a textfile of the Prometheus node exporter, e.g.
+ * {@code <database>.migration.json} and {@code <database>.migration.prom}.
+ *
+ * <p>
+ * The report of the database migrated by a thread is inherited by the threads it starts, so the
+ * static {@code record} methods add to the current report from anywhere and do nothing when no
+ * report has been started.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationReport {
+    public static final Logger LOGGER = Logger.getLogger(MigrationReport.class.getName());
+
+    public static final String JSON_EXTENSION = ".migration.json";
+    public static final String PROMETHEUS_EXTENSION = ".migration.prom";
+
+    public static final String PHASE_DRIVER_LOAD = "driver_load";
+    public static final String PHASE_EXPORT = "export";
+    public static final String PHASE_IMPORT = "import";
+    public static final String PHASE_COPY = "copy";
+    public static final String PHASE_ANALYZE = "analyze";
+    public static final String PHASE_COMPACT = "compact";
+
+    private static final String METRIC_PREFIX = "h2migration_";
+
+    private static final InheritableThreadLocal<MigrationReport> CURRENT_REPORT =
+            new InheritableThreadLocal<>();
+
+    private final String databaseName;
+    private final long startMillis = System.currentTimeMillis();
+    private long endMillis = -1;
+    private boolean success = false;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
+    private long scriptSize = -1;
+    private long peakHeap = -1;
+    private final LinkedHashMap<String, Long> phaseMillis = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Long> tableRows = new LinkedHashMap<>();
+    private final LinkedHashSet<String> drivers = new LinkedHashSet<>();
+
+    private MigrationReport(String databaseName) {
+        this.databaseName = databaseName;
+    }
+
+    /**
+     * Starts the report of a database as the current report of this thread and of the threads it
+     * starts.
+     *
+     * @param databaseName the name of the database without the extension
+     * @return the new report
+     */
+    public static MigrationReport start(String databaseName) {
+        MigrationReport report = new MigrationReport(databaseName);
+        CURRENT_REPORT.set(report);
+        return report;
+    }
+
+    /**
+     * @return the current report of this thread or NULL, when no report has been started
+     */
+    public static MigrationReport getCurrent() {
+        return CURRENT_REPORT.get();
+    }
+
+    /**
+     * Adds the milliseconds since the start of a phase to the current report.
+     *
+     * @param phase the name of the phase, e.g. {@value #PHASE_IMPORT}
+     * @param startMillis the start of the phase
+     */
+    public static void recordPhase(String phase, long startMillis) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.phaseMillis.merge(phase, System.currentTimeMillis() - startMillis,
+                        Long::sum);
+            }
+        }
+    }
+
+    public static void recordDriver(DriverRecord driverRecord) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.drivers.add(driverRecord.getVersion());
+            }
+        }
+    }
+
+    public static void recordTableRows(String tableName, long rows) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.tableRows.put(tableName, rows);
+            }
+        }
+    }
+
+    public static void recordBytesRead(long bytes) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.bytesRead += bytes;
+            }
+        }
+    }
+
+    public static void recordBytesWritten(long bytes) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.bytesWritten += bytes;
+            }
+        }
+    }
+
+    public static void recordScriptSize(long bytes) {
+        MigrationReport report = getCurrent();
+        if (report != null) {
+            synchronized (report) {
+                report.scriptSize = bytes;
+            }
+        }
+    }
+
+    /**
+     * @param databaseFileName the name of the database without the extension
+     * @return the size of the {@code .mv.db} or {@code .h2.db} file of the database, 0 when
+     *         there is no such file
+     */
+    public static long getDatabaseSize(String databaseFileName) {
+        File file = new File(databaseFileName + ".mv.db");
+        return file.isFile() ? file.length() : new File(databaseFileName + ".h2.db").length();
+    }
+
+    /**
+     * @return the size of all files of the folder and its sub folders
+     */
+    public static long getFolderSize(File folder) {
+        long size = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? getFolderSize(file) : file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Completes the report and removes it from this thread.
+     *
+     * @param success TRUE, when the database has been migrated
+     */
+    public synchronized void finish(boolean success) {
+        this.success = success;
+        this.endMillis = System.currentTimeMillis();
+
+        // the heap is shared by all databases migrated at the same time
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        this.peakHeap = peak;
+
+        if (CURRENT_REPORT.get() == this) {
+            CURRENT_REPORT.remove();
+        }
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public synchronized boolean isSuccess() {
+        return success;
+    }
+
+    public synchronized long getElapsedMillis() {
+        return (endMillis >= 0 ? endMillis : System.currentTimeMillis()) - startMillis;
+    }
+
+    public synchronized Map<String, Long> getPhaseMillis() {
+        return new LinkedHashMap<>(phaseMillis);
+    }
+
+    public synchronized Map<String, Long> getTableRows() {
+        return new LinkedHashMap<>(tableRows);
+    }
+
+    public synchronized List<String> getDrivers() {
+        return new ArrayList<>(drivers);
+    }
+
+    public synchronized long getBytesRead() {
+        return bytesRead;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public synchronized long getScriptSize() {
+        return scriptSize;
+    }
+
+    public synchronized long getPeakHeap() {
+        return peakHeap;
+    }
+
+    /**
+     * Writes the JSON and the Prometheus textfile into the folder. Every file is written to a
+     * temporary file first and moved afterwards, so the node exporter never reads a partial file.
+     *
+     * @param folder the folder of the report files
+     */
+    public void write(File folder) throws IOException {
+        String fileName = new File(databaseName).getName();
+        write(folder.toPath().resolve(fileName + JSON_EXTENSION), toJson());
+        write(folder.toPath().resolve(fileName + PROMETHEUS_EXTENSION), toPrometheus());
+        LOGGER.fine("Wrote the migration report of " + databaseName + " into " + folder);
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmpPath = Files.createTempFile(path.getParent(), path.getFileName().toString(),
+                ".tmp");
+        try {
+            Files.write(tmpPath, content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpPath);
+        }
+    }
+
+    public synchronized String toJson() {
+        StringBuilder builder = new StringBuilder("{\n");
+        builder.append("  \"database\": ").append(quoteJson(databaseName)).append(",\n");
+        builder.append("  \"success\": ").append(success).append(",\n");
+        builder.append("  \"startMillis\": ").append(startMillis).append(",\n");
+        builder.append("  \"elapsedMillis\": ").append(getElapsedMillis()).append(",\n");
+
+        builder.append("  \"phaseMillis\": {");
+        appendJson(builder, phaseMillis);
+        builder.append("},\n");
+
+        builder.append("  \"bytesRead\": ").append(bytesRead).append(",\n");
+        builder.append("  \"bytesWritten\": ").append(bytesWritten).append(",\n");
+        builder.append("  \"scriptSize\": ").append(scriptSize).append(",\n");
+
+        builder.append("  \"tableRows\": {");
+        appendJson(builder, tableRows);
+        builder.append("},\n");
+
+        builder.append("  \"peakHeap\": ").append(peakHeap).append(",\n");
+
+        builder.append("  \"drivers\": [");
+        int i = 0;
+        for (String driver : drivers) {
+            builder.append(i++ > 0 ? ", " : "").append(quoteJson(driver));
+        }
+        builder.append("]\n}\n");
+        return builder.toString();
+    }
+
+    public synchronized String toPrometheus() {
+        String label = "database=" + quotePrometheus(new File(databaseName).getName());
+        StringBuilder builder = new StringBuilder();
+
+        appendMetric(builder, "success", "1 when the database has been migrated", label,
+                success ? 1 : 0);
+        appendMetric(builder, "start_timestamp_seconds", "The start of the migration", label,
+                startMillis / 1000d);
+        appendMetric(builder, "duration_seconds", "The time of the migration", label,
+                getElapsedMillis() / 1000d);
+
+        appendHeader(builder, "phase_duration_seconds", "The time per phase of the migration");
+        for (Map.Entry<String, Long> e : phaseMillis.entrySet()) {
+            appendSample(builder, "phase_duration_seconds",
+                    label + ",phase=" + quotePrometheus(e.getKey()), e.getValue() / 1000d);
+        }
+
+        appendMetric(builder, "read_bytes", "The bytes of the database and the script read",
+                label, bytesRead);
+        appendMetric(builder, "written_bytes",
+                "The bytes of the script and the new database written", label, bytesWritten);
+        if (scriptSize >= 0) {
+            appendMetric(builder, "script_bytes", "The size of the script", label, scriptSize);
+        }
+
+        appendHeader(builder, "table_rows", "The rows per table of the new database");
+        for (Map.Entry<String, Long> e : tableRows.entrySet()) {
+            appendSample(builder, "table_rows", label + ",table=" + quotePrometheus(e.getKey()),
+                    e.getValue());
+        }
+
+        appendMetric(builder, "peak_heap_bytes", "The peak heap of the JVM", label, peakHeap);
+
+        appendHeader(builder, "driver_info", "The H2 drivers used by the migration");
+        for (String driver : drivers) {
+            appendSample(builder, "driver_info", label + ",version=" + quotePrometheus(driver),
+                    1);
+        }
+        return builder.toString();
+    }
+
+    private static void appendJson(StringBuilder builder, Map<String, Long> map) {
+        int i = 0;
+        for (Map.Entry<String, Long> e : map.entrySet()) {
+            builder.append(i++ > 0 ? ", " : "").append(quoteJson(e.getKey())).append(": ")
+                    .append(e.getValue());
+        }
+    }
+
+    private static void appendMetric(StringBuilder builder, String name, String help,
+            String labels, double value) {
+        appendHeader(builder, name, help);
+        appendSample(builder, name, labels, value);
+    }
+
+    private static void appendHeader(StringBuilder builder, String name, String help) {
+        builder.append("# HELP ").append(METRIC_PREFIX).append(name).append(' ').append(help)
+                .append("\n# TYPE ").append(METRIC_PREFIX).append(name).append(" gauge\n");
+    }
+
+    private static void appendSample(StringBuilder builder, String name, String labels,
+            double value) {
+        builder.append(METRIC_PREFIX).append(name).append('{').append(labels).append("} ")
+                .append(value == Math.rint(value) && Math.abs(value) < 1e15
+                        ? String.valueOf((long) value)
+                        : String.format(Locale.ROOT, "%.3f", value))
+                .append('\n');
+    }
+
+    static String quoteJson(String s) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    static String quotePrometheus(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
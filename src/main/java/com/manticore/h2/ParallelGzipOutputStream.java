@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A GZIP stream compressing independent blocks on several threads, like {@code pigz}. Every block
+ * is written as a complete GZIP member, so the result is a standard multi-member GZIP file, which
+ * is read by {@link java.util.zip.GZIPInputStream} and so by {@code RUNSCRIPT ... COMPRESSION GZIP}
+ * of all H2 versions.
+ *
+ * <p>
+ * The blocks are written in their original order. At most two blocks per thread are held in memory,
+ * before the writer blocks.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final OutputStream outputStream;
+    private final int blockSize;
+    private final int maxPending;
+    private final ForkJoinPool pool;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private byte[] block;
+    private int position = 0;
+    private boolean closed = false;
+
+    public ParallelGzipOutputStream(OutputStream outputStream, int threads) {
+        this(outputStream, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param outputStream the stream receiving the compressed data
+     * @param threads the number of threads compressing the blocks
+     * @param blockSize the size of one uncompressed block in bytes
+     */
+    public ParallelGzipOutputStream(OutputStream outputStream, int threads, int blockSize) {
+        if (threads < 1 || blockSize < 1) {
+            throw new IllegalArgumentException(
+                    "The number of threads and the block size must be positive.");
+        }
+        this.outputStream = outputStream;
+        this.blockSize = blockSize;
+        this.maxPending = 2 * threads;
+        this.pool = new ForkJoinPool(threads);
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[position++] = (byte) b;
+        if (position == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - position);
+            System.arraycopy(b, off, block, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            if (position == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the compressed blocks completed so far, but does not end the current block, since
+     * every block adds the overhead of a GZIP member.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeBlock(pending.pollFirst());
+        }
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (position > 0) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeBlock(pending.pollFirst());
+            }
+        } finally {
+            closed = true;
+            pool.shutdownNow();
+            outputStream.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = position;
+        pending.addLast(pool.submit(() -> compress(data, length)));
+
+        block = new byte[blockSize];
+        position = 0;
+
+        // the writer waits for the oldest block, when all threads are busy
+        while (pending.size() >= maxPending) {
+            writeBlock(pending.pollFirst());
+        }
+    }
+
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        try {
+            outputStream.write(future.get());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing.");
+        } catch (ExecutionException ex) {
+            throw new IOException("Failed to compress a block.", ex.getCause());
+        }
+    }
+
+    private static byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 4 + 64);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(bytes, 64 * 1024)) {
+            gzipOutputStream.write(data, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The stream has been closed.");
+        }
+    }
+}
@@ -87,10 +87,10 @@ public class Reference {
         if (!Objects.equals(deleteRule, reference.deleteRule)) {
             return false;
         }
-        if (!fkName.equals(reference.fkName)) {
+        if (!Objects.equals(fkName, reference.fkName)) {
             return false;
         }
-        if (!pkName.equals(reference.pkName)) {
+        if (!Objects.equals(pkName, reference.pkName)) {
             return false;
         }
         if (!Objects.equals(deferrability, reference.deferrability)) {
@@ -109,8 +109,8 @@ public class Reference {
         result = 31 * result + fkTableName.hashCode();
         result = 31 * result + (updateRule != null ? updateRule.hashCode() : 0);
         result = 31 * result + (deleteRule != null ? deleteRule.hashCode() : 0);
-        result = 31 * result + fkName.hashCode();
-        result = 31 * result + pkName.hashCode();
+        result = 31 * result + (fkName != null ? fkName.hashCode() : 0);
+        result = 31 * result + (pkName != null ? pkName.hashCode() : 0);
         result = 31 * result + (deferrability != null ? deferrability.hashCode() : 0);
         result = 31 * result + (columns != null ? columns.hashCode() : 0);
         return result;
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * Rewrites a plain SQL script, merging consecutive INSERTs into the same table and columns into
+ * multi-row INSERTs, e.g. {@code INSERT INTO a VALUES (1, 'a'), (2, 'b')}. Parsing and executing
+ * one statement per row dominates the import of scripts written by old H2 versions.
+ *
+ * <p>
+ * The order of all statements is kept: only INSERTs following each other directly are merged and
+ * any other statement ends the current INSERT. Only INSERTs with a {@code VALUES} list of rows are
+ * merged, all other statements are copied as they are.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ScriptOptimizer {
+    public static final Logger LOGGER = Logger.getLogger(ScriptOptimizer.class.getName());
+
+    public static final int DEFAULT_ROWS_PER_INSERT = 1000;
+
+    private final int rowsPerInsert;
+
+    private long statements = 0;
+    private long writtenStatements = 0;
+    private long inserts = 0;
+    private long rows = 0;
+
+    // the INSERT, which is merged currently
+    private String prefix = null;
+    private final StringBuilder values = new StringBuilder();
+    private int valuesRows = 0;
+
+    /**
+     * @param rowsPerInsert the maximum number of rows of a merged INSERT
+     */
+    public ScriptOptimizer(int rowsPerInsert) {
+        if (rowsPerInsert < 1) {
+            throw new IllegalArgumentException("An INSERT must hold at least one row.");
+        }
+        this.rowsPerInsert = rowsPerInsert;
+    }
+
+    /**
+     * Writes the optimized script.
+     *
+     * @param source the plain UTF-8 script
+     * @param target the optimized script, which is replaced when it exists
+     * @return the number of written statements
+     */
+    public long optimize(Path source, Path target) throws IOException {
+        long start = System.currentTimeMillis();
+        try (ScriptStatementReader reader = new ScriptStatementReader(source);
+                Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        Files.newOutputStream(target), StandardCharsets.UTF_8), 1 << 20)) {
+            String sqlStr;
+            while ((sqlStr = reader.next()) != null) {
+                statements++;
+
+                int valuesIndex = getValuesIndex(sqlStr);
+                int n = valuesIndex < 0 ? -1 : countRows(sqlStr, valuesIndex);
+                if (n < 0) {
+                    flush(writer);
+                    write(writer, sqlStr);
+                    continue;
+                }
+
+                String insertPrefix = sqlStr.substring(0, valuesIndex).trim();
+                if (!insertPrefix.equals(prefix)) {
+                    flush(writer);
+                    prefix = insertPrefix;
+                } else {
+                    values.append(",\n");
+                }
+                values.append(sqlStr, sqlStr.indexOf('(', valuesIndex), sqlStr.length());
+                valuesRows += n;
+                rows += n;
+
+                if (valuesRows >= rowsPerInsert) {
+                    flush(writer);
+                }
+            }
+            flush(writer);
+        }
+
+        LOGGER.info("Optimized " + statements + " statements of " + source + " into "
+                + getWrittenStatements() + " statements with " + rows + " rows in "
+                + inserts + " INSERTs in " + (System.currentTimeMillis() - start) + " ms.");
+        return getWrittenStatements();
+    }
+
+    /**
+     * @return the number of statements of the source script
+     */
+    public long getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the number of statements of the optimized script
+     */
+    public long getWrittenStatements() {
+        return writtenStatements;
+    }
+
+    /**
+     * @return the number of merged INSERTs written into the optimized script
+     */
+    public long getInserts() {
+        return inserts;
+    }
+
+    private void flush(Writer writer) throws IOException {
+        if (prefix != null) {
+            writer.write(prefix);
+            writer.write(" VALUES ");
+            writer.append(values);
+            writer.write(";\n");
+            writtenStatements++;
+            inserts++;
+
+            prefix = null;
+            values.setLength(0);
+            valuesRows = 0;
+        }
+    }
+
+    private void write(Writer writer, String sqlStr) throws IOException {
+        writer.write(sqlStr);
+        writer.write(";\n");
+        writtenStatements++;
+    }
+
+    /**
+     * @return the position of the keyword {@code VALUES} of an {@code INSERT INTO} or -1
+     */
+    static int getValuesIndex(String sqlStr) {
+        if (!sqlStr.regionMatches(true, 0, "INSERT INTO", 0, 11)) {
+            return -1;
+        }
+
+        int depth = 0;
+        char quote = 0;
+        for (int i = 11; i < sqlStr.length(); i++) {
+            char c = sqlStr.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth == 0 && (c == 'V' || c == 'v')
+                    && sqlStr.regionMatches(true, i, "VALUES", 0, 6)
+                    && isDelimiter(sqlStr.charAt(i - 1))
+                    && (i + 6 == sqlStr.length() || isDelimiter(sqlStr.charAt(i + 6)))) {
+                return i;
+            } else if (isCommentOrDollarQuote(sqlStr, i)) {
+                // comments and dollar quotes are not worth the effort
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of rows of a {@code VALUES} list or -1, when anything follows the rows
+     */
+    static int countRows(String sqlStr, int valuesIndex) {
+        int n = 0;
+        int depth = 0;
+        char quote = 0;
+        boolean separated = true;
+        for (int i = valuesIndex + 6; i < sqlStr.length(); i++) {
+            char c = sqlStr.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (depth > 0) {
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (isCommentOrDollarQuote(sqlStr, i)) {
+                    return -1;
+                }
+            } else if (c == '(' && separated) {
+                depth++;
+                n++;
+                separated = false;
+            } else if (c == ',' && !separated) {
+                separated = true;
+            } else if (!Character.isWhitespace(c)) {
+                return -1;
+            }
+        }
+        return depth == 0 && quote == 0 && !separated ? n : -1;
+    }
+
+    private static boolean isCommentOrDollarQuote(String sqlStr, int i) {
+        if (i + 1 == sqlStr.length()) {
+            return false;
+        }
+        char c = sqlStr.charAt(i);
+        char next = sqlStr.charAt(i + 1);
+        return c == '-' && next == '-' || c == '/' && (next == '/' || next == '*')
+                || c == '$' && next == '$';
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || c == ')' || c == '(' || c == '"';
+    }
+}
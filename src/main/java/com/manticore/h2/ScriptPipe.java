@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded in-memory pipe between a script producer (e.g. the {@code SCRIPT} of the old H2
+ * version) and the {@code RUNSCRIPT} of the new H2 version.
+ *
+ * <p>
+ * H2 can't read a script from a stream directly, but all supported versions resolve a
+ * {@code classpath:} file name via the Thread's Context ClassLoader when the resource is not found
+ * in the H2 Jar itself. So the pipe exposes its input side as such a resource, see
+ * {@link #getFileName()} and {@link #getClassLoader(ClassLoader)}.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ScriptPipe implements Closeable {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final String RESOURCE_PREFIX = "com/manticore/h2/pipe/";
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final String resourceName;
+    private final int chunkSize;
+    private final ArrayBlockingQueue<byte[]> queue;
+    private final PipeOutputStream outputStream;
+    private final PipeInputStream inputStream;
+    private final AtomicLong bytesTransferred = new AtomicLong();
+
+    private volatile Throwable failure = null;
+    private volatile boolean closed = false;
+
+    public ScriptPipe() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param chunkSize the size of one buffered chunk in bytes
+     * @param capacity the maximum number of chunks held in memory, before the producer blocks
+     */
+    public ScriptPipe(int chunkSize, int capacity) {
+        this.resourceName = RESOURCE_PREFIX + UUID.randomUUID() + ".sql";
+        this.chunkSize = chunkSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.outputStream = new PipeOutputStream();
+        this.inputStream = new PipeInputStream();
+    }
+
+    /**
+     * @return the file name to be used with {@code RUNSCRIPT FROM}
+     */
+    public String getFileName() {
+        return "classpath:/" + resourceName;
+    }
+
+    /**
+     * @param parent the current Context ClassLoader
+     * @return a ClassLoader, which serves the input side of this pipe for {@link #getFileName()}
+     */
+    public ClassLoader getClassLoader(ClassLoader parent) {
+        return new ClassLoader(parent) {
+            @Override
+            public InputStream getResourceAsStream(String name) {
+                // H2 1.3 asks with a leading slash, H2 1.4 and 2.x without
+                String n = name.startsWith("/") ? name.substring(1) : name;
+                return resourceName.equals(n) ? inputStream : super.getResourceAsStream(name);
+            }
+        };
+    }
+
+    public OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * Signals the consumer, that the producer failed and the script is incomplete. The consumer
+     * will receive an {@link IOException} instead of an End-Of-Stream.
+     *
+     * @param throwable the reason of the failure
+     */
+    public void fail(Throwable throwable) {
+        failure = throwable;
+        outputStream.finish();
+    }
+
+    /**
+     * Abandons the pipe from the consumer side, when the consumer failed before reaching the
+     * End-Of-Stream. A producer blocked on the full pipe fails instead of waiting forever.
+     */
+    public void abort() {
+        closed = true;
+        queue.clear();
+    }
+
+    /**
+     * Closes the pipe from the consumer side and releases a blocked producer.
+     */
+    @Override
+    public void close() {
+        abort();
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        private byte[] buffer = new byte[chunkSize];
+        private int position = 0;
+        private boolean finished = false;
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (closed) {
+                        throw new IOException("The Script Pipe has been closed by the consumer.");
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to the Script Pipe.");
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (position > 0) {
+                byte[] chunk = new byte[position];
+                System.arraycopy(buffer, 0, chunk, 0, position);
+                put(chunk);
+                position = 0;
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                int n = Math.min(len, buffer.length - position);
+                System.arraycopy(b, off, buffer, position, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!finished) {
+                flushBuffer();
+                finished = true;
+                put(END_OF_STREAM);
+            }
+        }
+
+        private synchronized void finish() {
+            if (!finished) {
+                finished = true;
+                queue.clear();
+                queue.offer(END_OF_STREAM);
+            }
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        private byte[] chunk = null;
+        private int position = 0;
+        private boolean eof = false;
+
+        private boolean nextChunk() throws IOException {
+            while (!eof && (chunk == null || position == chunk.length)) {
+                try {
+                    chunk = queue.take();
+                    position = 0;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "Interrupted while reading from the Script Pipe.");
+                }
+                if (chunk == END_OF_STREAM) {
+                    eof = true;
+                }
+            }
+            if (eof && failure != null) {
+                throw new IOException("The Script producer failed.", failure);
+            }
+            return !eof;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            bytesTransferred.incrementAndGet();
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            bytesTransferred.addAndGet(n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+            ScriptPipe.this.close();
+        }
+    }
+}
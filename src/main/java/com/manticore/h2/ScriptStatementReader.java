@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Logger;
+
+/**
+ * Splits a plain UTF-8 SQL script into its statements, reading the file through memory-mapped
+ * regions instead of a Reader. The script is scanned byte by byte, since all the delimiters are
+ * ASCII and never part of a multi-byte UTF-8 character, and only the returned statements are
+ * decoded.
+ *
+ * <p>
+ * A statement ends with a semicolon outside of string literals {@code '...'}, quoted identifiers
+ * {@code "..."}, dollar quoted blocks {@code $$...$$} and comments {@code -- ...},
+ * {@code // ...} and {@code /* ... *}{@code /}. The leading and trailing whitespace and comments
+ * are not part of a statement and empty statements are skipped.
+ *
+ * <p>
+ * A statement is always returned from a single mapped region. When a statement does not end
+ * inside the current region, the next region is mapped from the start of the statement and grows
+ * until it holds the whole statement.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ScriptStatementReader implements Closeable {
+    public static final Logger LOGGER = Logger.getLogger(ScriptStatementReader.class.getName());
+
+    public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+    public static final int MAX_REGION_SIZE = Integer.MAX_VALUE - 8;
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    // the classes of the bytes outside of quotes and comments
+    private static final byte CONTENT = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte DELIMITER = 2;
+    private static final byte[] CLASSES = new byte[256];
+
+    static {
+        for (char c : new char[] {' ', '\n', '\r', '\t', '\f'}) {
+            CLASSES[c] = WHITESPACE;
+        }
+        for (char c : new char[] {';', '\'', '"', '-', '/', '$'}) {
+            CLASSES[c] = DELIMITER;
+        }
+    }
+
+    private static final int DEFAULT = 0;
+    private static final int SINGLE_QUOTE = 1;
+    private static final int DOUBLE_QUOTE = 2;
+    private static final int DOLLAR_QUOTE = 3;
+    private static final int LINE_COMMENT = 4;
+    private static final int BLOCK_COMMENT = 5;
+
+    private final FileChannel channel;
+    private final long size;
+    private int regionSize;
+
+    private MappedByteBuffer region = null;
+    private ByteBuffer view = null;
+    private ByteBuffer chunkView = null;
+    private long regionStart = 0;
+
+    // the bytes of the region are scanned from a heap copy, which is much faster than reading the
+    // mapped buffer byte by byte
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkStart = 0;
+    private int chunkEnd = 0;
+
+    private long position = 0;
+    private long statementPosition = -1;
+    private long statementCount = 0;
+    private byte[] bytes = new byte[1024];
+
+    public ScriptStatementReader(Path path) throws IOException {
+        this(path, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param path the plain SQL script
+     * @param regionSize the size of the mapped regions, which grows for larger statements
+     */
+    public ScriptStatementReader(Path path, int regionSize) throws IOException {
+        if (regionSize < 16) {
+            throw new IllegalArgumentException("The region must hold at least 16 bytes.");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * Returns the next statement as a read-only view of the mapped file. The view is valid only
+     * until the next call and must not be kept.
+     *
+     * @return the UTF-8 bytes of the next statement without the semicolon or NULL at the end of
+     *         the script
+     */
+    public ByteBuffer nextBuffer() throws IOException {
+        while (position < size) {
+            map(position);
+
+            long start = position;
+            int i = (int) (start - regionStart);
+            int limit = region.limit();
+            boolean last = regionStart + limit >= size;
+
+            int state = DEFAULT;
+            int contentStart = -1;
+            int contentEnd = -1;
+            boolean remap = false;
+
+            while (i < limit) {
+                byte b = byteAt(i);
+                switch (state) {
+                    case SINGLE_QUOTE:
+                    case DOUBLE_QUOTE:
+                        // the quoted text is skipped at once, a doubled quote opens it again
+                        byte quote = state == SINGLE_QUOTE ? (byte) '\'' : (byte) '"';
+                        i = skip(i, limit, quote, (byte) -1);
+                        if (i < limit) {
+                            state = DEFAULT;
+                            contentEnd = i + 1;
+                        }
+                        break;
+                    case LINE_COMMENT:
+                        i = skip(i, limit, (byte) '\n', (byte) -1);
+                        if (i < limit) {
+                            state = DEFAULT;
+                        }
+                        break;
+                    case DOLLAR_QUOTE:
+                    case BLOCK_COMMENT:
+                        byte first = state == DOLLAR_QUOTE ? (byte) '$' : (byte) '*';
+                        byte second = state == DOLLAR_QUOTE ? (byte) '$' : (byte) '/';
+                        i = skip(i, limit, first, (byte) -1);
+                        if (i < limit) {
+                            int n = next(i, limit, last);
+                            if (n < 0) {
+                                remap = true;
+                            } else if (n == second) {
+                                if (state == DOLLAR_QUOTE) {
+                                    contentEnd = i + 2;
+                                }
+                                state = DEFAULT;
+                                i++;
+                            }
+                        }
+                        break;
+                    default:
+                        if (b == ';') {
+                            position = regionStart + i + 1;
+                            if (contentStart >= 0) {
+                                return statement(contentStart, contentEnd);
+                            }
+                            start = position;
+                        } else if (CLASSES[b & 0xFF] == WHITESPACE) {
+                            // whitespace is not part of the content
+                        } else if (CLASSES[b & 0xFF] == CONTENT) {
+                            // the plain content is skipped at once
+                            if (contentStart < 0) {
+                                contentStart = i;
+                            }
+                            i = skip(i + 1, limit, (byte) -1, WHITESPACE);
+                            contentEnd = i;
+                            while (CLASSES[byteAt(contentEnd - 1) & 0xFF] == WHITESPACE) {
+                                contentEnd--;
+                            }
+                            i--;
+                        } else if (b == '-' || b == '/' || b == '$') {
+                            int n = next(i, limit, last);
+                            if (n < 0) {
+                                remap = true;
+                            } else if (n == '-' && b == '-' || n == '/' && b == '/') {
+                                state = LINE_COMMENT;
+                                i++;
+                            } else if (n == '*' && b == '/') {
+                                state = BLOCK_COMMENT;
+                                i++;
+                            } else {
+                                if (contentStart < 0) {
+                                    contentStart = i;
+                                }
+                                contentEnd = i + 1;
+                                if (n == '$' && b == '$') {
+                                    state = DOLLAR_QUOTE;
+                                    contentEnd = ++i + 1;
+                                }
+                            }
+                        } else {
+                            if (contentStart < 0) {
+                                contentStart = i;
+                            }
+                            contentEnd = i + 1;
+                            if (b == '\'') {
+                                state = SINGLE_QUOTE;
+                            } else if (b == '"') {
+                                state = DOUBLE_QUOTE;
+                            }
+                        }
+                }
+                if (remap) {
+                    break;
+                }
+                i++;
+            }
+
+            if (!remap && last) {
+                // the last statement does not need a semicolon, an open quote ends with the file
+                position = size;
+                if (contentStart >= 0) {
+                    boolean quoted = state == SINGLE_QUOTE || state == DOUBLE_QUOTE
+                            || state == DOLLAR_QUOTE;
+                    return statement(contentStart, quoted ? limit : contentEnd);
+                }
+            } else {
+                // the statement continues beyond the region, so the region is mapped again
+                if (start == regionStart) {
+                    if (regionSize == MAX_REGION_SIZE) {
+                        throw new IOException("The statement at position " + start
+                                + " exceeds " + MAX_REGION_SIZE + " bytes.");
+                    }
+                    regionSize = (int) Math.min(MAX_REGION_SIZE, 2L * regionSize);
+                    LOGGER.fine("Grow the mapped region to " + regionSize + " bytes at position "
+                            + start);
+                }
+                position = start;
+                region = null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the next statement without the semicolon or NULL at the end of the script
+     */
+    public String next() throws IOException {
+        ByteBuffer buffer = nextBuffer();
+        if (buffer == null) {
+            return null;
+        }
+
+        int length = buffer.remaining();
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, 2 * bytes.length)];
+        }
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the position of the first byte of the last returned statement
+     */
+    public long getStatementPosition() {
+        return statementPosition;
+    }
+
+    /**
+     * @return the number of statements returned so far
+     */
+    public long getStatementCount() {
+        return statementCount;
+    }
+
+    /**
+     * @return the position after the last returned statement
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region = null;
+        view = null;
+        chunkView = null;
+        channel.close();
+    }
+
+    /**
+     * Counts the statements of a script without decoding them.
+     *
+     * @param path the plain SQL script
+     * @return the number of statements
+     */
+    public static long count(Path path) throws IOException {
+        try (ScriptStatementReader reader = new ScriptStatementReader(path)) {
+            while (reader.nextBuffer() != null) {
+                // only counted
+            }
+            return reader.getStatementCount();
+        }
+    }
+
+    // the byte after the position or -1, when the region ends before the script
+    private int next(int i, int limit, boolean last) {
+        if (i + 1 < limit) {
+            return region.get(i + 1) & 0xFF;
+        }
+        return last ? 0 : -1;
+    }
+
+    private void map(long start) throws IOException {
+        if (region == null || start < regionStart || start >= regionStart + region.limit()) {
+            regionStart = start;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(regionSize, size - start));
+
+            // faulting the pages in one go is much faster than faulting them while scanning
+            region.load();
+            view = region.asReadOnlyBuffer();
+            chunkView = region.duplicate();
+            chunkStart = 0;
+            chunkEnd = 0;
+        }
+    }
+
+    /**
+     * Skips the bytes up to a class or until a byte.
+     *
+     * @return the position of the first byte, which is the given byte or above the given class
+     */
+    private int skip(int i, int limit, byte stop, byte maxClass) {
+        while (i < limit) {
+            byteAt(i);
+            byte[] data = chunk;
+            int offset = chunkStart;
+            int end = Math.min(chunkEnd, limit) - offset;
+            int k = i - offset;
+            if (maxClass >= 0) {
+                while (k < end && CLASSES[data[k] & 0xFF] <= maxClass) {
+                    k++;
+                }
+            } else {
+                while (k < end && data[k] != stop) {
+                    k++;
+                }
+            }
+            i = k + offset;
+            if (k < end) {
+                return i;
+            }
+        }
+        return i;
+    }
+
+    private byte byteAt(int i) {
+        if (i >= chunkEnd || i < chunkStart) {
+            chunkStart = i;
+            chunkEnd = Math.min(i + CHUNK_SIZE, region.limit());
+            chunkView.limit(chunkEnd).position(chunkStart);
+            chunkView.get(chunk, 0, chunkEnd - chunkStart);
+        }
+        return chunk[i - chunkStart];
+    }
+
+    private ByteBuffer statement(int start, int end) {
+        statementPosition = regionStart + start;
+        statementCount++;
+        view.limit(end).position(start);
+        return view;
+    }
+}
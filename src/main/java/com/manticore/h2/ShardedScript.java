@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A script split into one file per table, so the tables can be exported and imported at the same
+ * time by several connections. A single table can be imported again later.
+ *
+ * <p>
+ * The folder holds a {@value #SCHEMA_FILE_NAME} with the DDL needed before the data, one data
+ * script per table and a {@value #FINISH_FILE_NAME} with the indices, the unique and referential
+ * constraints and the triggers, which are created after the data. The {@value #MANIFEST_FILE_NAME}
+ * lists the data scripts with their tables, row counts and dependencies.
+ *
+ * <p>
+ * The data scripts of tables with LOBs share the helper table and functions of the H2 script, so
+ * they are imported one after the other, while all other data scripts are imported in parallel.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ShardedScript {
+    public static final Logger LOGGER = Logger.getLogger(ShardedScript.class.getName());
+
+    public static final String MANIFEST_FILE_NAME = "manifest.properties";
+    public static final String SCHEMA_FILE_NAME = "schema.sql";
+    public static final String FINISH_FILE_NAME = "finish.sql";
+
+    // the journal step of one imported data script, followed by the file name
+    public static final String SHARD = "SHARD";
+
+    // the statements of the DDL, which are executed after the data
+    private static final Pattern FINISH_PATTERN = Pattern.compile(
+            "^(CREATE\\s+(UNIQUE\\s+|HASH\\s+|SPATIAL\\s+)*INDEX\\s"
+                    + "|CREATE\\s+(FORCE\\s+)?TRIGGER\\s"
+                    + "|ALTER\\s+TABLE\\s.*\\sADD\\s+CONSTRAINT\\s.*\\s"
+                    + "(FOREIGN\\s+KEY|UNIQUE)\\s*\\()",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    private final File folder;
+    private final List<Shard> shards;
+
+    private ShardedScript(File folder, List<Shard> shards) {
+        this.folder = folder;
+        this.shards = Collections.unmodifiableList(shards);
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Exports a database into a folder, writing the data scripts of the tables at the same time.
+     *
+     * @param connection the connection to the database
+     * @param connectionSupplier opens more read-only connections to the same database
+     * @param folder the folder receiving the scripts, which is created when needed
+     * @param threads the number of tables exported at the same time
+     * @return the exported script
+     */
+    public static ShardedScript export(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, File folder, int threads)
+            throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        Files.createDirectories(folder.toPath());
+
+        MetaData metaData = new MetaData(connection);
+        metaData.build();
+        Collection<Table> tables = DirectCopy.getTables(metaData);
+
+        // the DDL is split into the statements before and after the data
+        try (Writer schemaWriter = openWriter(new File(folder, SCHEMA_FILE_NAME));
+                Writer finishWriter = openWriter(new File(folder, FINISH_FILE_NAME));
+                Statement st = connection.createStatement();
+                ResultSet rs = st.executeQuery("SCRIPT NODATA")) {
+            while (rs.next()) {
+                String sqlStr = rs.getString(1);
+                writeStatement(FINISH_PATTERN.matcher(sqlStr).find() ? finishWriter
+                        : schemaWriter, sqlStr);
+            }
+        }
+
+        ArrayList<Shard> shards = new ArrayList<>();
+        for (Table table : tables) {
+            TreeSet<String> dependencies = new TreeSet<>();
+            for (Reference reference : table.references.values()) {
+                dependencies.add(reference.pkTableSchema + "." + reference.pkTableName);
+            }
+            dependencies.remove(table.tableSchema + "." + table.tableName);
+            shards.add(new Shard(table.tableSchema, table.tableName,
+                    String.format("data_%04d.sql", shards.size() + 1), -1, false,
+                    new ArrayList<>(dependencies)));
+        }
+
+        ArrayList<Shard> exportedShards = new ArrayList<>();
+        ConnectionWorkers.execute(shards, connection, connectionSupplier, threads, "Export",
+                (shard, c) -> {
+                    Shard exportedShard = exportShard(shard, c, folder);
+                    synchronized (exportedShards) {
+                        exportedShards.add(exportedShard);
+                    }
+                });
+        exportedShards.sort(Comparator.comparing(shard -> shard.fileName));
+
+        ShardedScript script = new ShardedScript(folder, exportedShards);
+        script.writeManifest();
+
+        LOGGER.info("Exported " + exportedShards.size() + " tables into " + folder + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        return script;
+    }
+
+    /**
+     * Reads the manifest of an exported script.
+     *
+     * @param folder the folder holding the scripts
+     * @return the exported script
+     */
+    public static ShardedScript read(File folder) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream inputStream =
+                Files.newInputStream(new File(folder, MANIFEST_FILE_NAME).toPath())) {
+            manifest.load(inputStream);
+        }
+
+        ArrayList<Shard> shards = new ArrayList<>();
+        int n = Integer.parseInt(manifest.getProperty("tables", "0"));
+        for (int i = 1; i <= n; i++) {
+            String prefix = "table." + i + ".";
+            String dependencies = manifest.getProperty(prefix + "dependencies", "");
+            shards.add(new Shard(manifest.getProperty(prefix + "schema"),
+                    manifest.getProperty(prefix + "name"),
+                    manifest.getProperty(prefix + "file"),
+                    Long.parseLong(manifest.getProperty(prefix + "rows", "-1")),
+                    Boolean.parseBoolean(manifest.getProperty(prefix + "lobs")),
+                    dependencies.isEmpty() ? new ArrayList<>()
+                            : List.of(dependencies.split(","))));
+        }
+        return new ShardedScript(folder, shards);
+    }
+
+    /**
+     * Imports the script into a new database: the schema first, then the data scripts at the same
+     * time and finally the indices and constraints.
+     *
+     * @param connection the connection to the new database
+     * @param connectionSupplier opens more connections to the new database
+     * @param options the options of {@code RUNSCRIPT}, e.g. {@code VARIABLE_BINARY}
+     * @param threads the number of tables imported at the same time
+     * @param journal the journal of the migration or NULL. The data script of a resumed migration
+     *        deletes the partial rows of its table first.
+     */
+    public void importScripts(Connection connection,
+            DirectCopy.ConnectionSupplier connectionSupplier, String options, int threads,
+            MigrationJournal journal) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        boolean resumed = journal != null && journal.isDone(MigrationJournal.SCHEMA);
+        if (!resumed) {
+            runScript(connection, new File(folder, SCHEMA_FILE_NAME), options);
+            if (journal != null) {
+                journal.done(MigrationJournal.SCHEMA);
+            }
+        }
+
+        // the tables with LOBs are imported by one task, the largest tables are started first
+        ArrayList<Shard> lobShards = new ArrayList<>();
+        ArrayList<Shard> otherShards = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (journal != null && journal.isDone(SHARD + " " + shard.fileName)) {
+                LOGGER.info("Skip the completed import of " + shard);
+            } else if (shard.lobs) {
+                lobShards.add(shard);
+            } else {
+                otherShards.add(shard);
+            }
+        }
+        otherShards.sort(Comparator.comparingLong((Shard shard) -> shard.rows).reversed());
+        for (Shard shard : shards) {
+            if (lobShards.contains(shard) || otherShards.contains(shard)) {
+                MigrationProgress.addExpectedRows(Math.max(0, shard.rows));
+            }
+        }
+
+        ArrayList<List<Shard>> tasks = new ArrayList<>();
+        if (!lobShards.isEmpty()) {
+            tasks.add(lobShards);
+        }
+        for (Shard shard : otherShards) {
+            tasks.add(List.of(shard));
+        }
+
+        ConnectionWorkers.execute(tasks, connection, connectionSupplier, threads, "Import",
+                (task, c) -> {
+                    for (Shard shard : task) {
+                        if (resumed) {
+                            try (Statement st = c.createStatement()) {
+                                st.executeUpdate("DELETE FROM " + shard.getQualifiedName());
+                            }
+                        }
+                        runScript(c, new File(folder, shard.fileName), options);
+                        MigrationProgress.addRows(Math.max(0, shard.rows));
+                        if (journal != null) {
+                            journal.done(SHARD + " " + shard.fileName);
+                        }
+                    }
+                });
+
+        if (journal == null || !journal.isDone(MigrationJournal.INDICES)) {
+            runScript(connection, new File(folder, FINISH_FILE_NAME), options);
+            if (journal != null) {
+                journal.done(MigrationJournal.INDICES);
+            }
+        }
+
+        LOGGER.info("Imported " + shards.size() + " tables from " + folder + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Replaces the rows of one table with the rows of its data script. The referential integrity
+     * is disabled meanwhile, so the rows can be deleted and inserted in any order.
+     *
+     * @param connection the connection to the database
+     * @param tableName the name of the table, optionally with its schema
+     * @param options the options of {@code RUNSCRIPT}
+     */
+    public void reimport(Connection connection, String tableName, String options)
+            throws SQLException, IOException {
+        Shard shard = getShard(tableName);
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+            try {
+                st.executeUpdate("DELETE FROM " + shard.getQualifiedName());
+                runScript(connection, new File(folder, shard.fileName), options);
+            } finally {
+                st.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+            }
+        }
+        LOGGER.info("Imported " + shard + " again.");
+    }
+
+    /**
+     * @param tableName the name of the table, optionally with its schema
+     * @return the data script of the table
+     */
+    public Shard getShard(String tableName) {
+        for (Shard shard : shards) {
+            if (tableName.equalsIgnoreCase(shard.tableSchema + "." + shard.tableName)
+                    || tableName.equalsIgnoreCase(shard.tableName)) {
+                return shard;
+            }
+        }
+        throw new IllegalArgumentException(
+                "The table " + tableName + " is not part of the script " + folder);
+    }
+
+    private static Shard exportShard(Shard shard, Connection connection, File folder)
+            throws SQLException, IOException {
+        long rows;
+        boolean lobs = false;
+        try (Statement st = connection.createStatement()) {
+            try (ResultSet rs =
+                    st.executeQuery("SELECT COUNT(*) FROM " + shard.getQualifiedName())) {
+                rows = rs.next() ? rs.getLong(1) : 0;
+            }
+
+            // only the data and the helpers of the LOBs are kept from the script of the table
+            try (Writer writer = openWriter(new File(folder, shard.fileName));
+                    ResultSet rs = st.executeQuery(
+                            "SCRIPT NOSETTINGS TABLE " + shard.getQualifiedName())) {
+                while (rs.next()) {
+                    String sqlStr = rs.getString(1);
+                    boolean lob = sqlStr.contains("SYSTEM_LOB_STREAM")
+                            || sqlStr.contains("SYSTEM_COMBINE_");
+                    if (lob || sqlStr.regionMatches(true, 0, "INSERT INTO ", 0, 12)) {
+                        writeStatement(writer, sqlStr);
+                        lobs |= lob;
+                    }
+                }
+            }
+        }
+        LOGGER.fine("Exported " + rows + " rows of " + shard);
+        return new Shard(shard.tableSchema, shard.tableName, shard.fileName, rows, lobs,
+                shard.dependencies);
+    }
+
+    private void writeManifest() throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("tables", String.valueOf(shards.size()));
+        for (int i = 1; i <= shards.size(); i++) {
+            Shard shard = shards.get(i - 1);
+            String prefix = "table." + i + ".";
+            manifest.setProperty(prefix + "schema", shard.tableSchema);
+            manifest.setProperty(prefix + "name", shard.tableName);
+            manifest.setProperty(prefix + "file", shard.fileName);
+            manifest.setProperty(prefix + "rows", String.valueOf(shard.rows));
+            manifest.setProperty(prefix + "lobs", String.valueOf(shard.lobs));
+            manifest.setProperty(prefix + "dependencies", String.join(",", shard.dependencies));
+        }
+
+        try (OutputStream outputStream =
+                Files.newOutputStream(new File(folder, MANIFEST_FILE_NAME).toPath())) {
+            manifest.store(outputStream, "H2 script with one data script per table");
+        }
+    }
+
+    private static void runScript(Connection connection, File file, String options)
+            throws SQLException {
+        try (Statement st = connection.createStatement()) {
+            st.executeUpdate(String.format("RUNSCRIPT FROM '%s' %s", file.getAbsolutePath(),
+                    options != null ? options : ""));
+        }
+    }
+
+    private static Writer openWriter(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.UTF_8), ScriptPipe.DEFAULT_CHUNK_SIZE);
+    }
+
+    private static void writeStatement(Writer writer, String sqlStr) throws IOException {
+        writer.write(sqlStr);
+        if (!sqlStr.endsWith(";")) {
+            writer.write(';');
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * The data script of one table.
+     */
+    public static class Shard {
+        public final String tableSchema;
+        public final String tableName;
+        public final String fileName;
+        public final long rows;
+        public final boolean lobs;
+        public final List<String> dependencies;
+
+        public Shard(String tableSchema, String tableName, String fileName, long rows,
+                boolean lobs, List<String> dependencies) {
+            this.tableSchema = tableSchema;
+            this.tableName = tableName;
+            this.fileName = fileName;
+            this.rows = rows;
+            this.lobs = lobs;
+            this.dependencies = Collections.unmodifiableList(dependencies);
+        }
+
+        public String getQualifiedName() {
+            return "\"" + tableSchema.replace("\"", "\"\"") + "\".\""
+                    + tableName.replace("\"", "\"\"") + "\"";
+        }
+
+        @Override
+        public String toString() {
+            return tableSchema + "." + tableName + " (" + fileName + ", " + rows + " rows)";
+        }
+    }
+}
@@ -45,6 +45,7 @@ public class Table implements Comparable<Table> {
     TreeSet<Column> columns = new TreeSet<>();
     TreeMap<String, Index> indices = new TreeMap<>();
     PrimaryKey primaryKey = null;
+    TreeMap<String, Reference> references = new TreeMap<>();
 
     public Table(
             String tableCatalog,
@@ -232,10 +233,10 @@ public class Table implements Comparable<Table> {
                 // auto incremented
 
                 String isGeneratedColumn =
-                        rs.getString(
+                        getOptionalString(rs,
                                 "IS_GENERATEDCOLUMN"); // IS_GENERATEDCOLUMN String => Indicates
                 // whether this is a
-                // generated column
+                // generated column, missing before JDBC 4.1 (H2 1.3)
 
                 Column column =
                         new Column(
@@ -275,6 +276,14 @@ public class Table implements Comparable<Table> {
         }
     }
 
+    private static String getOptionalString(ResultSet rs, String columnLabel) {
+        try {
+            return rs.getString(columnLabel);
+        } catch (SQLException ex) {
+            return null;
+        }
+    }
+
     public void getIndices(DatabaseMetaData metaData, boolean approximate) throws SQLException {
         ResultSet rs = null;
         try {
@@ -414,6 +423,63 @@ public class Table implements Comparable<Table> {
         }
     }
 
+    public void getReferences(DatabaseMetaData metaData) throws SQLException {
+        ResultSet rs = null;
+        try {
+            rs = metaData.getImportedKeys(tableCatalog, tableSchema, tableName);
+            while (rs.next()) {
+                String pkTableCatalog = rs.getString("PKTABLE_CAT"); // PKTABLE_CAT String =>
+                // primary key table catalog being imported (may be null)
+                String pkTableSchema = rs.getString("PKTABLE_SCHEM"); // PKTABLE_SCHEM String =>
+                // primary key table schema being imported (may be null)
+                String pkTableName = rs.getString("PKTABLE_NAME"); // PKTABLE_NAME String =>
+                // primary key table name being imported
+                String pkColumnName = rs.getString("PKCOLUMN_NAME"); // PKCOLUMN_NAME String =>
+                // primary key column name being imported
+                String fkTableCatalog = rs.getString("FKTABLE_CAT"); // FKTABLE_CAT String =>
+                // foreign key table catalog (may be null)
+                String fkTableSchema = rs.getString("FKTABLE_SCHEM"); // FKTABLE_SCHEM String =>
+                // foreign key table schema (may be null)
+                String fkTableName = rs.getString("FKTABLE_NAME"); // FKTABLE_NAME String =>
+                // foreign key table name
+                String fkColumnName = rs.getString("FKCOLUMN_NAME"); // FKCOLUMN_NAME String =>
+                // foreign key column name
+                Short updateRule = rs.getShort("UPDATE_RULE"); // UPDATE_RULE short => What
+                // happens to a foreign key when the primary key is updated
+                Short deleteRule = rs.getShort("DELETE_RULE"); // DELETE_RULE short => What
+                // happens to the foreign key when primary is deleted
+                String fkName = rs.getString("FK_NAME"); // FK_NAME String => foreign key name
+                // (may be null)
+                String pkName = rs.getString("PK_NAME"); // PK_NAME String => primary key name
+                // (may be null)
+                Short deferrability = rs.getShort("DEFERRABILITY"); // DEFERRABILITY short =>
+                // can the evaluation of foreign key constraints be deferred until commit
+
+                String key = fkName != null
+                        ? fkName.toUpperCase()
+                        : (pkTableSchema + "." + pkTableName).toUpperCase();
+                Reference reference = references.get(key);
+                if (reference == null) {
+                    reference =
+                            new Reference(pkTableCatalog, pkTableSchema, pkTableName,
+                                    fkTableCatalog, fkTableSchema, fkTableName, updateRule,
+                                    deleteRule, fkName, pkName, deferrability);
+                    references.put(key, reference);
+                }
+                reference.columns.add(new String[] {pkColumnName, fkColumnName});
+            }
+
+        } finally {
+            try {
+                if (rs != null && !rs.isClosed()) {
+                    rs.close();
+                }
+            } catch (Exception ignore) {
+                // nothing
+            }
+        }
+    }
+
     @Override
     public int compareTo(Table o) {
         int compareTo = tableCatalog.compareToIgnoreCase(o.tableCatalog);
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class BulkLoadProfileTest extends MigrationTestBase {
+    public static final int CACHE_SIZE = 256 * 1024;
+
+    private static String getSetting(Statement st, String name) throws Exception {
+        try (ResultSet rs = st.executeQuery("SELECT * FROM INFORMATION_SCHEMA.SETTINGS")) {
+            while (rs.next()) {
+                if (rs.getString(1).equals(name)) {
+                    return rs.getString(2);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void applyRestoreTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (String version : new String[] {H2_VERSION_FROM, H2_VERSION_TO}) {
+            DriverRecord driverRecord = H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), version);
+            BulkLoadProfile profile = new BulkLoadProfile(driverRecord, CACHE_SIZE);
+            Assertions.assertEquals(version.startsWith("1."),
+                    profile.getSettings().containsKey("UNDO_LOG"));
+
+            Driver driver = H2MigrationTool.loadDriver(driverRecord);
+            try (Connection con = driver.connect("jdbc:h2:" + folder.resolve(version),
+                    properties); Statement st = con.createStatement()) {
+                String cacheSize = getSetting(st, "info.CACHE_MAX_SIZE");
+                String retentionTime = getSetting(st, "RETENTION_TIME");
+                Assertions.assertNotEquals("0", retentionTime);
+
+                profile.apply(con);
+                Assertions.assertEquals(String.valueOf(CACHE_SIZE / 1024),
+                        getSetting(st, "info.CACHE_MAX_SIZE"));
+                Assertions.assertEquals("0", getSetting(st, "RETENTION_TIME"));
+
+                profile.restore(con);
+                Assertions.assertEquals(cacheSize, getSetting(st, "info.CACHE_MAX_SIZE"));
+                Assertions.assertEquals(retentionTime, getSetting(st, "RETENTION_TIME"));
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+    }
+
+    @Test
+    public void migrateBulkLoadTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("bulk").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+            st.executeUpdate("INSERT INTO a SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS
+                    + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        new H2MigrationTool().setBulkLoad(true).migrate(H2_VERSION_FROM, H2_VERSION_TO,
+                databaseFileName + ".mv.db", "SA", "", "", "", "VARIABLE_BINARY", true, true,
+                "");
+
+        driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM a")) {
+            Assertions.assertTrue(rs.next());
+            Assertions.assertEquals(ROWS, rs.getInt(1));
+
+            // the production settings have been restored before the shutdown
+            Assertions.assertEquals("45000", getSetting(st, "RETENTION_TIME"));
+            Assertions.assertEquals("500", getSetting(st, "WRITE_DELAY"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void failedImportTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("failed").toString();
+        Files.write(Paths.get(databaseFileName + ".sql"), List.of(
+                "CREATE TABLE a (id INT PRIMARY KEY);",
+                "INSERT INTO a VALUES (1);",
+                "INSERT INTO a VALUES (1);"), StandardCharsets.UTF_8);
+
+        Assertions.assertThrows(Exception.class, () -> new H2MigrationTool().setBulkLoad(true)
+                .migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".sql", "SA", "", "",
+                        "", "", true, false, ""));
+
+        // the import of a resumed migration does not start from the bulk load settings
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            Assertions.assertEquals("45000", getSetting(st, "RETENTION_TIME"));
+            Assertions.assertEquals("500", getSetting(st, "WRITE_DELAY"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class CompactModeTest extends MigrationTestBase {
+    @Test
+    public void migrateCompactModeTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (H2MigrationTool.CompactMode compactMode : H2MigrationTool.CompactMode.values()) {
+            String databaseFileName = folder.resolve(compactMode.name()).toString();
+            Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+            try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                    Statement st = con.createStatement()) {
+                for (String tableName : new String[] {"a", "b", "\"c d\""}) {
+                    st.executeUpdate("CREATE TABLE " + tableName
+                            + " (id INT PRIMARY KEY, field1 VARCHAR(40))");
+                    st.executeUpdate("INSERT INTO " + tableName
+                            + " SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+                }
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+
+            // the tables are analyzed on 3 connections with a sample of 100 rows each
+            new H2MigrationTool().setCompactMode(compactMode).setCompactTime(500)
+                    .setAnalyzeSampleSize(100).setAnalyzeThreads(3)
+                    .migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".mv.db", "SA",
+                            "", "", "", "VARIABLE_BINARY", true, true, "");
+
+            // a BACKGROUND compaction only shrinks the database, which is complete already
+            long size = Files.size(Paths.get(databaseFileName + ".224.mv.db"));
+            H2MigrationTool.awaitCompactions();
+            Assertions.assertTrue(Files.size(Paths.get(databaseFileName + ".224.mv.db")) <= size,
+                    compactMode.name());
+
+            driver = H2MigrationTool.loadDriver(H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+            try (Connection con = driver.connect(
+                    "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                    Statement st = con.createStatement()) {
+                for (String tableName : new String[] {"a", "b", "\"c d\""}) {
+                    try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM " + tableName)) {
+                        Assertions.assertTrue(rs.next());
+                        Assertions.assertEquals(ROWS, rs.getInt(1), compactMode.name());
+                    }
+                }
+
+                // ANALYZE has written the selectivity of the columns
+                try (ResultSet rs = st.executeQuery("SELECT COUNT(*) "
+                        + "FROM INFORMATION_SCHEMA.COLUMNS WHERE SELECTIVITY IS NOT NULL "
+                        + "AND SELECTIVITY <> 50")) {
+                    Assertions.assertTrue(rs.next());
+                    Assertions.assertTrue(rs.getInt(1) >= 6, compactMode.name());
+                }
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class CopyMigrateTest extends MigrationTestBase {
+    public static final String[] H2_VERSIONS =
+            new String[] {
+                    "1.3.176", "1.4.200", "2.1.214"
+            };
+
+    public static final String DDL_STR =
+            "CREATE TABLE a\n" +
+                    "  (\n" +
+                    "     id INT AUTO_INCREMENT PRIMARY KEY,\n" +
+                    "     field1 varchar(40) UNIQUE, \n" +
+                    "     field2 CLOB,\n" +
+                    "     field3 BLOB,\n" +
+                    "     field4 DECIMAL(12,2) DEFAULT 0 NOT NULL,\n" +
+                    "     field5 TIMESTAMP\n" +
+                    "  );\n" +
+                    "\n" +
+                    "CREATE INDEX a_field4_idx ON a(field4 DESC);\n" +
+                    "\n" +
+                    "CREATE TABLE b\n" +
+                    "  (\n" +
+                    "     id INT PRIMARY KEY,\n" +
+                    "     field2 varchar(40)\n" +
+                    "  );\n" +
+                    "\n" +
+                    "ALTER TABLE b\n" +
+                    "  ADD FOREIGN KEY (field2) REFERENCES a(field1) ON DELETE CASCADE;\n" +
+                    "\n" +
+                    "CREATE TABLE c\n" +
+                    "  (\n" +
+                    "     id INT PRIMARY KEY,\n" +
+                    "     parent_id INT REFERENCES c(id)\n" +
+                    "  );";
+
+    private final Map<String, String> databaseFileNames = new LinkedHashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (String versionStr : H2_VERSIONS) {
+            String fileName = folder.resolve("copy_" + versionStr).toString();
+            databaseFileNames.put(versionStr, fileName);
+
+            Driver driver = H2MigrationTool.loadDriver(
+                    H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(),
+                            versionStr));
+            try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                    Statement st = con.createStatement()) {
+                for (String sqlStr : DDL_STR.split(";")) {
+                    st.executeUpdate(sqlStr);
+                }
+                st.executeUpdate("INSERT INTO a (field1, field2, field3, field4, field5) "
+                        + "SELECT 'a' || x, REPEAT('x', 2000), X'0102', x / 100, "
+                        + "TIMESTAMP '2020-01-01 12:00:00' FROM SYSTEM_RANGE(1, " + ROWS + ")");
+                st.executeUpdate("INSERT INTO b SELECT x, 'a' || x "
+                        + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+                st.executeUpdate("INSERT INTO c SELECT x, CASEWHEN(x > 1, x - 1, NULL) "
+                        + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+    }
+
+    private static void assertDatabase(String databaseFileName) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName
+                .substring(0, databaseFileName.length() - ".mv.db".length())
+                + ";IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+
+            try (ResultSet rs = st.executeQuery(
+                    "SELECT (SELECT COUNT(*) FROM a), (SELECT COUNT(*) FROM b), "
+                            + "(SELECT COUNT(*) FROM c), (SELECT SUM(LENGTH(field2)) FROM a), "
+                            + "(SELECT SUM(field4) FROM a), (SELECT COUNT(*) FROM a "
+                            + "WHERE field3 = X'0102' AND field5 = TIMESTAMP '2020-01-01 12:00:00')"
+                            + " FROM DUAL")) {
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals(ROWS, rs.getInt(1));
+                Assertions.assertEquals(ROWS, rs.getInt(2));
+                Assertions.assertEquals(ROWS, rs.getInt(3));
+                Assertions.assertEquals(2000L * ROWS, rs.getLong(4));
+                Assertions.assertTrue(rs.getBigDecimal(5).signum() > 0);
+                Assertions.assertEquals(ROWS, rs.getInt(6));
+            }
+
+            // the identity continues after the copied rows
+            st.executeUpdate("INSERT INTO a (field1) VALUES ('new')");
+            try (ResultSet rs = st.executeQuery("SELECT id, field4 FROM a WHERE field1 = 'new'")) {
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals(ROWS + 1, rs.getInt(1));
+                Assertions.assertEquals(0, rs.getBigDecimal(2).signum());
+            }
+
+            // the foreign keys and the unique constraint have been created
+            Assertions.assertThrows(SQLException.class,
+                    () -> st.executeUpdate("INSERT INTO b VALUES (-1, 'does not exist')"));
+            Assertions.assertThrows(SQLException.class,
+                    () -> st.executeUpdate("INSERT INTO c VALUES (-1, -2)"));
+            Assertions.assertThrows(SQLException.class,
+                    () -> st.executeUpdate("INSERT INTO a (field1) VALUES ('a1')"));
+
+            st.executeUpdate("DELETE FROM a WHERE field1 = 'a1'");
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM b")) {
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals(ROWS - 1, rs.getInt(1));
+            }
+
+            try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM INFORMATION_SCHEMA.INDEXES "
+                    + "WHERE INDEX_NAME = 'A_FIELD4_IDX'")) {
+                Assertions.assertTrue(rs.next());
+                Assertions.assertEquals(1, rs.getInt(1));
+            }
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateCopyTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool()
+                .setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                .setBatchSize(100)
+                .setCommitInterval(1000);
+
+        for (Map.Entry<String, String> e : databaseFileNames.entrySet()) {
+            String databaseFileName = e.getValue()
+                    + (e.getKey().startsWith("1.3") ? ".h2.db" : ".mv.db");
+            H2MigrationTool.ScriptResult scriptResult = tool.migrate(e.getKey(), H2_VERSION_TO,
+                    databaseFileName, "SA", "", "", "", "", true, true, "");
+
+            Assertions.assertTrue(new File(scriptResult.scriptFileName).exists());
+            Assertions.assertFalse(new File(e.getValue() + ".sql").exists());
+            assertDatabase(scriptResult.scriptFileName);
+        }
+    }
+
+    @Test
+    public void migrateParallelCopyTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool()
+                .setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                .setCopyThreads(4)
+                .setCopyPartitionSize(1000);
+
+        for (String versionStr : new String[] {"1.4.200", "2.1.214"}) {
+            H2MigrationTool.ScriptResult scriptResult = tool.migrate(versionStr, H2_VERSION_TO,
+                    databaseFileNames.get(versionStr) + ".mv.db", "SA", "", "", "", "", true,
+                    true, "");
+
+            assertDatabase(scriptResult.scriptFileName);
+        }
+    }
+
+    @Test
+    public void resumeCopyTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String fileName = databaseFileNames.get("1.4.200");
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "1.4.200"));
+        try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                Statement st = con.createStatement()) {
+            // a row violating the foreign key breaks the copy of table b
+            st.executeUpdate("SET REFERENTIAL_INTEGRITY FALSE");
+            st.executeUpdate("INSERT INTO b VALUES (" + (ROWS + 1) + ", 'does not exist')");
+            st.executeUpdate("SET REFERENTIAL_INTEGRITY TRUE");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        H2MigrationTool tool = new H2MigrationTool()
+                .setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                .setCommitInterval(1000);
+        Assertions.assertThrows(Exception.class, () -> tool.migrate("1.4.200", H2_VERSION_TO,
+                fileName + ".mv.db", "SA", "", "", "", "", true, false, ""));
+
+        File journalFile = new File(fileName + ".224" + MigrationJournal.FILE_EXTENSION);
+        Assertions.assertTrue(journalFile.isFile());
+
+        driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "1.4.200"));
+        try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("DELETE FROM b WHERE id = " + (ROWS + 1));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        // without resuming, the partial database must not be overwritten
+        Assertions.assertThrows(Exception.class, () -> tool.migrate("1.4.200", H2_VERSION_TO,
+                fileName + ".mv.db", "SA", "", "", "", "", false, false, ""));
+
+        H2MigrationTool.ScriptResult scriptResult = tool.setResume(true).migrate("1.4.200",
+                H2_VERSION_TO, fileName + ".mv.db", "SA", "", "", "", "", false, false, "");
+
+        Assertions.assertFalse(journalFile.exists());
+        assertDatabase(scriptResult.scriptFileName);
+    }
+
+    @Test
+    public void rangesTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.214"));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileNames.get("2.1.214") + ";IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE d (name VARCHAR(40) UNIQUE, id INT)");
+            st.executeUpdate("INSERT INTO d SELECT CASEWHEN(x > 1, 'd' || x, NULL), x "
+                    + "FROM SYSTEM_RANGE(1, 1000)");
+
+            MetaData metaData = new MetaData(con);
+            metaData.build();
+
+            DirectCopy directCopy = new DirectCopy(con, con).setPartitionSize(100);
+            for (Table table : DirectCopy.getTables(metaData)) {
+                long rowCount = 0;
+                List<DirectCopy.TableRange> ranges = directCopy.getRanges(table, con);
+                for (DirectCopy.TableRange range : ranges) {
+                    try (PreparedStatement pst = con.prepareStatement("SELECT COUNT(*) FROM "
+                            + table.tableName + " WHERE " + range.condition)) {
+                        for (int i = 0; i < range.parameters.length; i++) {
+                            pst.setObject(i + 1, range.parameters[i]);
+                        }
+                        try (ResultSet rs = pst.executeQuery()) {
+                            Assertions.assertTrue(rs.next());
+                            rowCount += rs.getLong(1);
+                        }
+                    }
+                }
+
+                if (table.tableName.equals("D")) {
+                    // the scanned ranges of the unique key and one range for the NULL values
+                    Assertions.assertEquals(11, ranges.size());
+                    Assertions.assertEquals(1000, rowCount);
+                } else {
+                    Assertions.assertEquals(50, ranges.size());
+                    Assertions.assertEquals(ROWS, rowCount);
+                }
+            }
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void skippedObjectsTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (String versionStr : H2_VERSIONS) {
+            Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), versionStr));
+            try (Connection con = driver.connect(
+                    "jdbc:h2:" + databaseFileNames.get(versionStr) + ";IFEXISTS=TRUE",
+                    properties);
+                    Statement st = con.createStatement()) {
+                // the sequence of the identity column of table a is not listed
+                Assertions.assertEquals(List.of(), DirectCopy.getSkippedObjects(con));
+
+                st.executeUpdate("CREATE VIEW v AS SELECT id FROM b");
+                st.executeUpdate("CREATE SEQUENCE s");
+                st.executeUpdate("ALTER TABLE b ADD CONSTRAINT b_ck CHECK (id > 0)");
+                st.executeUpdate("CREATE DOMAIN d AS INT");
+                st.executeUpdate("CREATE ALIAS my_abs FOR \"java.lang.Math.abs(int)\"");
+                st.executeUpdate("CREATE CONSTANT k VALUE 1");
+                st.executeUpdate("CREATE USER bob PASSWORD 'bob'");
+                st.executeUpdate("CREATE ROLE r");
+                st.executeUpdate("GRANT SELECT ON b TO bob");
+                Assertions.assertEquals(List.of("VIEW PUBLIC.V", "SEQUENCE PUBLIC.S",
+                        "CHECK PUBLIC.B_CK", "DOMAIN PUBLIC.D", "ALIAS PUBLIC.MY_ABS",
+                        "CONSTANT PUBLIC.K", "USER BOB", "ROLE R", "GRANT TO BOB"),
+                        DirectCopy.getSkippedObjects(con), versionStr);
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+    }
+
+    @Test
+    public void droppedDefaultTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String fileName = databaseFileNames.get("1.4.200");
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "1.4.200"));
+        try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE SEQUENCE s");
+            st.executeUpdate("CREATE TABLE e (id INT DEFAULT NEXT VALUE FOR s PRIMARY KEY)");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        List<String> messages = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord logRecord) {
+                messages.add(logRecord.getMessage());
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        DirectCopy.LOGGER.addHandler(handler);
+        try {
+            new H2MigrationTool().setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                    .migrate("1.4.200", H2_VERSION_TO, fileName + ".mv.db", "SA", "", "", "",
+                            "", true, true, "");
+        } finally {
+            DirectCopy.LOGGER.removeHandler(handler);
+        }
+
+        // the DEFAULT drawing from the skipped sequence is reported with its column
+        Assertions.assertTrue(messages.stream().anyMatch(m -> m.contains("NEXT VALUE FOR")
+                && m.contains("\"PUBLIC\".\"E\".\"ID\"")), messages.toString());
+        Assertions.assertTrue(messages.stream().anyMatch(m -> m.contains("SEQUENCE PUBLIC.S")),
+                messages.toString());
+    }
+
+    @Test
+    public void dependencyLevelsTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "1.4.200"));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileNames.get("1.4.200") + ";IFEXISTS=TRUE", properties)) {
+            MetaData metaData = new MetaData(con);
+            metaData.build();
+
+            ArrayList<Reference> deferredReferences = new ArrayList<>();
+            List<List<Table>> levels = DirectCopy
+                    .getDependencyLevels(DirectCopy.getTables(metaData), deferredReferences);
+
+            Assertions.assertEquals(2, levels.size());
+            Assertions.assertEquals(2, levels.get(0).size());
+            Assertions.assertEquals("B", levels.get(1).get(0).tableName);
+
+            // only the self reference of C needs to be created after the data
+            Assertions.assertEquals(1, deferredReferences.size());
+            Assertions.assertEquals("C", deferredReferences.get(0).fkTableName);
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
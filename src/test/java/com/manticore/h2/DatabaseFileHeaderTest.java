@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DatabaseFileHeaderTest extends MigrationTestBase {
+    private String createDatabase(String version, String parameters) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseName = folder.resolve("db" + version).toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), version));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseName + parameters, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY)");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+        return databaseName;
+    }
+
+    private static boolean isCompatible(DatabaseFileHeader header, String version)
+            throws Exception {
+        return header.isCompatible(
+                H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(), version));
+    }
+
+    @Test
+    public void mvStoreTest() throws Exception {
+        DatabaseFileHeader header = DatabaseFileHeader.read(createDatabase("1.4.200", ""));
+        Assertions.assertEquals(DatabaseFileHeader.Storage.MV_STORE, header.getStorage());
+        Assertions.assertEquals(1, header.getFormat());
+        Assertions.assertTrue(header.getCreated() > 0);
+        Assertions.assertTrue(isCompatible(header, "1.4.196"));
+        Assertions.assertFalse(isCompatible(header, "2.1.214"));
+
+        header = DatabaseFileHeader.read(createDatabase("2.1.214", ""));
+        Assertions.assertEquals(2, header.getFormat());
+        Assertions.assertTrue(isCompatible(header, "2.0.206"));
+        Assertions.assertFalse(isCompatible(header, "1.4.200"));
+        Assertions.assertFalse(isCompatible(header, "2.2.224"));
+
+        header = DatabaseFileHeader.read(createDatabase("2.2.224", ""));
+        Assertions.assertEquals(3, header.getFormat());
+        Assertions.assertTrue(isCompatible(header, "2.3.232"));
+        Assertions.assertFalse(isCompatible(header, "2.1.214"));
+    }
+
+    @Test
+    public void pageStoreAndUnknownTest() throws Exception {
+        DatabaseFileHeader header =
+                DatabaseFileHeader.read(createDatabase("1.4.200", ";MV_STORE=FALSE"));
+        Assertions.assertEquals(DatabaseFileHeader.Storage.PAGE_STORE, header.getStorage());
+        Assertions.assertTrue(isCompatible(header, "1.3.176"));
+        Assertions.assertFalse(isCompatible(header, "2.0.201"));
+
+        // a file which is not understood is tried with all drivers
+        Files.write(folder.resolve("broken.mv.db"),
+                "This is not a H2 database.".getBytes(StandardCharsets.UTF_8));
+        header = DatabaseFileHeader.read(folder.resolve("broken").toString());
+        Assertions.assertEquals(DatabaseFileHeader.Storage.UNKNOWN, header.getStorage());
+        Assertions.assertTrue(isCompatible(header, "1.3.176"));
+        Assertions.assertTrue(isCompatible(header, "2.3.232"));
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DeferredScriptTest extends MigrationTestBase {
+    @Test
+    public void splitTest() throws Exception {
+        Path source = folder.resolve("source.sql");
+        Files.write(source, ("CREATE TABLE \"PUBLIC\".\"A\" (id INT PRIMARY KEY, b INT, c INT);\n"
+                + "CREATE INDEX \"PUBLIC\".\"A_B\" ON \"PUBLIC\".\"A\"(\"B\" ASC NULLS FIRST);\n"
+                + "CREATE UNIQUE INDEX \"PUBLIC\".\"A_C\" ON \"PUBLIC\".\"A\"(\"C\");\n"
+                + "CREATE HASH INDEX PUBLIC.A_BC ON PUBLIC.A(B, C);\n"
+                + "INSERT INTO \"PUBLIC\".\"A\" VALUES (1, 1, 1);\n"
+                + "CREATE TABLE b (id INT);\n"
+                + "CREATE INDEX b_id ON b (id);\n").getBytes(StandardCharsets.UTF_8));
+
+        Path target = folder.resolve("target.sql");
+        DeferredScript script = DeferredScript.split(source, target, true, false);
+        Assertions.assertEquals(3, script.getIndexCount());
+
+        String load = new String(Files.readAllBytes(target), StandardCharsets.UTF_8);
+        Assertions.assertTrue(load.contains("CREATE UNIQUE INDEX"), load);
+        Assertions.assertFalse(load.contains("A_B\""), load);
+        Assertions.assertFalse(load.contains("A_BC"), load);
+        Assertions.assertFalse(load.contains("b_id"), load);
+        Assertions.assertTrue(load.contains("INSERT INTO"), load);
+
+        Assertions.assertEquals(0, DeferredScript.split(source, target, false, false)
+                .getIndexCount());
+        Assertions.assertEquals(Files.readString(source), Files.readString(target));
+    }
+
+    @Test
+    public void splitForeignKeysTest() throws Exception {
+        Path source = folder.resolve("source.sql");
+        Files.write(source, ("CREATE TABLE \"PUBLIC\".\"A\" (id INT PRIMARY KEY);\n"
+                + "CREATE INDEX \"PUBLIC\".\"A_ID\" ON \"PUBLIC\".\"A\"(\"ID\");\n"
+                + "ALTER TABLE \"PUBLIC\".\"B\" ADD CONSTRAINT \"PUBLIC\".\"FK_B\" "
+                + "FOREIGN KEY(\"A_ID\", \"A,2\") REFERENCES \"PUBLIC\".\"A\"(\"ID\", \"ID2\") "
+                + "NOCHECK;\n"
+                + "ALTER TABLE PUBLIC.C ADD FOREIGN KEY (A_ID) REFERENCES PUBLIC.A (ID) "
+                + "ON DELETE CASCADE;\n"
+                + "ALTER TABLE PUBLIC.C ADD CONSTRAINT C_PK PRIMARY KEY (ID);\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        Path target = folder.resolve("target.sql");
+        DeferredScript script = DeferredScript.split(source, target, false, true);
+        Assertions.assertEquals(0, script.getIndexCount());
+
+        List<DeferredScript.ForeignKey> foreignKeys = script.getForeignKeys();
+        Assertions.assertEquals(2, foreignKeys.size());
+        DeferredScript.ForeignKey foreignKey = foreignKeys.get(0);
+        Assertions.assertEquals("\"PUBLIC\".\"B\"", foreignKey.table);
+        Assertions.assertEquals("\"PUBLIC\".\"FK_B\"", foreignKey.name);
+        Assertions.assertEquals(List.of("\"A_ID\"", "\"A,2\""), foreignKey.columns);
+        Assertions.assertEquals("\"PUBLIC\".\"A\"", foreignKey.referencedTable);
+        Assertions.assertEquals(List.of("\"ID\"", "\"ID2\""), foreignKey.referencedColumns);
+        Assertions.assertTrue(foreignKey.noCheck);
+
+        foreignKey = foreignKeys.get(1);
+        Assertions.assertEquals("PUBLIC.C", foreignKey.table);
+        Assertions.assertNull(foreignKey.name);
+        Assertions.assertFalse(foreignKey.noCheck);
+        Assertions.assertTrue(foreignKey.getNoCheckSql().endsWith("CASCADE NOCHECK"));
+
+        String load = new String(Files.readAllBytes(target), StandardCharsets.UTF_8);
+        Assertions.assertTrue(load.contains("A_ID\" ON"), load);
+        Assertions.assertTrue(load.contains("C_PK PRIMARY KEY"), load);
+        Assertions.assertFalse(load.contains("FOREIGN KEY"), load);
+    }
+
+    @Test
+    public void violatedForeignKeysTest() throws Exception {
+        Path source = folder.resolve("source.sql");
+        Files.write(source, ("CREATE TABLE a (id INT PRIMARY KEY);\n"
+                + "CREATE TABLE b (id INT PRIMARY KEY, a_id INT);\n"
+                + "CREATE TABLE c (id INT PRIMARY KEY, a_id INT);\n"
+                + "INSERT INTO a VALUES (1), (2);\n"
+                + "INSERT INTO b VALUES (1, 1), (2, 3), (3, 4), (4, NULL);\n"
+                + "INSERT INTO c VALUES (1, 1), (2, 5);\n"
+                + "ALTER TABLE b ADD CONSTRAINT fk_b FOREIGN KEY (a_id) REFERENCES a (id);\n"
+                + "ALTER TABLE c ADD CONSTRAINT fk_c FOREIGN KEY (a_id) REFERENCES a (id) "
+                + "NOCHECK;\n").getBytes(StandardCharsets.UTF_8));
+
+        Path target = folder.resolve("target.sql");
+        DeferredScript script = DeferredScript.split(source, target, true, true);
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String url = "jdbc:h2:" + folder.resolve("violated");
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(url, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("RUNSCRIPT FROM '" + target + "'");
+
+            SQLException exception = Assertions.assertThrows(SQLException.class,
+                    () -> script.createForeignKeys(con, () -> driver.connect(url, properties),
+                            2));
+            Assertions.assertTrue(exception.getMessage().contains("fk_b"),
+                    exception.getMessage());
+            Assertions.assertTrue(exception.getMessage().contains(": 2 rows"),
+                    exception.getMessage());
+            Assertions.assertFalse(exception.getMessage().contains("fk_c"),
+                    exception.getMessage());
+
+            // the NOCHECK constraint has been created despite its violation
+            Assertions.assertEquals(1, script.getForeignKeys().get(1).getViolations());
+            Assertions.assertEquals(1, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+                    + "WHERE CONSTRAINT_TYPE = 'FOREIGN KEY'"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateDeferredTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("deferred").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            for (String tableName : new String[] {"a", "b", "c"}) {
+                st.executeUpdate("CREATE TABLE " + tableName
+                        + " (id INT PRIMARY KEY, field1 INT, field2 VARCHAR(40), field3 INT)");
+                st.executeUpdate("CREATE INDEX " + tableName + "_1 ON " + tableName
+                        + " (field1)");
+                st.executeUpdate("CREATE INDEX " + tableName + "_2 ON " + tableName
+                        + " (field2, field1)");
+                st.executeUpdate("CREATE UNIQUE INDEX " + tableName + "_3 ON " + tableName
+                        + " (field3)");
+                st.executeUpdate("INSERT INTO " + tableName + " SELECT x, MOD(x, 10), 'a' || x, "
+                        + "x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            }
+            st.executeUpdate("ALTER TABLE b ADD CONSTRAINT fk_b FOREIGN KEY (field3) "
+                    + "REFERENCES a (id)");
+            st.executeUpdate("ALTER TABLE c ADD CONSTRAINT fk_c FOREIGN KEY (id) "
+                    + "REFERENCES b (id)");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        H2MigrationTool tool = new H2MigrationTool().setDeferIndices(true)
+                .setDeferForeignKeys(true).setCopyThreads(3);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "",
+                "", "VARIABLE_BINARY", true, true, "");
+        Assertions.assertFalse(new File(databaseFileName + ".load.sql").exists());
+
+        driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            Assertions.assertEquals(9, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME REGEXP '^[ABC]_[123]$'"));
+            for (String tableName : new String[] {"a", "b", "c"}) {
+                Assertions.assertEquals(ROWS, getLong(st, "SELECT COUNT(*) FROM " + tableName
+                        + " WHERE field1 = MOD(id, 10)"));
+            }
+
+            // the unique index is still enforced
+            Assertions.assertThrows(Exception.class,
+                    () -> st.executeUpdate("INSERT INTO a VALUES (0, 0, 'a0', 1)"));
+
+            // the foreign keys are created and enforced
+            Assertions.assertEquals(2, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+                    + "WHERE CONSTRAINT_TYPE = 'FOREIGN KEY'"));
+            Assertions.assertThrows(Exception.class,
+                    () -> st.executeUpdate("INSERT INTO b VALUES (0, 0, 'b0', 0)"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateDeferredIndicesTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("indices").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY)");
+            st.executeUpdate("CREATE TABLE d (id INT PRIMARY KEY, a_id INT)");
+            st.executeUpdate("CREATE INDEX d_a_id ON d (a_id)");
+            st.executeUpdate("ALTER TABLE d ADD CONSTRAINT fk_d FOREIGN KEY (a_id) "
+                    + "REFERENCES a (id)");
+            st.executeUpdate("INSERT INTO a SELECT x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            st.executeUpdate("INSERT INTO d SELECT x, x FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        // the indices are deferred without deferring the foreign keys explicitly
+        H2MigrationTool tool = new H2MigrationTool().setDeferIndices(true).setCopyThreads(2);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "",
+                "", "VARIABLE_BINARY", true, true, "");
+
+        driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            // the foreign key uses the deferred index instead of creating its own
+            Assertions.assertEquals(0, getLong(st, "SELECT COUNT(*) FROM ("
+                    + "SELECT TABLE_NAME, COLUMNS FROM (SELECT TABLE_NAME, INDEX_NAME, "
+                    + "LISTAGG(COLUMN_NAME, ',') WITHIN GROUP (ORDER BY ORDINAL_POSITION) "
+                    + "COLUMNS FROM INFORMATION_SCHEMA.INDEX_COLUMNS "
+                    + "WHERE TABLE_SCHEMA = 'PUBLIC' GROUP BY TABLE_NAME, INDEX_NAME) "
+                    + "GROUP BY TABLE_NAME, COLUMNS HAVING COUNT(*) > 1)"));
+            Assertions.assertEquals(1, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.INDEXES WHERE INDEX_NAME = 'D_A_ID'"));
+            Assertions.assertEquals(1, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+                    + "WHERE CONSTRAINT_TYPE = 'FOREIGN KEY'"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateDeferredCompressedTest() throws Exception {
+        StringBuilder builder = new StringBuilder("CREATE TABLE a (id INT PRIMARY KEY);\n"
+                + "CREATE TABLE b (id INT PRIMARY KEY, a_id INT);\n");
+        for (int i = 1; i <= ROWS; i++) {
+            builder.append("INSERT INTO a VALUES (").append(i).append(");\n");
+            builder.append("INSERT INTO b VALUES (").append(i).append(", ").append(i)
+                    .append(");\n");
+        }
+        builder.append("ALTER TABLE b ADD CONSTRAINT fk_b FOREIGN KEY (a_id) "
+                + "REFERENCES a (id);\n");
+
+        Path scriptPath = folder.resolve("compressed.sql.gz");
+        try (OutputStream outputStream =
+                new GZIPOutputStream(Files.newOutputStream(scriptPath))) {
+            outputStream.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        H2MigrationTool tool = new H2MigrationTool().setDeferForeignKeys(true).setCopyThreads(2);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, scriptPath.toString(), "SA", "", "", "",
+                "", true, true, "");
+
+        // the compressed script is inflated and split, both copies are removed
+        Assertions.assertFalse(Files.exists(folder.resolve("compressed.inflated.sql")));
+        Assertions.assertFalse(Files.exists(folder.resolve("compressed.load.sql")));
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + folder.resolve("compressed.224") + ";IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            Assertions.assertEquals(ROWS, getLong(st, "SELECT COUNT(*) FROM b"));
+            Assertions.assertEquals(1, getLong(st, "SELECT COUNT(*) "
+                    + "FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS "
+                    + "WHERE CONSTRAINT_TYPE = 'FOREIGN KEY'"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverCacheTest {
+    public static final String DRIVER_FILE_NAME = "h2-1.4.200.bin";
+
+    private Path folder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("h2_driver_cache_");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void cacheTest() throws Exception {
+        Path driverPath = Paths.get(
+                DriverCacheTest.class.getResource("/drivers/" + DRIVER_FILE_NAME).toURI());
+        byte[] bytes = Files.readAllBytes(driverPath);
+
+        // an application Jar holding the H2 library
+        Path jarPath = folder.resolve("app.jar");
+        URI jarUri = URI.create("jar:" + jarPath.toUri());
+        try (FileSystem fileSystem = FileSystems.newFileSystem(jarUri, Map.of("create", "true"))) {
+            Files.createDirectories(fileSystem.getPath("/drivers"));
+            Files.write(fileSystem.getPath("/drivers", DRIVER_FILE_NAME), bytes);
+        }
+
+        Path cacheFolder = folder.resolve("cache");
+        try (FileSystem fileSystem = FileSystems.newFileSystem(jarUri, Map.of())) {
+            Path resource = fileSystem.getPath("/drivers", DRIVER_FILE_NAME);
+
+            DriverCache driverCache = new DriverCache(cacheFolder);
+            Path cachedPath = driverCache.get(resource);
+            driverCache.saveIndex();
+
+            StringBuilder sha256 = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sha256.append(String.format("%02x", b));
+            }
+            Assertions.assertEquals(cacheFolder.resolve(sha256.toString()).resolve(
+                    DRIVER_FILE_NAME), cachedPath);
+            Assertions.assertArrayEquals(bytes, Files.readAllBytes(cachedPath));
+
+            // a later start finds the cached library by the index, without extracting it again
+            long lastModified = Files.getLastModifiedTime(cachedPath).toMillis();
+            Thread.sleep(10);
+            Assertions.assertEquals(cachedPath, new DriverCache(cacheFolder).get(resource));
+            Assertions.assertEquals(lastModified,
+                    Files.getLastModifiedTime(cachedPath).toMillis());
+            try (Stream<Path> paths = Files.list(cacheFolder)) {
+                Assertions.assertEquals(2, paths.count());
+            }
+        }
+    }
+}
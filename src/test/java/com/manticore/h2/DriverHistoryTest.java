@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverHistoryTest {
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = Files.createTempFile("h2_driver_history_", ".index");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void historyTest() throws Exception {
+        H2MigrationTool.readDriverRecords();
+        List<DriverRecord> driverRecords =
+                new ArrayList<>(H2MigrationTool.getDriverRecords());
+        DriverRecord driverRecord214 =
+                H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.214");
+        DriverRecord driverRecord206 =
+                H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(), "2.0.206");
+
+        DriverHistory driverHistory = new DriverHistory(file);
+        Assertions.assertEquals(driverRecords, driverHistory.sort("family", driverRecords));
+
+        driverHistory.record("family", driverRecord214, 2000);
+        driverHistory.record("family", driverRecord206, 1000);
+        driverHistory.record("family", driverRecord214, 400);
+        driverHistory.save();
+
+        // a later run tries the fastest known driver first, the unknown drivers keep their order
+        List<DriverRecord> sorted = new DriverHistory(file).sort("family", driverRecords);
+        Assertions.assertEquals(driverRecord206, sorted.get(0));
+        Assertions.assertEquals(driverRecord214, sorted.get(1));
+        Assertions.assertEquals(driverRecords.get(0), sorted.get(2));
+        Assertions.assertEquals(driverRecords.size(), sorted.size());
+
+        Assertions.assertEquals(driverRecords,
+                new DriverHistory(file).sort("other family", driverRecords));
+    }
+}
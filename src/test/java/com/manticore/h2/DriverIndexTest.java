@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverIndexTest {
+    private Path folder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("h2_driver_index_");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void indexTest() throws Exception {
+        Path driverPath = folder.resolve(DriverCacheTest.DRIVER_FILE_NAME);
+        Files.copy(Paths.get(DriverIndexTest.class
+                .getResource("/drivers/" + DriverCacheTest.DRIVER_FILE_NAME).toURI()),
+                driverPath);
+        URL url = driverPath.toUri().toURL();
+        Path indexPath = folder.resolve(DriverIndex.INDEX_FILE_NAME);
+
+        DriverIndex driverIndex = new DriverIndex(indexPath);
+        Assertions.assertTrue(driverIndex.register(url, "1.4.200", ""));
+        Assertions.assertFalse(driverIndex.isProbed(url));
+        driverIndex.setProbed(url, false);
+        driverIndex.save();
+
+        // the run skips the library which failed the probe
+        Assertions.assertFalse(driverIndex.register(url, "1.4.200", ""));
+
+        // a later start probes it again, since the failure may have been transient
+        driverIndex = new DriverIndex(indexPath);
+        Assertions.assertTrue(driverIndex.register(url, "1.4.200", ""));
+        Assertions.assertFalse(driverIndex.isProbed(url));
+
+        // a changed library is registered and probed again
+        Assertions.assertTrue(driverPath.toFile().setLastModified(
+                driverPath.toFile().lastModified() - 10000));
+        Assertions.assertTrue(driverIndex.register(url, "1.4.200", ""));
+        Assertions.assertFalse(driverIndex.isProbed(url));
+        driverIndex.setProbed(url, true);
+        driverIndex.save();
+
+        Assertions.assertTrue(new DriverIndex(indexPath).isProbed(url));
+    }
+
+    @Test
+    public void probeOnFirstUseTest() throws Exception {
+        Path indexPath = folder.resolve(DriverIndex.INDEX_FILE_NAME);
+        H2MigrationTool.setDriverIndex(new DriverIndex(indexPath));
+        try {
+            H2MigrationTool.readDriverRecords();
+            DriverRecord driverRecord = H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), "2.2.224");
+
+            H2MigrationTool.unloadDriver(H2MigrationTool.loadDriver(driverRecord));
+            Assertions.assertTrue(H2MigrationTool.getDriverIndex().isProbed(driverRecord.url));
+            Assertions.assertTrue(new DriverIndex(indexPath).isProbed(driverRecord.url));
+        } finally {
+            H2MigrationTool.setDriverIndex(null);
+        }
+    }
+}
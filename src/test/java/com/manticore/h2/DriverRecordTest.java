@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.TreeSet;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverRecordTest {
+
+    @Test
+    public void buildOrderTest() throws Exception {
+        // the builds are ordered by their position in the log, not by their id
+        DriverRecord older = new DriverRecord(2, 3, 239, "41c30c1c7", null);
+        DriverRecord newer = new DriverRecord(2, 3, 239, "d947b5978", null);
+        DriverRecord release = new DriverRecord(2, 3, 239, "", null);
+        Assertions.assertTrue(older.compareTo(newer) < 0);
+        Assertions.assertTrue(release.compareTo(older) < 0);
+
+        // builds missing in the log are kept apart
+        TreeSet<DriverRecord> driverRecords = new TreeSet<>();
+        driverRecords.add(new DriverRecord(2, 3, 239, "000000001", null));
+        driverRecords.add(new DriverRecord(2, 3, 239, "000000002", null));
+        Assertions.assertEquals(2, driverRecords.size());
+    }
+
+    @Test
+    public void resolveTest() throws Exception {
+        H2MigrationTool.readDriverRecords();
+
+        Assertions.assertEquals("2.1.214", H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.214").getVersion());
+        Assertions.assertEquals("2.1.214", H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1").getVersion());
+        Assertions.assertEquals("1.4.200", H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "1.4").getVersion());
+        Assertions.assertThrows(Exception.class, () -> H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.213"));
+        Assertions.assertThrows(Exception.class, () -> H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), "3.0"));
+
+        Assertions.assertEquals("2.1.212", H2MigrationTool
+                .getNearestDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.213")
+                .getVersion());
+        Assertions.assertEquals("2.1.214", H2MigrationTool
+                .getNearestDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.214-000000001")
+                .getVersion());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Driver;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class DriverRegistryTest {
+
+    @AfterEach
+    public void tearDown() {
+        DriverRegistry.setMaxIdle(DriverRegistry.DEFAULT_MAX_IDLE);
+    }
+
+    @Test
+    public void reuseAndEvictTest() throws Exception {
+        H2MigrationTool.readDriverRecords();
+        DriverRecord driverRecord =
+                H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(), "2.1.214");
+
+        Driver driver = H2MigrationTool.loadDriver(driverRecord);
+        Driver driver1 = H2MigrationTool.loadDriver(driverRecord);
+
+        // the same warm loader serves both
+        Assertions.assertSame(driver, driver1);
+        Assertions.assertTrue(DriverRegistry.isLoaded(driverRecord.url));
+
+        // a referenced loader is never evicted
+        DriverRegistry.setMaxIdle(0);
+        H2MigrationTool.unloadDriver(driver);
+        Assertions.assertTrue(DriverRegistry.isLoaded(driverRecord.url));
+
+        // the last release evicts the idle loader
+        H2MigrationTool.unloadDriver(driver1);
+        Assertions.assertFalse(DriverRegistry.isLoaded(driverRecord.url));
+
+        Driver driver2 = H2MigrationTool.loadDriver(driverRecord);
+        try {
+            Assertions.assertNotSame(driver, driver2);
+            Assertions.assertNotSame(driver.getClass().getClassLoader(),
+                    driver2.getClass().getClassLoader());
+        } finally {
+            H2MigrationTool.unloadDriver(driver2);
+        }
+    }
+}
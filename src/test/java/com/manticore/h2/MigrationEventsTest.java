@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationEventsTest extends MigrationTestBase {
+    @Test
+    public void recordMigrationTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("events").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+            st.executeUpdate("INSERT INTO a SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS
+                    + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        Path recordingPath = folder.resolve("migration.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MigrationEvents.DriverLoadEvent.class);
+            recording.enable(MigrationEvents.ExportEvent.class);
+            recording.enable(MigrationEvents.ImportEvent.class);
+            recording.enable(MigrationEvents.CopyEvent.class);
+            recording.enable(MigrationEvents.StatementGroupEvent.class);
+            recording.enable(MigrationEvents.MaintenanceEvent.class);
+            recording.start();
+
+            new H2MigrationTool().migrate(H2_VERSION_FROM, H2_VERSION_TO,
+                    databaseFileName + ".mv.db", "SA", "", "", "", "VARIABLE_BINARY", true, true,
+                    "");
+            new H2MigrationTool().setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                    .setCopyThreads(2).setCopyPartitionSize(1000).migrate(H2_VERSION_FROM,
+                            H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "", "", "",
+                            true, true, "");
+
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        Map<String, Integer> counts = new HashMap<>();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingPath);
+        for (RecordedEvent event : events) {
+            counts.merge(event.getEventType().getName(), 1, Integer::sum);
+            Assertions.assertEquals(databaseFileName, event.getString("database"),
+                    event.toString());
+            Assertions.assertTrue(event.getBoolean("success"), event.toString());
+        }
+
+        Assertions.assertTrue(counts.get("com.manticore.h2.DriverLoad") >= 4, counts.toString());
+        Assertions.assertEquals(1, counts.get("com.manticore.h2.Export"), counts.toString());
+        Assertions.assertEquals(1, counts.get("com.manticore.h2.Import"), counts.toString());
+        Assertions.assertEquals(1, counts.get("com.manticore.h2.Copy"), counts.toString());
+        Assertions.assertEquals(4, counts.get("com.manticore.h2.Maintenance"), counts.toString());
+
+        // the COPY splits the table into ranges of 1000 rows, each is a statement group
+        Assertions.assertTrue(counts.get("com.manticore.h2.StatementGroup") >= ROWS / 1000,
+                counts.toString());
+    }
+
+    @Test
+    public void recordFailedImportTest() throws Exception {
+        Path scriptPath = folder.resolve("failed.sql");
+        Files.write(scriptPath, ("CREATE TABLE a (id INT PRIMARY KEY);\n"
+                + "INSERT INTO a VALUES (1), (1);\n").getBytes(StandardCharsets.UTF_8));
+
+        Path recordingPath = folder.resolve("failed.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(MigrationEvents.ImportEvent.class);
+            recording.start();
+
+            Assertions.assertThrows(Exception.class,
+                    () -> new H2MigrationTool().migrate(H2_VERSION_FROM, H2_VERSION_TO,
+                            scriptPath.toString(), "SA", "", "", "", "", true, true, ""));
+
+            recording.stop();
+            recording.dump(recordingPath);
+        }
+
+        // the failed import is recorded too
+        List<RecordedEvent> events = new ArrayList<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(recordingPath)) {
+            if (event.getEventType().getName().equals("com.manticore.h2.Import")) {
+                events.add(event);
+            }
+        }
+        Assertions.assertEquals(1, events.size(), events.toString());
+        Assertions.assertEquals(scriptPath.toString(), events.get(0).getString("source"));
+        Assertions.assertFalse(events.get(0).getBoolean("success"));
+    }
+}
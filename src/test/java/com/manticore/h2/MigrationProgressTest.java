@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationProgressTest extends MigrationTestBase {
+    @Test
+    public void phaseTest() throws Exception {
+        MigrationProgress.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(MigrationProgress.OBJECT_NAME);
+
+        MigrationProgress.start("phase");
+        try {
+            MigrationProgress.enterPhase(MigrationReport.PHASE_IMPORT);
+            Assertions.assertEquals("phase", server.getAttribute(objectName, "CurrentDatabase"));
+            Assertions.assertEquals(MigrationReport.PHASE_IMPORT,
+                    server.getAttribute(objectName, "Phase"));
+            Assertions.assertEquals(1,
+                    ((TabularData) server.getAttribute(objectName, "DatabasePhases")).size());
+        } finally {
+            MigrationProgress.finish(true);
+        }
+        Assertions.assertNull(server.getAttribute(objectName, "CurrentDatabase"));
+    }
+
+    @Test
+    public void driverLoadPhaseTest() throws Exception {
+        MigrationProgress.start("driver");
+        try {
+            MigrationProgress.enterPhase(MigrationReport.PHASE_EXPORT);
+
+            // loading the driver of the new database does not replace the phase of the export
+            H2MigrationTool.unloadDriver(H2MigrationTool.loadDriver(H2MigrationTool
+                    .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO)));
+            Assertions.assertEquals(MigrationReport.PHASE_EXPORT,
+                    MigrationProgress.getInstance().getPhase());
+        } finally {
+            MigrationProgress.finish(true);
+        }
+    }
+
+    @Test
+    public void migrateCopyTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("progress").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+            st.executeUpdate("INSERT INTO a SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS
+                    + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        MigrationProgress progress = MigrationProgress.getInstance();
+        long rows = progress.getRowsProcessed();
+        long expectedRows = progress.getExpectedRows();
+        int completedDatabases = progress.getCompletedDatabases();
+
+        new H2MigrationTool().setMigrationMode(H2MigrationTool.MigrationMode.COPY)
+                .setCopyThreads(2).setCopyPartitionSize(1000).migrate(H2_VERSION_FROM,
+                        H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "", "", "",
+                        true, true, "");
+
+        // the MBean is registered by the first migration
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(MigrationProgress.OBJECT_NAME);
+        Assertions.assertTrue(server.isRegistered(objectName));
+
+        Assertions.assertEquals(rows + ROWS, server.getAttribute(objectName, "RowsProcessed"));
+        Assertions.assertEquals(expectedRows + ROWS,
+                server.getAttribute(objectName, "ExpectedRows"));
+        Assertions.assertEquals(completedDatabases + 1,
+                server.getAttribute(objectName, "CompletedDatabases"));
+        Assertions.assertEquals(0, server.getAttribute(objectName, "ActiveWorkers"));
+        Assertions.assertTrue((Double) server.getAttribute(objectName, "RowsPerSecond") >= 0);
+
+        String[] drivers = (String[]) server.getAttribute(objectName, "LoadedDrivers");
+        Assertions.assertTrue(Arrays.asList(drivers).contains(H2_VERSION_TO),
+                Arrays.toString(drivers));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class MigrationReportTest extends MigrationTestBase {
+    @Test
+    public void quoteTest() {
+        Assertions.assertEquals("\"a\\\"b\\\\c\\u000a\"", MigrationReport.quoteJson("a\"b\\c\n"));
+        Assertions.assertEquals("\"a\\\"b\\\\c\\n\"", MigrationReport.quotePrometheus("a\"b\\c\n"));
+    }
+
+    @Test
+    public void migrateReportTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("report").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+            st.executeUpdate("INSERT INTO a SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS
+                    + ")");
+            st.executeUpdate("CREATE TABLE b (id INT PRIMARY KEY)");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        File reportFolder = folder.resolve("reports").toFile();
+        new H2MigrationTool().setReportFolder(reportFolder).migrate(H2_VERSION_FROM,
+                H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "", "", "VARIABLE_BINARY",
+                true, true, "");
+        Assertions.assertNull(MigrationReport.getCurrent());
+
+        String json = Files.readString(new File(reportFolder,
+                "report" + MigrationReport.JSON_EXTENSION).toPath());
+        Assertions.assertTrue(json.contains("\"success\": true"), json);
+        for (String phase : new String[] {MigrationReport.PHASE_DRIVER_LOAD,
+                MigrationReport.PHASE_EXPORT, MigrationReport.PHASE_IMPORT,
+                MigrationReport.PHASE_ANALYZE, MigrationReport.PHASE_COMPACT}) {
+            Assertions.assertTrue(json.contains("\"" + phase + "\": "), json);
+        }
+        Assertions.assertTrue(json.contains("\"\\\"PUBLIC\\\".\\\"A\\\"\": " + ROWS), json);
+        Assertions.assertTrue(json.contains("\"\\\"PUBLIC\\\".\\\"B\\\"\": 0"), json);
+        Assertions.assertTrue(json.contains("\"drivers\": [\"1.4.200\", \"2.2.224\"]"), json);
+        Assertions.assertFalse(json.contains("\"scriptSize\": -1"), json);
+
+        String prometheus = Files.readString(new File(reportFolder,
+                "report" + MigrationReport.PROMETHEUS_EXTENSION).toPath());
+        Assertions.assertTrue(prometheus.contains("h2migration_success{database=\"report\"} 1\n"),
+                prometheus);
+        Assertions.assertTrue(prometheus.contains("h2migration_table_rows{database=\"report\","
+                + "table=\"\\\"PUBLIC\\\".\\\"A\\\"\"} " + ROWS + "\n"), prometheus);
+        Assertions.assertTrue(prometheus.contains(
+                "h2migration_driver_info{database=\"report\",version=\"2.2.224\"} 1\n"),
+                prometheus);
+        Assertions.assertTrue(prometheus.contains("# TYPE h2migration_read_bytes gauge\n"),
+                prometheus);
+    }
+}
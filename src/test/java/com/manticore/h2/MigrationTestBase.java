@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The versions, the temporary folder and the H2 drivers shared by the tests migrating a database.
+ * Each test gets a new folder and driver history, which are deleted with all files afterwards.
+ *
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public abstract class MigrationTestBase {
+    public static final String H2_VERSION_FROM = "1.4.200";
+    public static final String H2_VERSION_TO = "2.2.224";
+    public static final int ROWS = 5000;
+
+    protected Path folder;
+
+    @BeforeEach
+    public void createFolder() throws Exception {
+        folder = Files.createTempDirectory("h2_" + getClass().getSimpleName() + "_");
+        H2MigrationTool.readDriverRecords();
+
+        // the drivers which migrated a database before must not change the order of the next test
+        H2MigrationTool.setDriverHistory(
+                new DriverHistory(folder.resolve(DriverHistory.HISTORY_FILE_NAME)));
+    }
+
+    @AfterEach
+    public void deleteFolder() throws Exception {
+        H2MigrationTool.setDriverHistory(null);
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    protected static long getLong(Statement st, String sqlStr) throws Exception {
+        try (ResultSet rs = st.executeQuery(sqlStr)) {
+            Assertions.assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+}
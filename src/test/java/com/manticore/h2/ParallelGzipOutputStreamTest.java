@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ParallelGzipOutputStreamTest extends MigrationTestBase {
+    public static final int ROWS = 10000;
+
+    @Test
+    public void roundTripTest() throws Exception {
+        byte[] bytes = new byte[1000003];
+        Random random = new Random(1);
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream outputStream =
+                new ParallelGzipOutputStream(compressed, 4, 64 * 1024)) {
+            outputStream.write(bytes, 0, 100);
+            outputStream.write(bytes[100]);
+            outputStream.write(bytes, 101, bytes.length - 101);
+        }
+
+        // one GZIP member per block, read as one stream
+        try (GZIPInputStream inputStream =
+                new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            Assertions.assertArrayEquals(bytes, inputStream.readAllBytes());
+        }
+    }
+
+    @Test
+    public void migrateCompressedTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("gzip").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(400))");
+            st.executeUpdate("INSERT INTO a SELECT x, REPEAT('a' || x, 20) "
+                    + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        H2MigrationTool tool = new H2MigrationTool().setCompressionThreads(4);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO,
+                databaseFileName + ".mv.db", "SA", "", "", "COMPRESSION GZIP",
+                "VARIABLE_BINARY", true, true, "");
+
+        // the script has been written by the tool and can be read by any GZIP reader
+        try (GZIPInputStream inputStream = new GZIPInputStream(
+                Files.newInputStream(Path.of(databaseFileName + ".sql.gz")))) {
+            String script = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+            Assertions.assertTrue(script.contains("CREATE"));
+        }
+
+        driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM a")) {
+            Assertions.assertTrue(rs.next());
+            Assertions.assertEquals(ROWS, rs.getInt(1));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ParallelMigrateTest extends MigrationTestBase {
+    public static final String[] H2_VERSIONS =
+            new String[] {
+                    "1.4.200", "2.1.214", "1.4.200", "2.1.214"
+            };
+    public static final int ROWS = 1000;
+
+    private final Map<String, String> databaseFileNames = new LinkedHashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (int i = 0; i < H2_VERSIONS.length; i++) {
+            String fileName = folder.resolve("tenant" + i).toString();
+            databaseFileNames.put(fileName, H2_VERSIONS[i]);
+
+            Driver driver = H2MigrationTool.loadDriver(
+                    H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(),
+                            H2_VERSIONS[i]));
+            try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                    Statement st = con.createStatement()) {
+                st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+                st.executeUpdate("INSERT INTO a SELECT x, 'a' || x "
+                        + "FROM SYSTEM_RANGE(1, " + (ROWS + i) + ")");
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+
+        // a broken database, which fails with all drivers
+        Files.write(folder.resolve("broken.mv.db"),
+                "This is not a H2 database.".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void migrateFolderTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool().setParallelism(3);
+
+        Exception exception = Assertions.assertThrows(Exception.class,
+                () -> tool.migrateAuto(H2_VERSION_TO, folder.toString(), "SA", "", "",
+                        "", "", true, true));
+        Assertions.assertTrue(exception.getMessage().startsWith("Failed to migrate 1 of 5"),
+                exception.getMessage());
+        Assertions.assertTrue(exception.getMessage().contains("broken"));
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try {
+            int i = 0;
+            for (String fileName : databaseFileNames.keySet()) {
+                try (Connection con = driver.connect(
+                        "jdbc:h2:" + fileName + ".224;IFEXISTS=TRUE", properties);
+                        Statement st = con.createStatement();
+                        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM a")) {
+                    Assertions.assertTrue(rs.next());
+                    Assertions.assertEquals(ROWS + i++, rs.getInt(1));
+                }
+
+                // every database has its own log
+                String log = new String(Files.readAllBytes(
+                        new File(fileName + H2MigrationTool.DATABASE_LOG_EXTENSION).toPath()),
+                        StandardCharsets.UTF_8);
+                Assertions.assertTrue(log.contains(fileName));
+                Assertions.assertFalse(log.contains("broken"));
+            }
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        Assertions.assertTrue(Files.isRegularFile(
+                folder.resolve("broken" + H2MigrationTool.DATABASE_LOG_EXTENSION)));
+    }
+
+    @Test
+    public void parallelBulkLoadTest() throws Exception {
+        Files.delete(folder.resolve("broken.mv.db"));
+
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord logRecord) {
+                messages.add(logRecord.getMessage());
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        };
+        BulkLoadProfile.LOGGER.addHandler(handler);
+        try {
+            new H2MigrationTool().setParallelism(2).setBulkLoad(true).migrateAuto(H2_VERSION_TO,
+                    folder.toString(), "SA", "", "", "", "", true, true);
+        } finally {
+            BulkLoadProfile.LOGGER.removeHandler(handler);
+        }
+
+        // the databases migrated at the same time share the cache
+        String cacheSize = "CACHE_SIZE=" + BulkLoadProfile.getDefaultCacheSize() / 2;
+        List<String> applied = new ArrayList<>();
+        for (String message : messages) {
+            if (message.startsWith("Applied the bulk load settings")) {
+                applied.add(message);
+                Assertions.assertTrue(message.contains(cacheSize), message);
+            }
+        }
+        Assertions.assertEquals(H2_VERSIONS.length, applied.size());
+    }
+
+    @Test
+    public void executeBatchMigrateTest() throws Exception {
+        // the 1.4.200 databases are migrated at the same time, as the UI does
+        List<File> files = new ArrayList<>();
+        int[] rows = new int[] {ROWS, ROWS + 2};
+        for (Map.Entry<String, String> e : databaseFileNames.entrySet()) {
+            if (e.getValue().equals("1.4.200")) {
+                files.add(new File(e.getKey() + ".mv.db"));
+            }
+        }
+
+        CountDownLatch running = new CountDownLatch(files.size());
+        Map<File, Exception> failedFiles = H2MigrationUI.executeBatch(files, files.size(),
+                "migrate", f -> {
+                    running.countDown();
+                    Assertions.assertTrue(running.await(30, TimeUnit.SECONDS));
+                    return new H2MigrationTool().migrate("1.4.200", H2_VERSION_TO,
+                            f.getAbsolutePath(), "SA", "", "", "COMPRESSION ZIP", "", true,
+                            true, "");
+                }, s -> {
+                });
+        Assertions.assertEquals(Map.of(), failedFiles);
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                String fileName = files.get(i).getAbsolutePath();
+                fileName = fileName.substring(0, fileName.length() - ".mv.db".length());
+                try (Connection con = driver.connect(
+                        "jdbc:h2:" + fileName + ".224;IFEXISTS=TRUE", properties);
+                        Statement st = con.createStatement();
+                        ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM a")) {
+                    Assertions.assertTrue(rs.next());
+                    Assertions.assertEquals(rows[i], rs.getInt(1));
+                }
+            }
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void executeBatchTest() throws Exception {
+        List<File> files = new ArrayList<>(databaseFileNames.size() + 1);
+        for (String fileName : databaseFileNames.keySet()) {
+            files.add(new File(fileName + ".mv.db"));
+        }
+        files.add(folder.resolve("broken.mv.db").toFile());
+
+        // every task waits for the others, so the batch only completes when all run concurrently
+        CountDownLatch running = new CountDownLatch(files.size());
+        Map<File, List<FileStatusTableModel.Status>> statuses = new ConcurrentHashMap<>();
+        Map<File, Exception> failedFiles = H2MigrationUI.executeBatch(files, files.size(),
+                "recover", f -> {
+                    running.countDown();
+                    Assertions.assertTrue(running.await(30, TimeUnit.SECONDS));
+                    if (f.getName().startsWith("broken")) {
+                        throw new Exception("Broken file " + f.getName());
+                    }
+                    return new H2MigrationTool.ScriptResult(f.getName() + ".sql",
+                            new ArrayList<>());
+                }, s -> statuses.computeIfAbsent(s.file, k -> new ArrayList<>()).add(s.status));
+
+        Assertions.assertEquals(1, failedFiles.size());
+        Assertions.assertTrue(failedFiles.containsKey(folder.resolve("broken.mv.db").toFile()));
+        for (File f : files) {
+            Assertions.assertEquals(List.of(FileStatusTableModel.Status.QUEUED,
+                    FileStatusTableModel.Status.RUNNING,
+                    f.getName().startsWith("broken") ? FileStatusTableModel.Status.FAILED
+                            : FileStatusTableModel.Status.DONE),
+                    statuses.get(f));
+        }
+    }
+}
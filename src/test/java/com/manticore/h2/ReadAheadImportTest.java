@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ReadAheadImportTest extends MigrationTestBase {
+    public static final int ROWS = 10000;
+
+    private static int getRowCount(String databaseFileName) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM a")) {
+            Assertions.assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateZipTest() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        String databaseFileName = folder.resolve("zip").toString();
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(400))");
+            st.executeUpdate("INSERT INTO a SELECT x, REPEAT('a' || x, 20) "
+                    + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+
+        // the ZIP file is written by H2 and inflated by the tool
+        H2MigrationTool tool = new H2MigrationTool().setReadAhead(true);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "",
+                "COMPRESSION ZIP", "VARIABLE_BINARY", true, true, "");
+        Assertions.assertTrue(new File(databaseFileName + ".sql.zip").isFile());
+        Assertions.assertEquals(ROWS, getRowCount(databaseFileName));
+    }
+
+    @Test
+    public void truncatedScriptTest() throws Exception {
+        StringBuilder builder = new StringBuilder("CREATE TABLE a (id INT PRIMARY KEY);\n");
+        for (int i = 1; i <= ROWS; i++) {
+            builder.append("INSERT INTO a VALUES (").append(i).append(");\n");
+        }
+
+        Path scriptPath = folder.resolve("truncated.sql.gz");
+        try (OutputStream outputStream =
+                new GZIPOutputStream(Files.newOutputStream(scriptPath))) {
+            outputStream.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] bytes = Files.readAllBytes(scriptPath);
+        Files.write(scriptPath, Arrays.copyOf(bytes, bytes.length / 2));
+
+        // the failure of the inflater fails the import instead of blocking it
+        H2MigrationTool tool = new H2MigrationTool().setReadAhead(true);
+        Assertions.assertThrows(Exception.class,
+                () -> tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, scriptPath.toString(), "SA",
+                        "", "", "", "VARIABLE_BINARY", true, true, ""));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ScriptOptimizerTest extends MigrationTestBase {
+    private static List<String> read(Path path) throws Exception {
+        ArrayList<String> statements = new ArrayList<>();
+        try (ScriptStatementReader reader = new ScriptStatementReader(path)) {
+            String sqlStr;
+            while ((sqlStr = reader.next()) != null) {
+                statements.add(sqlStr);
+            }
+        }
+        return statements;
+    }
+
+    @Test
+    public void parseInsertTest() {
+        String sqlStr = "INSERT INTO \"PUBLIC\".\"VALUES\"(\"ID\", \"VALUES\") VALUES (1, 'a)')";
+        int valuesIndex = ScriptOptimizer.getValuesIndex(sqlStr);
+        Assertions.assertEquals(sqlStr.indexOf(" VALUES (") + 1, valuesIndex);
+        Assertions.assertEquals(1, ScriptOptimizer.countRows(sqlStr, valuesIndex));
+
+        sqlStr = "INSERT INTO a VALUES\n(-1, 'it''s'),\n(2 - 1, NULL)";
+        Assertions.assertEquals(2,
+                ScriptOptimizer.countRows(sqlStr, ScriptOptimizer.getValuesIndex(sqlStr)));
+
+        // anything else than a list of rows is not merged
+        for (String s : new String[] {
+                "INSERT INTO a SELECT * FROM b",
+                "INSERT INTO a VALUES (1) ON DUPLICATE KEY UPDATE id = 2",
+                "INSERT INTO a VALUES (1 -- a comment\n)",
+                "INSERT INTO a VALUES (1), ",
+                "INSERT INTO a VALUES (1) (2)",
+                "UPDATE a SET id = 1"}) {
+            int valuesIndex1 = ScriptOptimizer.getValuesIndex(s);
+            Assertions.assertTrue(
+                    valuesIndex1 < 0 || ScriptOptimizer.countRows(s, valuesIndex1) < 0, s);
+        }
+    }
+
+    @Test
+    public void optimizeTest() throws Exception {
+        Path source = folder.resolve("source.sql");
+        Files.write(source, ("CREATE TABLE a (id INT PRIMARY KEY, text1 VARCHAR(40));\n"
+                + "CREATE TABLE b (id INT PRIMARY KEY);\n"
+                + "INSERT INTO a VALUES (1, 'a;1');\n"
+                + "INSERT INTO a VALUES (2, 'a2');\n"
+                + "-- 1 +/- SELECT COUNT(*) FROM b;\n"
+                + "INSERT INTO b VALUES (1);\n"
+                + "INSERT INTO a VALUES (3, 'a3'), (4, 'a4');\n"
+                + "INSERT INTO a VALUES (5, 'a5');\n"
+                + "INSERT INTO a(id) VALUES (6);\n"
+                + "CREATE INDEX a_text1 ON a (text1);\n"
+                + "INSERT INTO a VALUES (7, 'a7');\n").getBytes(StandardCharsets.UTF_8));
+
+        Path target = folder.resolve("target.sql");
+        ScriptOptimizer optimizer = new ScriptOptimizer(2);
+        Assertions.assertEquals(9, optimizer.optimize(source, target));
+        Assertions.assertEquals(10, optimizer.getStatements());
+        Assertions.assertEquals(6, optimizer.getInserts());
+
+        Assertions.assertEquals(List.of(
+                "CREATE TABLE a (id INT PRIMARY KEY, text1 VARCHAR(40))",
+                "CREATE TABLE b (id INT PRIMARY KEY)",
+                "INSERT INTO a VALUES (1, 'a;1'),\n(2, 'a2')",
+                "INSERT INTO b VALUES (1)",
+                "INSERT INTO a VALUES (3, 'a3'), (4, 'a4')",
+                "INSERT INTO a VALUES (5, 'a5')",
+                "INSERT INTO a(id) VALUES (6)",
+                "CREATE INDEX a_text1 ON a (text1)",
+                "INSERT INTO a VALUES (7, 'a7')"), read(target));
+    }
+
+    private static String getScript() {
+        StringBuilder builder = new StringBuilder(
+                "CREATE TABLE a (id INT PRIMARY KEY, text1 VARCHAR(40));\n");
+        for (int i = 1; i <= ROWS; i++) {
+            builder.append("INSERT INTO a VALUES (").append(i).append(", 'a''").append(i)
+                    .append("');\n");
+        }
+        builder.append("CREATE INDEX a_text1 ON a (text1);\n");
+        return builder.toString();
+    }
+
+    @Test
+    public void migrateOptimizedTest() throws Exception {
+        Path scriptPath = folder.resolve("optimized.sql");
+        Files.write(scriptPath, getScript().getBytes(StandardCharsets.UTF_8));
+
+        H2MigrationTool tool = new H2MigrationTool().setOptimizeScriptRows(1000);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, scriptPath.toString(), "SA", "", "", "", "",
+                true, true, "");
+
+        // the optimized copy is removed after the import
+        Assertions.assertFalse(Files.exists(folder.resolve("optimized.optimized.sql")));
+        assertDatabase(folder.resolve("optimized.224"));
+    }
+
+    @Test
+    public void migrateOptimizedCompressedTest() throws Exception {
+        Path scriptPath = folder.resolve("compressed.sql.gz");
+        try (OutputStream outputStream =
+                new GZIPOutputStream(Files.newOutputStream(scriptPath))) {
+            outputStream.write(getScript().getBytes(StandardCharsets.UTF_8));
+        }
+
+        H2MigrationTool tool = new H2MigrationTool().setOptimizeScriptRows(1000);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, scriptPath.toString(), "SA", "", "", "", "",
+                true, true, "");
+
+        // the compressed script is inflated and optimized, both copies are removed
+        Assertions.assertFalse(Files.exists(folder.resolve("compressed.inflated.sql")));
+        Assertions.assertFalse(Files.exists(folder.resolve("compressed.optimized.sql")));
+        assertDatabase(folder.resolve("compressed.224"));
+    }
+
+    private static void assertDatabase(Path databasePath) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databasePath + ";IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement();
+                ResultSet rs = st.executeQuery("SELECT COUNT(*), SUM(id), "
+                        + "COUNT(DISTINCT text1) FROM a WHERE text1 = 'a''' || id")) {
+            Assertions.assertTrue(rs.next());
+            Assertions.assertEquals(ROWS, rs.getInt(1));
+            Assertions.assertEquals((long) ROWS * (ROWS + 1) / 2, rs.getLong(2));
+            Assertions.assertEquals(ROWS, rs.getInt(3));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ScriptStatementReaderTest {
+    public static final Logger LOGGER =
+            Logger.getLogger(ScriptStatementReaderTest.class.getName());
+
+    // the size of the benchmark script in MB, e.g. -Dh2migrationtool.benchmark.size=4096
+    public static final String BENCHMARK_SIZE_PROPERTY = "h2migrationtool.benchmark.size";
+
+    public static final String SCRIPT = "-- a comment; with a semicolon\n"
+            + "CREATE TABLE \"a;b\" (id INT PRIMARY KEY, text1 VARCHAR(40));\n"
+            + "INSERT INTO \"a;b\" VALUES (1, 'it''s; quoted'), "
+            + "(2, 'Gr\u00fc\u00dfe; \u4f60\u597d');\n"
+            + "/* a block; comment */ INSERT INTO \"a;b\" VALUES (3, '--; no comment') "
+            + "// a line; comment\n"
+            + ";;  ;\n"
+            + "CREATE ALIAS f AS $$ String f(String s) { return s + \";\"; } $$;\n"
+            + "SELECT * FROM \"a;b\" /* no end of statement; */ WHERE id > 1\n"
+            + "-- the last statement without a semicolon\n";
+
+    public static final List<String> STATEMENTS = List.of(
+            "CREATE TABLE \"a;b\" (id INT PRIMARY KEY, text1 VARCHAR(40))",
+            "INSERT INTO \"a;b\" VALUES (1, 'it''s; quoted'), "
+                    + "(2, 'Gr\u00fc\u00dfe; \u4f60\u597d')",
+            "INSERT INTO \"a;b\" VALUES (3, '--; no comment')",
+            "CREATE ALIAS f AS $$ String f(String s) { return s + \";\"; } $$",
+            "SELECT * FROM \"a;b\" /* no end of statement; */ WHERE id > 1");
+
+    private Path folder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("h2_statements_");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (var paths = Files.list(folder)) {
+            paths.forEach(path -> path.toFile().delete());
+        }
+        Files.deleteIfExists(folder);
+    }
+
+    private static List<String> read(Path path, int regionSize) throws Exception {
+        ArrayList<String> statements = new ArrayList<>();
+        try (ScriptStatementReader reader = new ScriptStatementReader(path, regionSize)) {
+            String sqlStr;
+            while ((sqlStr = reader.next()) != null) {
+                statements.add(sqlStr);
+            }
+            Assertions.assertEquals(statements.size(), reader.getStatementCount());
+            Assertions.assertEquals(reader.getSize(), reader.getPosition());
+        }
+        return statements;
+    }
+
+    @Test
+    public void splitTest() throws Exception {
+        Path path = folder.resolve("script.sql");
+        Files.write(path, SCRIPT.getBytes(StandardCharsets.UTF_8));
+
+        // the small regions split the statements and the delimiters at every possible position
+        for (int regionSize : new int[] {16, 17, 31, 64, 100, 4096}) {
+            Assertions.assertEquals(STATEMENTS, read(path, regionSize),
+                    "Region size " + regionSize);
+        }
+        Assertions.assertEquals(STATEMENTS.size(), ScriptStatementReader.count(path));
+    }
+
+    @Test
+    public void unterminatedTest() throws Exception {
+        Path path = folder.resolve("unterminated.sql");
+        Files.write(path, "SELECT 1;\nSELECT 'open; quote\n-- end"
+                .getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(List.of("SELECT 1", "SELECT 'open; quote\n-- end"),
+                read(path, 16));
+
+        Files.write(path, " \n-- only a comment;\n".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(List.of(), read(path, 16));
+    }
+
+    @Test
+    public void benchmarkTest() throws Exception {
+        long size = Long.getLong(BENCHMARK_SIZE_PROPERTY, 64) * 1024 * 1024;
+
+        Path path = folder.resolve("benchmark.sql");
+        long statements = 0;
+        try (Writer writer = new BufferedWriter(
+                Files.newBufferedWriter(path, StandardCharsets.UTF_8), 1 << 20)) {
+            long written = 0;
+            StringBuilder builder = new StringBuilder();
+            while (written < size) {
+                builder.setLength(0);
+                builder.append("INSERT INTO \"PUBLIC\".\"A\" VALUES (").append(statements)
+                        .append(", 'it''s row ").append(statements)
+                        .append("; \u00e4\u00f6\u00fc', ")
+                        .append("X'0123456789abcdef', NULL) /* comment; */;\n");
+                writer.append(builder);
+                written += builder.length();
+                statements++;
+            }
+        }
+
+        long start = System.nanoTime();
+        Assertions.assertEquals(statements, ScriptStatementReader.count(path));
+        long nanos = Math.max(1, System.nanoTime() - start);
+
+        LOGGER.info(String.format("Split %d statements of %d MB in %d ms: %.1f MB/s", statements,
+                Files.size(path) >> 20, nanos / 1000000,
+                Files.size(path) / 1048576d / (nanos / 1e9)));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class ShardedScriptTest extends MigrationTestBase {
+    public static final int ROWS = 2000;
+
+    private String databaseFileName;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        databaseFileName = folder.resolve("sharded").toString();
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_FROM));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName, properties);
+                Statement st = con.createStatement()) {
+            st.executeUpdate("CREATE TABLE a (id INT PRIMARY KEY, field1 VARCHAR(40))");
+            st.executeUpdate("CREATE TABLE b (id INT PRIMARY KEY, a_id INT NOT NULL, "
+                    + "FOREIGN KEY (a_id) REFERENCES a (id))");
+            st.executeUpdate("CREATE INDEX b_a_id ON b (a_id)");
+            st.executeUpdate("CREATE TABLE c (id INT PRIMARY KEY, text1 CLOB)");
+            st.executeUpdate("CREATE VIEW v AS SELECT a.id, b.id b_id FROM a INNER JOIN b "
+                    + "ON a.id = b.a_id");
+
+            st.executeUpdate("INSERT INTO a SELECT x, 'a' || x FROM SYSTEM_RANGE(1, " + ROWS
+                    + ")");
+            st.executeUpdate("INSERT INTO b SELECT x, MOD(x, " + ROWS + ") + 1 "
+                    + "FROM SYSTEM_RANGE(1, " + (2 * ROWS) + ")");
+            st.executeUpdate("INSERT INTO c SELECT x, REPEAT('c', 10000) FROM SYSTEM_RANGE(1, 3)");
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateShardedTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool()
+                .setMigrationMode(H2MigrationTool.MigrationMode.SHARDED)
+                .setCopyThreads(3);
+        tool.migrate(H2_VERSION_FROM, H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "",
+                "", "QUIRKS_MODE VARIABLE_BINARY", true, true, "");
+
+        File shardFolder = new File(databaseFileName + ".shards");
+        ShardedScript script = ShardedScript.read(shardFolder);
+        Assertions.assertEquals(3, script.getShards().size());
+        Assertions.assertEquals(ROWS, script.getShard("PUBLIC.A").rows);
+        Assertions.assertEquals(2 * ROWS, script.getShard("B").rows);
+        Assertions.assertEquals(List.of("PUBLIC.A"), script.getShard("B").dependencies);
+        Assertions.assertTrue(script.getShard("C").lobs);
+        Assertions.assertFalse(script.getShard("A").lobs);
+
+        // the foreign key is created after the data
+        String finish = Files.readString(
+                new File(shardFolder, ShardedScript.FINISH_FILE_NAME).toPath());
+        Assertions.assertTrue(finish.contains("FOREIGN KEY"), finish);
+        Assertions.assertTrue(finish.contains("B_A_ID"), finish);
+
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect(
+                "jdbc:h2:" + databaseFileName + ".224;IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement()) {
+            Assertions.assertEquals(ROWS, getLong(st, "SELECT COUNT(*) FROM a"));
+            Assertions.assertEquals(2 * ROWS, getLong(st, "SELECT COUNT(*) FROM b"));
+            Assertions.assertEquals(2 * ROWS, getLong(st, "SELECT COUNT(*) FROM v"));
+            Assertions.assertEquals(30000, getLong(st, "SELECT SUM(LENGTH(text1)) FROM c"));
+
+            // a single table is imported again, without touching the other tables
+            st.executeUpdate("DELETE FROM c WHERE id > 1");
+            script.reimport(con, "PUBLIC.C", "QUIRKS_MODE VARIABLE_BINARY");
+            Assertions.assertEquals(30000, getLong(st, "SELECT SUM(LENGTH(text1)) FROM c"));
+
+            st.executeUpdate("UPDATE a SET field1 = NULL");
+            script.reimport(con, "A", "");
+            Assertions.assertEquals(ROWS, getLong(st, "SELECT COUNT(field1) FROM a"));
+            Assertions.assertEquals(2 * ROWS, getLong(st, "SELECT COUNT(*) FROM v"));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 Andreas Reichel<andreas@manticore-projects.com>
+ *
+ * This program is free software: you can redistribute it and/or modify it under the terms of the
+ * GNU General Public License as published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without
+ * even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If
+ * not, see <http://www.gnu.org/licenses/>.
+ */
+package com.manticore.h2;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author Andreas Reichel <andreas@manticore-projects.com>
+ */
+public class StreamingMigrateTest extends MigrationTestBase {
+    public static final String[] H2_VERSIONS =
+            new String[] {
+                    "1.3.176", "1.4.200", "2.1.214"
+            };
+
+    public static final String DDL_STR =
+            "CREATE TABLE a\n" +
+                    "  (\n" +
+                    "     id INT PRIMARY KEY,\n" +
+                    "     field1 varchar(40) UNIQUE, \n" +
+                    "     field2 CLOB\n" +
+                    "  );\n" +
+                    "\n" +
+                    "CREATE TABLE b\n" +
+                    "  (\n" +
+                    "     id INT PRIMARY KEY,\n" +
+                    "     field2 varchar(40)\n" +
+                    "  );\n" +
+                    "\n" +
+                    "ALTER TABLE b\n" +
+                    "  ADD FOREIGN KEY (field2) REFERENCES a(field1);";
+
+    private final Map<String, String> databaseFileNames = new LinkedHashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        for (String versionStr : H2_VERSIONS) {
+            String fileName = folder.resolve("stream_" + versionStr).toString();
+            databaseFileNames.put(versionStr, fileName);
+
+            Driver driver = H2MigrationTool.loadDriver(
+                    H2MigrationTool.getDriverRecord(H2MigrationTool.getDriverRecords(),
+                            versionStr));
+            try (Connection con = driver.connect("jdbc:h2:" + fileName, properties);
+                    Statement st = con.createStatement()) {
+                for (String sqlStr : DDL_STR.split(";")) {
+                    st.executeUpdate(sqlStr);
+                }
+                st.executeUpdate("INSERT INTO a SELECT x, 'a' || x, REPEAT('x', 2000) "
+                        + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+                st.executeUpdate("INSERT INTO b SELECT x, 'a' || x "
+                        + "FROM SYSTEM_RANGE(1, " + ROWS + ")");
+            } finally {
+                H2MigrationTool.unloadDriver(driver);
+            }
+        }
+    }
+
+    private static void assertRowCount(String databaseFileName) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("user", "sa");
+        properties.setProperty("password", "");
+
+        Driver driver = H2MigrationTool.loadDriver(H2MigrationTool
+                .getDriverRecord(H2MigrationTool.getDriverRecords(), H2_VERSION_TO));
+        try (Connection con = driver.connect("jdbc:h2:" + databaseFileName
+                .substring(0, databaseFileName.length() - ".mv.db".length())
+                + ";IFEXISTS=TRUE", properties);
+                Statement st = con.createStatement();
+                ResultSet rs = st.executeQuery(
+                        "SELECT (SELECT COUNT(*) FROM a), (SELECT COUNT(*) FROM b) FROM DUAL")) {
+            Assertions.assertTrue(rs.next());
+            Assertions.assertEquals(ROWS, rs.getInt(1));
+            Assertions.assertEquals(ROWS, rs.getInt(2));
+        } finally {
+            H2MigrationTool.unloadDriver(driver);
+        }
+    }
+
+    @Test
+    public void migrateStreamingTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool().setMigrationMode(
+                H2MigrationTool.MigrationMode.STREAM);
+
+        for (Map.Entry<String, String> e : databaseFileNames.entrySet()) {
+            String databaseFileName = e.getValue()
+                    + (e.getKey().startsWith("1.3") ? ".h2.db" : ".mv.db");
+            H2MigrationTool.ScriptResult scriptResult = tool.migrate(e.getKey(), H2_VERSION_TO,
+                    databaseFileName, "SA", "", "", "", "VARIABLE_BINARY", true, true, "");
+
+            Assertions.assertTrue(new File(scriptResult.scriptFileName).exists());
+            Assertions.assertFalse(new File(e.getValue() + ".sql").exists());
+            assertRowCount(scriptResult.scriptFileName);
+        }
+    }
+
+    @Test
+    public void migrateAutoStreamingTest() throws Exception {
+        H2MigrationTool tool = new H2MigrationTool().setMigrationMode(
+                H2MigrationTool.MigrationMode.STREAM);
+
+        String databaseFileName = databaseFileNames.get("1.4.200");
+        tool.migrateAuto(H2_VERSION_TO, databaseFileName + ".mv.db", "SA", "", "", "", "", true,
+                true);
+
+        assertRowCount(databaseFileName + ".224.mv.db");
+
+        // the driver is recorded in the history passed in, not in the user's cache
+        Assertions.assertEquals(folder.resolve(DriverHistory.HISTORY_FILE_NAME),
+                H2MigrationTool.getDriverHistory().getFile());
+        Assertions.assertTrue(Files.isRegularFile(folder.resolve(DriverHistory.HISTORY_FILE_NAME)));
+    }
+
+    @Test
+    public void failedExportTest() {
+        H2MigrationTool tool = new H2MigrationTool();
+        Assertions.assertThrows(Exception.class, () -> tool.migrateStreaming(
+                tool.getDriverRecord("1.4.200"), tool.getDriverRecord(H2_VERSION_TO),
+                databaseFileNames.get("1.4.200") + "_does_not_exist", "SA", "", "", true,
+                ";IFEXISTS=TRUE"));
+    }
+}